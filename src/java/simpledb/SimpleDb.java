@@ -52,8 +52,8 @@ public class SimpleDb {
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    HeapFileLoader.load(sourceTxtFile, targetDatFile,
+                            BufferPool.getPageSize(), ts, fieldSeparator);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -1,8 +1,14 @@
 package simpledb.common;
 
+import simpledb.index.BTreeFile;
+import simpledb.index.HashIndex;
+import simpledb.storage.ColumnarFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.SlottedHeapFile;
+import simpledb.storage.StringDictionary;
 import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -27,6 +33,8 @@ public class Catalog {
     private final Map<String, Integer> name2id;
     private final Map<Integer, String> id2name;
     private final Map<Integer, String> pkey;
+    private final Map<Integer, List<HashIndex>> indexes;
+    private final Map<Integer, HashIndex> id2index;
 
     /**
      * Constructor.
@@ -38,6 +46,8 @@ public class Catalog {
         name2id = new ConcurrentHashMap<>();
         id2name = new ConcurrentHashMap<>();
         pkey = new ConcurrentHashMap<>();
+        indexes = new ConcurrentHashMap<>();
+        id2index = new ConcurrentHashMap<>();
 
     }
 
@@ -120,7 +130,53 @@ public class Catalog {
      *                function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
-        return id2table.get(tableid);
+        DbFile file = id2table.get(tableid);
+        return file != null ? file : id2index.get(tableid);
+    }
+
+    /**
+     * Add an index on a table that is in the catalog, replacing any index on
+     * the same field. If the index file is empty, the index is built from the
+     * contents of the table. From then on, the buffer pool keeps the index up
+     * to date with the tuples it inserts into and deletes from the table. The
+     * index is not a table: its file can only be found by its id, with
+     * {@link #getDatabaseFile}.
+     *
+     * @param index the index to add
+     */
+    public void addIndex(HashIndex index) throws DbException, IOException, TransactionAbortedException {
+        int tableid = index.getTable().getId();
+        if (!id2table.containsKey(tableid)) {
+            throw new NoSuchElementException("table " + tableid + " is not in the catalog");
+        }
+        if (index.numPages() == 0) {
+            index.build();
+        }
+        List<HashIndex> onTable = new ArrayList<>(getIndexes(tableid));
+        onTable.removeIf(i -> i.keyField() == index.keyField());
+        onTable.add(index);
+        indexes.put(tableid, Collections.unmodifiableList(onTable));
+        id2index.put(index.getId(), index);
+    }
+
+    /**
+     * @return the indexes on the specified table, none if it has none
+     */
+    public List<HashIndex> getIndexes(int tableid) {
+        return indexes.getOrDefault(tableid, Collections.emptyList());
+    }
+
+    /**
+     * @return the index on the specified field of the specified table, or
+     *         null if there is none
+     */
+    public HashIndex getIndex(int tableid, int field) {
+        for (HashIndex index : getIndexes(tableid)) {
+            if (index.keyField() == field) {
+                return index;
+            }
+        }
+        return null;
     }
 
     public String getPrimaryKey(int tableid) {
@@ -144,10 +200,26 @@ public class Catalog {
         name2id.clear();
         id2name.clear();
         pkey.clear();
+        indexes.clear();
+        id2index.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A table is stored in a HeapFile unless its schema is followed by the
+     * keyword <code>slotted</code>, as in <code>name (a int, b string) slotted</code>,
+     * which stores it in a SlottedHeapFile, <code>columnar</code>, which
+     * stores it in a ColumnarFile, <code>compressed</code>, which stores it
+     * in a ColumnarFile of CompressedPages (int fields only), or
+     * <code>btree</code>, which stores it in a
+     * BTreeFile keyed on the primary key (or the first field, if there is no
+     * primary key). A field annotated with <code>hash</code>, as in
+     * <code>name (a int pk, b int hash)</code>, gets a HashIndex stored in
+     * <code>name.b.hash</code> next to the table. A string field of a
+     * HeapFile annotated with <code>dict</code>, as in
+     * <code>name (a int, b string dict)</code>, is stored as codes in the
+     * StringDictionary kept in <code>name.b.dict</code> (see
+     * {@link TupleDesc#TupleDesc(Type[], String[], StringDictionary[])}).
      *
      * @param catalogFile
      */
@@ -166,6 +238,8 @@ public class Catalog {
                 List<String> names = new ArrayList<>();
                 List<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                List<String> hashed = new ArrayList<>();
+                List<StringDictionary> dictionaries = new ArrayList<>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -177,23 +251,63 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    dictionaries.add(null);
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
-                        else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                        else if (els2[i].trim().equals("hash"))
+                            hashed.add(els2[0].trim());
+                        else if (els2[i].trim().equals("dict")) {
+                            if (types.get(types.size() - 1) != Type.STRING_TYPE) {
+                                System.out.println("Only string fields can be dictionary-encoded: " + e.trim());
+                                System.exit(0);
+                            }
+                            File dictFile = new File(baseFolder + "/" + name + "." + els2[0].trim() + ".dict");
+                            dictionaries.set(dictionaries.size() - 1, new StringDictionary(dictFile));
+                        } else {
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                StringDictionary[] dictAr = dictionaries.toArray(new StringDictionary[0]);
+                TupleDesc t = new TupleDesc(typeAr, namesAr, dictAr);
+                String format = line.substring(line.indexOf(")") + 1).trim();
+                if (!format.isEmpty() && dictionaries.stream().anyMatch(Objects::nonNull)) {
+                    System.out.println("Dictionary-encoded fields of " + name + " need a heap file");
+                    System.exit(0);
+                }
+                File tableFile = new File(baseFolder + "/" + name + ".dat");
+                DbFile tabHf;
+                if (format.isEmpty())
+                    tabHf = new HeapFile(tableFile, t);
+                else if (format.equalsIgnoreCase("slotted"))
+                    tabHf = new SlottedHeapFile(tableFile, t);
+                else if (format.equalsIgnoreCase("columnar"))
+                    tabHf = new ColumnarFile(tableFile, t);
+                else if (format.equalsIgnoreCase("compressed"))
+                    tabHf = new ColumnarFile(tableFile, t, true);
+                else if (format.equalsIgnoreCase("btree"))
+                    tabHf = new BTreeFile(tableFile, Math.max(0, names.indexOf(primaryKey)), t);
+                else {
+                    System.out.println("Unknown storage format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String field : hashed) {
+                    if (!(tabHf instanceof HeapFile)) {
+                        System.out.println("Hash index on " + name + "." + field + " needs a heap file");
+                        System.exit(0);
+                    }
+                    File indexFile = new File(baseFolder + "/" + name + "." + field + ".hash");
+                    addIndex(new HashIndex(indexFile, (HeapFile) tabHf, names.indexOf(field)));
+                }
             }
-        } catch (IOException e) {
+        } catch (IOException | DbException | TransactionAbortedException | IllegalArgumentException e) {
             e.printStackTrace();
             System.exit(0);
         } catch (IndexOutOfBoundsException e) {
@@ -7,6 +7,9 @@ import simpledb.storage.StringField;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.text.ParseException;
 
 /**
@@ -30,6 +33,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,8 +56,25 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = Math.max(0, Math.min(readInt(data, offset), STRING_LEN));
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
     };
 
+    private static final VarHandle INT_VIEW =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * @return the big-endian integer stored at the specified offset of the
+     *         array, as written by DataOutputStream.writeInt
+     */
+    public static int readInt(byte[] data, int offset) {
+        return (int) INT_VIEW.get(data, offset);
+    }
+
     public static final int STRING_LEN = 128;
 
     /**
@@ -66,4 +91,13 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * @param data   an array holding a serialized field of this type
+     * @param offset the offset of the field in the array
+     * @return a Field object of the same type as this object with the
+     *         contents stored at the specified offset, in the format written
+     *         by {@link Field#serialize}
+     */
+    public abstract Field parse(byte[] data, int offset);
+
 }
@@ -0,0 +1,152 @@
+package simpledb.execution;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.index.HashIndex;
+import simpledb.storage.HeapPage;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * IndexNestedLoopJoin is an equi-join of a child (the outer relation) with a
+ * table that has a HashIndex on its join field (the inner relation). For
+ * each outer tuple, it looks up the inner tuples with the same key in the
+ * index and fetches them by their RecordIds, instead of scanning the whole
+ * inner relation again as {@link Join} does. The tuples it returns are the
+ * same as those of a Join of the child with a SeqScan of the table.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final JoinPredicate predicate;
+    private OpIterator child;
+    private final HashIndex index;
+    private final TupleDesc td;
+    private Tuple outerTuple = null;
+    private Iterator<RecordId> matches = Collections.emptyIterator();
+
+    /**
+     * Constructor.
+     *
+     * @param tid        the transaction the join runs as a part of
+     * @param p          the predicate to join on, whose operator must be
+     *                   EQUALS; its second field is a field of the table
+     * @param child      the outer relation
+     * @param tableid    the inner table, which must have a HashIndex on the
+     *                   second field of the predicate
+     * @param tableAlias the alias of the inner table, as for SeqScan
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, OpIterator child, int tableid,
+                               String tableAlias) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("an index can only answer equality predicates");
+        }
+        this.index = Database.getCatalog().getIndex(tableid, p.getField2());
+        if (index == null) {
+            throw new IllegalArgumentException("no index on field " + p.getField2() + " of table " + tableid);
+        }
+        this.tid = tid;
+        this.predicate = p;
+        this.child = child;
+
+        TupleDesc inner = Database.getCatalog().getTupleDesc(tableid);
+        String[] names = new String[inner.numFields()];
+        Type[] types = new Type[inner.numFields()];
+        for (int i = 0; i < inner.numFields(); i++) {
+            names[i] = tableAlias + "." + inner.getFieldName(i);
+            types[i] = inner.getFieldType(i);
+        }
+        this.td = TupleDesc.merge(child.getTupleDesc(), new TupleDesc(types, names));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.predicate;
+    }
+
+    /**
+     * @return the index the inner tuples are looked up in
+     */
+    public HashIndex getIndex() {
+        return this.index;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        this.child.close();
+        this.outerTuple = null;
+        this.matches = Collections.emptyIterator();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+        this.outerTuple = null;
+        this.matches = Collections.emptyIterator();
+    }
+
+    /**
+     * Returns the next outer tuple merged with an inner tuple with the same
+     * key, or null if there are no more.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (this.matches.hasNext()) {
+                RecordId rid = this.matches.next();
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.tid, rid.getPageId(),
+                        Permissions.READ_ONLY);
+                Tuple inner = page.getTuple(rid.getTupleNumber());
+                if (inner != null) {
+                    return merge(this.outerTuple, inner);
+                }
+            }
+            if (!this.child.hasNext()) {
+                return null;
+            }
+            this.outerTuple = this.child.next();
+            this.matches = this.index.lookup(this.tid, this.outerTuple.getField(this.predicate.getField1()));
+        }
+    }
+
+    private Tuple merge(Tuple outer, Tuple inner) {
+        Tuple t = new Tuple(this.td);
+        int outerFields = outer.getTupleDesc().numFields();
+        for (int i = 0; i < outerFields; i++) {
+            t.setField(i, outer.getField(i));
+        }
+        for (int i = 0; i < inner.getTupleDesc().numFields(); i++) {
+            t.setField(outerFields + i, inner.getField(i));
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        OpIterator[] children = { this.child };
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.IndexPredicate;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexScan reads the tuples of a table stored in a BTreeFile whose keys
+ * satisfy an equality or range predicate, in key order, reading only the
+ * leaves of the tree that may hold them (see
+ * {@link BTreeFile#indexIterator}). Its TupleDesc is the same as that of a
+ * SeqScan of the table.
+ */
+public class IndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final TupleDesc myTd;
+    private final IndexPredicate ipred;
+    private transient DbFileIterator it;
+    private final String tableName;
+    private final String alias;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan, which must be a BTreeFile
+     * @param tableAlias the alias of this table, as for SeqScan
+     * @param ipred      the predicate on the key field of the table
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof BTreeFile)) {
+            throw new IllegalArgumentException("table " + tableid + " has no index");
+        }
+        this.tid = tid;
+        this.alias = tableAlias;
+        this.ipred = ipred;
+        this.tableName = Database.getCatalog().getTableName(tableid);
+        this.it = ((BTreeFile) file).indexIterator(tid, ipred);
+
+        TupleDesc td = file.getTupleDesc();
+        String[] names = new String[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            names[i] = tableAlias + "." + td.getFieldName(i);
+            types[i] = td.getFieldType(i);
+        }
+        this.myTd = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the name of the table the operator scans
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the predicate on the key field
+     */
+    public IndexPredicate getPredicate() {
+        return ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+        it.open();
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -1,6 +1,8 @@
 package simpledb.execution;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
@@ -20,6 +22,12 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Number of child tuples handed to {@link BufferPool#insertTuples} at a
+     * time. Large enough for a HeapFile to append many full pages at once.
+     */
+    private static final int BATCH_SIZE = 16384;
+
     private TransactionId transactionId;
     private OpIterator child;
     private int tableId;
@@ -79,7 +87,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         if (inserted) {
@@ -89,20 +97,40 @@ public class Insert extends Operator {
             throw new DbException("This file is not opened.");
         }
         int insertCount = 0;
+        List<Tuple> batch = new ArrayList<>();
         while (this.child.hasNext()) {
-            try {
-                Database.getBufferPool().insertTuple(this.transactionId, this.tableId, this.child.next());
-                insertCount++;
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+            batch.add(this.child.next());
+            if (batch.size() == BATCH_SIZE) {
+                insertCount += insertBatch(batch);
             }
         }
+        insertCount += insertBatch(batch);
         inserted = true;
         Tuple returnTuple = new Tuple(this.getTupleDesc());
         returnTuple.setField(0, new IntField(insertCount));
         return returnTuple;
     }
 
+    /**
+     * Inserts and clears the batch; the file decides whether there are
+     * enough tuples to append whole pages.
+     *
+     * @return the number of tuples inserted
+     */
+    private int insertBatch(List<Tuple> batch) throws TransactionAbortedException, DbException {
+        int n = batch.size();
+        if (n == 0) {
+            return 0;
+        }
+        try {
+            Database.getBufferPool().insertTuples(this.transactionId, this.tableId, batch.iterator());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        batch.clear();
+        return n;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
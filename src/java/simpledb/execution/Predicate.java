@@ -98,7 +98,7 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-        return t.getField(this.getField()).compare(this.getOp(), this.getOperand());
+        return t.compareField(this.getField(), this.getOp(), this.getOperand());
     }
 
     /**
@@ -3,12 +3,17 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.ColumnarFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -24,9 +29,13 @@ public class SeqScan implements OpIterator {
     private final TransactionId tid;
     private TupleDesc myTd;
     private transient DbFileIterator it;
-    //    private transient int tableid;
     private String tableName;
     private String alias;
+    private int tableid;
+    private int readAhead = HeapFile.DEFAULT_READ_AHEAD;
+    private int[] columns; // the columns scanned, or null for all of them
+    /** pushed down predicates, on fields of the table (not of myTd) */
+    private final List<Predicate> predicates = new ArrayList<>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -73,24 +82,115 @@ public class SeqScan implements OpIterator {
      *                   tableAlias.null, or null.null).
      */
     public void reset(int tableid, String tableAlias) {
-        //        this.tableid = tableid;
+        this.tableid = tableid;
         this.isOpen = false;
         this.alias = tableAlias;
         this.tableName = Database.getCatalog().getTableName(tableid);
-        this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.columns = null;
+        this.predicates.clear();
+        this.it = newIterator();
+        setTupleDesc();
+    }
+
+    /**
+     * Sets myTd to the TupleDesc of the table, restricted to the scanned
+     * columns and with the field names prefixed with the alias.
+     */
+    private void setTupleDesc() {
         myTd = Database.getCatalog().getTupleDesc(tableid);
+        if (columns != null) {
+            myTd = myTd.project(columns);
+        }
         String[] newNames = new String[myTd.numFields()];
         Type[] newTypes = new Type[myTd.numFields()];
         for (int i = 0; i < myTd.numFields(); i++) {
             String name = myTd.getFieldName(i);
             Type t = myTd.getFieldType(i);
 
-            newNames[i] = tableAlias + "." + name;
+            newNames[i] = alias + "." + name;
             newTypes[i] = t;
         }
         myTd = new TupleDesc(newTypes, newNames);
     }
 
+    private DbFileIterator newIterator() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (columns != null) {
+            if (file instanceof ColumnarFile) {
+                return ((ColumnarFile) file).iterator(tid, columns);
+            }
+            return new ProjectedIterator(newIterator(file), file.getTupleDesc().project(columns), columns);
+        }
+        return newIterator(file);
+    }
+
+    private DbFileIterator newIterator(DbFile file) {
+        if (file instanceof HeapFile) {
+            return ((HeapFile) file).iterator(tid, readAhead, predicates);
+        }
+        return file.iterator(tid);
+    }
+
+    /**
+     * Set how many pages this scan reads ahead of the page it is on, if the
+     * table is a HeapFile (the default is {@value HeapFile#DEFAULT_READ_AHEAD});
+     * 0 disables read-ahead. Must be called before the scan is opened.
+     *
+     * @param pages the number of pages to read ahead
+     */
+    public void setReadAhead(int pages) {
+        if (isOpen)
+            throw new IllegalStateException("cannot change the read-ahead of an open scan");
+        if (pages < 0)
+            throw new IllegalArgumentException("pages must not be negative");
+        this.readAhead = pages;
+        this.it = newIterator();
+    }
+
+    /**
+     * Restrict this scan to the specified columns of the table, in the order
+     * given: its tuples and its TupleDesc then only have those fields. A
+     * ColumnarFile decodes only these columns; the tuples of other tables
+     * are projected as they are read. Must be called before the scan is
+     * opened.
+     *
+     * @param columns indexes of fields of the table, or null for all of them
+     */
+    public void setColumns(int[] columns) {
+        if (isOpen)
+            throw new IllegalStateException("cannot change the columns of an open scan");
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        if (columns != null) {
+            for (int c : columns) {
+                if (c < 0 || c >= td.numFields())
+                    throw new IllegalArgumentException("no column " + c + " in " + tableName);
+            }
+        }
+        this.columns = columns == null ? null : columns.clone();
+        this.it = newIterator();
+        setTupleDesc();
+    }
+
+    /**
+     * Tell this scan that only the tuples satisfying the specified predicate
+     * are wanted, so that it may skip the pages of a HeapFile that, according
+     * to the file's zone map, hold none of them. This is only a hint: the
+     * scan may still return tuples that do not satisfy the predicate, so it
+     * has to be applied by a Filter as well. Must be called before the scan
+     * is opened.
+     *
+     * @param p a predicate on a field of this scan's TupleDesc
+     */
+    public void pushDown(Predicate p) {
+        if (isOpen)
+            throw new IllegalStateException("cannot push a predicate into an open scan");
+        if (p.getField() < 0 || p.getField() >= myTd.numFields())
+            throw new IllegalArgumentException("no field " + p.getField() + " in " + myTd);
+        int field = columns == null ? p.getField() : columns[p.getField()];
+        predicates.add(new Predicate(field, p.getOp(), p.getOperand()));
+        this.it = newIterator();
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
@@ -142,4 +242,46 @@ public class SeqScan implements OpIterator {
         close();
         open();
     }
+
+    /**
+     * Projects the tuples of another iterator to some of their fields, for
+     * tables that cannot do that themselves.
+     */
+    private static class ProjectedIterator implements DbFileIterator {
+        private final DbFileIterator child;
+        private final TupleDesc td;
+        private final int[] columns;
+
+        ProjectedIterator(DbFileIterator child, TupleDesc td, int[] columns) {
+            this.child = child;
+            this.td = td;
+            this.columns = columns;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            Tuple t = child.next();
+            Tuple projected = new Tuple(td);
+            for (int i = 0; i < columns.length; i++) {
+                projected.setField(i, t.getField(columns[i]));
+            }
+            projected.setRecordId(t.getRecordId());
+            return projected;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        public void close() {
+            child.close();
+        }
+    }
 }
@@ -0,0 +1,823 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BTreeFile is a DbFile that stores the tuples of a table in a B+ tree on
+ * one of its fields, the key field. The tuples themselves are stored in the
+ * leaf pages (see {@link BTreeLeafPage}) in key order; internal pages
+ * ({@link BTreeInternalPage}) route searches to the leaves, page 0 (a
+ * {@link BTreeRootPtrPage}) points to the root, and header pages
+ * ({@link BTreeHeaderPage}) keep track of the pages that are free for reuse.
+ * All pages are read and written through the buffer pool, with the usual
+ * locks. Duplicate keys are allowed.
+ * <p>
+ * Pages do not point to their parents: inserts and deletes remember the path
+ * from the root to the leaf they change, so that splitting or merging a page
+ * does not have to update the children it moves.
+ * <p>
+ * A full leaf is split in two on insert, and so is a full internal page when
+ * a split adds a key to it. A leaf that is less than half full after a delete
+ * takes tuples from its left sibling, or is merged with it; a leaf with no
+ * left sibling under the same parent is merged with its right sibling if
+ * both fit in one page, and otherwise stays as it is. Tuples thus only ever
+ * move to the right, so a scan that deletes the tuples it reads does not
+ * miss any. Internal pages less than half full take keys from, or are merged
+ * with, a sibling on either side, and the root goes away when it has a
+ * single child left.
+ * <p>
+ * A catalog declares a table stored this way by following its schema with
+ * the keyword <code>btree</code>; the key is the primary key field, or the
+ * first one. {@link #indexIterator} and the
+ * {@link simpledb.execution.IndexScan} operator read only the tuples whose
+ * keys match a predicate.
+ *
+ * @see BTreePage
+ */
+public class BTreeFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /** opened on first use and kept open for the lifetime of this file */
+    private volatile FileChannel channel;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f   the file that stores the on-disk backing store for this B+ tree
+     *            file.
+     * @param key the field which index is keyed on
+     * @param td  the tuple descriptor of tuples in the file
+     */
+    public BTreeFile(File f, int key, TupleDesc td) {
+        if (key < 0 || key >= td.numFields()) {
+            throw new IllegalArgumentException("no field " + key + " in " + td);
+        }
+        this.f = f;
+        this.td = td;
+        this.keyField = key;
+        this.tableid = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this file, computed the same way as
+     * for a HeapFile.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the index of the field the tree is keyed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                ch = new RandomAccessFile(f.getAbsoluteFile(), "rw").getChannel();
+                channel = ch;
+            }
+            return ch;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId id = (BTreePageId) pid;
+        try {
+            byte[] data = new byte[BufferPool.getPageSize()];
+            ByteBuffer bb = ByteBuffer.wrap(data);
+            FileChannel ch = channel();
+            long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, offset + bb.position()) < 0) {
+                    // the root pointer page of an empty file reads as zeros
+                    if (id.getPageNumber() != 0) {
+                        throw new IllegalArgumentException("Read past end of table");
+                    }
+                    break;
+                }
+            }
+            switch (id.pgcateg()) {
+                case BTreePageId.ROOT_PTR:
+                    return new BTreeRootPtrPage(id, data);
+                case BTreePageId.INTERNAL:
+                    return new BTreeInternalPage(id, td.getFieldType(keyField), data);
+                case BTreePageId.LEAF:
+                    return new BTreeLeafPage(id, td, keyField, data);
+                case BTreePageId.HEADER:
+                    return new BTreeHeaderPage(id, data);
+                default:
+                    throw new IllegalArgumentException("unknown page category " + id.pgcateg());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(page.getPageData());
+        FileChannel ch = channel();
+        long offset = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+        while (bb.hasRemaining()) {
+            ch.write(bb, offset + bb.position());
+        }
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer page and free pages.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    private BTreePageId rootPtrId() {
+        return BTreeRootPtrPage.getId(tableid);
+    }
+
+    /**
+     * Returns the specified page: the version in dirtypages if there is one,
+     * otherwise the one in the buffer pool. Pages requested with READ_WRITE
+     * are added to dirtypages and marked dirty, since the caller is about to
+     * modify them.
+     */
+    Page getPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        Page p = dirtypages.get(pid);
+        if (p != null) {
+            return p;
+        }
+        p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            // keep the pool from evicting the page before it is cached
+            p.markDirty(true, tid);
+            dirtypages.put(pid, p);
+        }
+        return p;
+    }
+
+    private BTreeLeafPage getLeaf(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid,
+                                  Permissions perm) throws DbException, TransactionAbortedException {
+        return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+    }
+
+    private BTreeInternalPage getInternal(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid,
+                                          Permissions perm) throws DbException, TransactionAbortedException {
+        return (BTreeInternalPage) getPage(tid, dirtypages, pid, perm);
+    }
+
+    /**
+     * Descends from the specified page to the leftmost leaf that may hold
+     * the specified key, recording the internal pages on the way in path
+     * (unless it is null). The internal pages are locked READ_ONLY, the leaf
+     * with perm.
+     *
+     * @param f the key to look for, or null for the leftmost leaf
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid,
+                               Permissions perm, Field f, Deque<BTreePageId> path)
+            throws DbException, TransactionAbortedException {
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage p = getInternal(tid, dirtypages, pid, Permissions.READ_ONLY);
+            if (path != null) {
+                path.addLast(pid);
+            }
+            pid = p.getChildId(p.childIndexFor(f));
+        }
+        return getLeaf(tid, dirtypages, pid, perm);
+    }
+
+    private interface LeafTest {
+        boolean test(BTreePageId leaf) throws DbException, TransactionAbortedException;
+    }
+
+    /**
+     * Searches the subtree of the specified page for a leaf that may hold
+     * the key and passes the test, in key order, recording the internal pages
+     * from pid to the leaf in path.
+     *
+     * @return the leaf, or null if there is none
+     */
+    private BTreePageId findLeaf(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Field key,
+                                 LeafTest test, Deque<BTreePageId> path)
+            throws DbException, TransactionAbortedException {
+        if (pid.pgcateg() == BTreePageId.LEAF) {
+            return test.test(pid) ? pid : null;
+        }
+        BTreeInternalPage p = getInternal(tid, dirtypages, pid, Permissions.READ_ONLY);
+        path.addLast(pid);
+        int start = p.childIndexFor(key);
+        // with duplicates, the key may be in several subtrees
+        for (int i = start; i <= p.getNumEntries() && (i == start || p.getKey(i - 1).equals(key)); i++) {
+            BTreePageId leaf = findLeaf(tid, dirtypages, p.getChildId(i), key, test, path);
+            if (leaf != null) {
+                return leaf;
+            }
+        }
+        path.removeLast();
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc mismatch!");
+        }
+        Map<PageId, Page> dirtypages = new LinkedHashMap<>();
+        insert(tid, dirtypages, t);
+        return new ArrayList<>(dirtypages.values());
+    }
+
+    /**
+     * Inserts the tuples one at a time like {@link DbFile#insertTuples}, but
+     * with a single set of dirty pages, so that each insert sees the pages
+     * the ones before it added to the tree rather than what the buffer pool
+     * holds for them until they are cached.
+     */
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> dirtypages = new LinkedHashMap<>();
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (!td.equals(t.getTupleDesc())) {
+                throw new DbException("TupleDesc mismatch!");
+            }
+            insert(tid, dirtypages, t);
+        }
+        return new ArrayList<>(dirtypages.values());
+    }
+
+    private void insert(TransactionId tid, Map<PageId, Page> dirtypages, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId(), Permissions.READ_ONLY);
+        BTreePageId rootId = rootPtr.getRootId();
+        if (rootId == null) {
+            rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId(), Permissions.READ_WRITE);
+            rootId = rootPtr.getRootId(); // may have been set while waiting for the lock
+            if (rootId == null) {
+                rootId = getEmptyPage(tid, dirtypages, BTreePageId.LEAF).getId();
+                rootPtr.setRootId(rootId);
+            }
+        }
+
+        Field key = t.getField(keyField);
+        Deque<BTreePageId> path = new ArrayDeque<>();
+        BTreeLeafPage leaf = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, key, path);
+        if (leaf.getNumEmptySlots() == 0) {
+            leaf = splitLeafPage(tid, dirtypages, leaf, key, path);
+        }
+        leaf.insertTuple(t);
+    }
+
+    /**
+     * Splits a full leaf page, moving the upper half of its tuples to a new
+     * page to its right, and adds the first key of the new page to the
+     * parent, splitting the parent (and so on up) if it is full.
+     *
+     * @param field the key of the tuple about to be inserted
+     * @param path  the internal pages from the root to the page's parent;
+     *              emptied by the split
+     * @return the page the tuple with the key belongs on
+     */
+    private BTreeLeafPage splitLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage page,
+                                        Field field, Deque<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+        List<Tuple> tuples = page.tuples();
+        for (Tuple t : tuples.subList(tuples.size() - tuples.size() / 2, tuples.size())) {
+            page.deleteSlot(t.getRecordId().getTupleNumber());
+            right.insertTuple(t);
+        }
+
+        BTreePageId oldRight = page.getRightSiblingId();
+        if (oldRight != null) {
+            getLeaf(tid, dirtypages, oldRight, Permissions.READ_WRITE).setLeftSiblingId(right.getId());
+        }
+        right.setRightSiblingId(oldRight);
+        right.setLeftSiblingId(page.getId());
+        page.setRightSiblingId(right.getId());
+
+        Field splitKey = right.firstKey();
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, path, page.getId());
+        parent.insertEntry(splitKey, page.getId(), right.getId());
+        return field.compare(Predicate.Op.GREATER_THAN, splitKey) ? right : page;
+    }
+
+    /**
+     * Returns the parent of the specified page, the last page of path, with
+     * room for one more key: the parent is split if it is full, and a new
+     * root is created if the page is the root.
+     *
+     * @return the parent, or the half of it that now holds the page
+     */
+    private BTreeInternalPage getParentWithEmptySlots(TransactionId tid, Map<PageId, Page> dirtypages,
+                                                      Deque<BTreePageId> path, BTreePageId child)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId parentId = path.pollLast();
+        if (parentId == null) {
+            BTreeInternalPage root = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+            root.setFirstChild(child);
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId(),
+                    Permissions.READ_WRITE);
+            rootPtr.setRootId(root.getId());
+            return root;
+        }
+        BTreeInternalPage parent = getInternal(tid, dirtypages, parentId, Permissions.READ_WRITE);
+        if (parent.getNumEmptySlots() == 0) {
+            parent = splitInternalPage(tid, dirtypages, parent, child, path);
+        }
+        return parent;
+    }
+
+    /**
+     * Splits a full internal page: the keys after the middle one and their
+     * children move to a new page to its right, and the middle key moves up
+     * to the parent.
+     *
+     * @return the half that holds the specified child
+     */
+    private BTreeInternalPage splitInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
+                                                BTreeInternalPage page, BTreePageId child,
+                                                Deque<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage right = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+        int n = page.getNumEntries();
+        int mid = n / 2;
+        Field midKey = page.getKey(mid);
+        right.setFirstChild(page.getChildId(mid + 1));
+        for (int i = mid + 1; i < n; i++) {
+            right.append(page.getKey(i), page.getChildId(i + 1));
+        }
+        page.truncate(mid);
+
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, path, page.getId());
+        parent.insertEntry(midKey, page.getId(), right.getId());
+        return right.indexOfChild(child) >= 0 ? right : page;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t.getRecordId() == null || t.getRecordId().getPageId().getTableId() != getId()) {
+            throw new DbException("The tuple is not a member of this file!");
+        }
+        Map<PageId, Page> dirtypages = new LinkedHashMap<>();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId(), Permissions.READ_ONLY);
+        BTreePageId rootId = rootPtr.getRootId();
+        if (rootId == null) {
+            throw new DbException("The tuple is not a member of this file!");
+        }
+
+        // the tuple may have moved since it was read, so its RecordId is only
+        // a hint; either way, the path to its leaf has to be found
+        Field key = t.getField(keyField);
+        Deque<BTreePageId> path = new ArrayDeque<>();
+        BTreePageId leafId = null;
+        PageId rid = t.getRecordId().getPageId();
+        if (rid instanceof BTreePageId && ((BTreePageId) rid).pgcateg() == BTreePageId.LEAF
+                && rid.getPageNumber() > 0 && rid.getPageNumber() < numPages()) {
+            Page p = getPage(tid, dirtypages, (BTreePageId) rid, Permissions.READ_ONLY);
+            if (p instanceof BTreeLeafPage && ((BTreeLeafPage) p).indexOf(t) >= 0) {
+                leafId = findLeaf(tid, dirtypages, rootId, key, rid::equals, path);
+            }
+        }
+        if (leafId == null) {
+            path.clear();
+            leafId = findLeaf(tid, dirtypages, rootId, key,
+                    id -> getLeaf(tid, dirtypages, id, Permissions.READ_ONLY).indexOf(t) >= 0, path);
+        }
+        if (leafId == null) {
+            throw new DbException("The tuple is not a member of this file!");
+        }
+
+        BTreeLeafPage leaf = getLeaf(tid, dirtypages, leafId, Permissions.READ_WRITE);
+        leaf.deleteSlot(leaf.indexOf(t));
+        if (leaf.getNumTuples() < leaf.getMaxTuples() / 2) {
+            handleMinOccupancyLeafPage(tid, dirtypages, leaf, path);
+        }
+        return new ArrayList<>(dirtypages.values());
+    }
+
+    /**
+     * Rebalances a leaf page that is less than half full, as described in
+     * the class comment.
+     *
+     * @param path the internal pages from the root to the page's parent
+     */
+    private void handleMinOccupancyLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage page,
+                                            Deque<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId parentId = path.peekLast();
+        if (parentId == null) {
+            return; // the root may be empty
+        }
+        BTreeInternalPage parent = getInternal(tid, dirtypages, parentId, Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId());
+        int max = page.getMaxTuples();
+        if (i > 0) {
+            BTreeLeafPage left = getLeaf(tid, dirtypages, parent.getChildId(i - 1), Permissions.READ_WRITE);
+            if (left.getNumTuples() + page.getNumTuples() <= max) {
+                mergeLeafPages(tid, dirtypages, left, page);
+                parent.deleteKeyAndLeftChild(i - 1);
+                setEmptyPage(tid, dirtypages, left.getId().getPageNumber());
+                handleMinOccupancyInternalPage(tid, dirtypages, parent, path);
+            } else {
+                List<Tuple> tuples = left.tuples();
+                int move = (left.getNumTuples() - page.getNumTuples()) / 2;
+                for (Tuple t : tuples.subList(tuples.size() - move, tuples.size())) {
+                    left.deleteSlot(t.getRecordId().getTupleNumber());
+                    page.insertTuple(t);
+                }
+                parent.setKey(i - 1, page.firstKey());
+            }
+        } else if (parent.getNumEntries() > 0) {
+            BTreeLeafPage right = getLeaf(tid, dirtypages, parent.getChildId(1), Permissions.READ_WRITE);
+            if (page.getNumTuples() + right.getNumTuples() <= max) {
+                mergeLeafPages(tid, dirtypages, page, right);
+                parent.deleteKeyAndLeftChild(0);
+                setEmptyPage(tid, dirtypages, page.getId().getPageNumber());
+                handleMinOccupancyInternalPage(tid, dirtypages, parent, path);
+            }
+        }
+    }
+
+    /**
+     * Moves all tuples of a leaf page into its right sibling and takes the
+     * page out of the list of leaves. The caller removes it from its parent.
+     */
+    private void mergeLeafPages(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage left,
+                                BTreeLeafPage right)
+            throws DbException, TransactionAbortedException {
+        for (Tuple t : left.tuples()) {
+            left.deleteSlot(t.getRecordId().getTupleNumber());
+            right.insertTuple(t);
+        }
+        BTreePageId leftLeft = left.getLeftSiblingId();
+        if (leftLeft != null) {
+            getLeaf(tid, dirtypages, leftLeft, Permissions.READ_WRITE).setRightSiblingId(right.getId());
+        }
+        right.setLeftSiblingId(leftLeft);
+    }
+
+    /**
+     * Rebalances an internal page that has just lost a key, if it is less
+     * than half full (or, for the root, has no keys left), as described in
+     * the class comment.
+     *
+     * @param path the internal pages from the root to the page; the page is
+     *             removed from it
+     */
+    private void handleMinOccupancyInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
+                                                BTreeInternalPage page, Deque<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        path.pollLast(); // the page itself
+        BTreePageId parentId = path.peekLast();
+        if (parentId == null) {
+            if (page.getNumEntries() == 0) {
+                BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId(),
+                        Permissions.READ_WRITE);
+                rootPtr.setRootId(page.getChildId(0));
+                setEmptyPage(tid, dirtypages, page.getId().getPageNumber());
+            }
+            return;
+        }
+        int max = page.getMaxEntries();
+        if (page.getNumEntries() >= max / 2) {
+            return;
+        }
+        BTreeInternalPage parent = getInternal(tid, dirtypages, parentId, Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId());
+        BTreeInternalPage left;
+        BTreeInternalPage right;
+        int sep; // the key in parent between left and right
+        if (i > 0) {
+            left = getInternal(tid, dirtypages, parent.getChildId(i - 1), Permissions.READ_WRITE);
+            right = page;
+            sep = i - 1;
+        } else {
+            left = page;
+            right = getInternal(tid, dirtypages, parent.getChildId(1), Permissions.READ_WRITE);
+            sep = 0;
+        }
+
+        if (left.getNumEntries() + right.getNumEntries() + 1 <= max) {
+            // merge right into left, pulling the separating key down
+            left.append(parent.getKey(sep), right.getChildId(0));
+            for (int j = 0; j < right.getNumEntries(); j++) {
+                left.append(right.getKey(j), right.getChildId(j + 1));
+            }
+            parent.deleteKeyAndRightChild(sep);
+            setEmptyPage(tid, dirtypages, right.getId().getPageNumber());
+            handleMinOccupancyInternalPage(tid, dirtypages, parent, path);
+        } else if (left == page) {
+            // rotate keys from the right sibling through the parent
+            int move = (right.getNumEntries() - left.getNumEntries()) / 2;
+            for (int j = 0; j < move; j++) {
+                left.append(parent.getKey(sep), right.getChildId(0));
+                parent.setKey(sep, right.getKey(0));
+                right.deleteKeyAndLeftChild(0);
+            }
+        } else {
+            // rotate keys from the left sibling through the parent
+            int move = (left.getNumEntries() - right.getNumEntries()) / 2;
+            for (int j = 0; j < move; j++) {
+                int last = left.getNumEntries() - 1;
+                right.prepend(left.getChildId(last + 1), parent.getKey(sep));
+                parent.setKey(sep, left.getKey(last));
+                left.deleteKeyAndRightChild(last);
+            }
+        }
+    }
+
+    /**
+     * Returns a new page of the specified category, locked READ_WRITE and
+     * added to dirtypages: a free page if the header pages list one,
+     * otherwise a page appended to the file.
+     */
+    private BTreePage getEmptyPage(TransactionId tid, Map<PageId, Page> dirtypages, int pgcateg)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgno = getEmptyPageNo(tid, dirtypages);
+        BTreePageId pid = new BTreePageId(tableid, pgno, pgcateg);
+        // lock the page; whatever the pool or the disk holds for it is replaced
+        getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+        byte[] empty = new byte[BufferPool.getPageSize()];
+        BTreePage page = pgcateg == BTreePageId.LEAF ? new BTreeLeafPage(pid, td, keyField, empty)
+                : pgcateg == BTreePageId.INTERNAL ? new BTreeInternalPage(pid, td.getFieldType(keyField), empty)
+                : new BTreeHeaderPage(pid, empty);
+        dirtypages.put(pid, page);
+        return page;
+    }
+
+    private int getEmptyPageNo(TransactionId tid, Map<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId(), Permissions.READ_ONLY);
+        BTreePageId headerId = rootPtr.getHeaderId();
+        int base = 0;
+        while (headerId != null) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            int slot = header.getEmptySlot();
+            if (slot >= 0) {
+                header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+                // the slot may have been taken while waiting for the lock
+                if (!header.isSlotUsed(slot)) {
+                    header.markSlotUsed(slot, true);
+                    return base + slot;
+                }
+                continue;
+            }
+            base += BTreeHeaderPage.getNumSlots();
+            headerId = header.getNextPageId();
+        }
+        return appendEmptyPage(tid);
+    }
+
+    /**
+     * Writes an empty page to the end of the file (after an empty root
+     * pointer page, if the file is empty) so that it can be read through the
+     * buffer pool, and returns its page number. An empty page is unused
+     * whatever its category, so writing it does not expose uncommitted data.
+     * <p>
+     * The file grows outside of tid, so if tid aborts, nothing that it
+     * committed points to the page; it is then marked free in the header
+     * pages by a transaction of its own (see {@link #reclaimEmptyPage}).
+     */
+    private int appendEmptyPage(TransactionId tid) throws IOException {
+        int pgno;
+        synchronized (this) {
+            pgno = Math.max(numPages(), 1);
+            byte[] empty = new byte[BufferPool.getPageSize()];
+            for (int i = numPages(); i <= pgno; i++) {
+                writePage(new BTreeRootPtrPage(new BTreePageId(tableid, i, BTreePageId.ROOT_PTR), empty));
+            }
+        }
+        Database.getBufferPool().onAbort(tid, () -> reclaimEmptyPage(pgno));
+        return pgno;
+    }
+
+    /**
+     * Marks a page appended by an aborted transaction as free for reuse, in a
+     * transaction of its own. If that transaction cannot complete, the page
+     * is left unused until the file is rebuilt.
+     */
+    private void reclaimEmptyPage(int pgno) {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        boolean commit = false;
+        try {
+            setEmptyPage(tid, new LinkedHashMap<>(), pgno);
+            commit = true;
+        } catch (DbException | IOException | TransactionAbortedException e) {
+            // leave the page unused
+        } finally {
+            bp.transactionComplete(tid, commit);
+        }
+    }
+
+    /**
+     * Marks the specified page as free for reuse in the header pages,
+     * appending header pages to the list as needed.
+     */
+    private void setEmptyPage(TransactionId tid, Map<PageId, Page> dirtypages, int pgno)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId(), Permissions.READ_ONLY);
+        BTreePageId headerId = rootPtr.getHeaderId();
+        BTreeHeaderPage prev = null;
+        int base = 0;
+        while (true) {
+            if (headerId == null) {
+                headerId = new BTreePageId(tableid, appendEmptyPage(tid), BTreePageId.HEADER);
+                BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId,
+                        Permissions.READ_WRITE);
+                header.init();
+                if (prev == null) {
+                    rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId(), Permissions.READ_WRITE);
+                    rootPtr.setHeaderId(headerId);
+                } else {
+                    prev = (BTreeHeaderPage) getPage(tid, dirtypages, prev.getId(), Permissions.READ_WRITE);
+                    prev.setNextPageId(headerId);
+                    header.setPrevPageId(prev.getId());
+                }
+            }
+            if (pgno < base + BTreeHeaderPage.getNumSlots()) {
+                BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId,
+                        Permissions.READ_WRITE);
+                header.markSlotUsed(pgno - base, false);
+                return;
+            }
+            prev = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            headerId = prev.getNextPageId();
+            base += BTreeHeaderPage.getNumSlots();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose keys satisfy the predicate,
+     * in key order. Only the leaves that may hold such tuples are read.
+     *
+     * @param ipred the predicate on the key field
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeFileIterator(this, tid, ipred);
+    }
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a BTreeFile,
+ * optionally restricted to the keys satisfying an IndexPredicate. It walks
+ * the list of leaves from the first one that may hold a matching key, taking
+ * a copy of the tuples of each leaf when it gets to it.
+ */
+class BTreeFileIterator extends AbstractDbFileIterator {
+
+    final TransactionId tid;
+    final BTreeFile f;
+    final IndexPredicate ipred; // null for all tuples
+
+    Iterator<Tuple> it = null;
+    BTreePageId nextLeaf = null;
+    boolean done = true;
+
+    public BTreeFileIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+        this.f = f;
+        this.tid = tid;
+        this.ipred = ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = null;
+        nextLeaf = null;
+        done = false;
+        Map<PageId, Page> none = new LinkedHashMap<>();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) f.getPage(tid, none, BTreeRootPtrPage.getId(f.getId()),
+                Permissions.READ_ONLY);
+        BTreePageId root = rootPtr.getRootId();
+        if (root == null) {
+            done = true;
+            return;
+        }
+        Field start = null;
+        if (ipred != null) {
+            switch (ipred.getOp()) {
+                case EQUALS:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    start = ipred.getField();
+                    break;
+                default:
+                    break;
+            }
+        }
+        load(f.findLeafPage(tid, none, root, Permissions.READ_ONLY, start, null));
+    }
+
+    private void load(BTreeLeafPage leaf) {
+        it = leaf.iterator();
+        nextLeaf = leaf.getRightSiblingId();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (!done) {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (ipred == null) {
+                    return t;
+                }
+                Field key = t.getField(f.keyField());
+                if (ipred.matches(key)) {
+                    return t;
+                }
+                // keys only grow from here
+                switch (ipred.getOp()) {
+                    case EQUALS:
+                        if (key.compare(Predicate.Op.GREATER_THAN, ipred.getField()))
+                            done = true;
+                        break;
+                    case LESS_THAN:
+                    case LESS_THAN_OR_EQ:
+                        done = true;
+                        break;
+                    default:
+                        break;
+                }
+                if (done) {
+                    return null;
+                }
+            }
+            if (nextLeaf == null) {
+                done = true;
+                return null;
+            }
+            load((BTreeLeafPage) Database.getBufferPool().getPage(tid, nextLeaf, Permissions.READ_ONLY));
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        done = true;
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A page of the list of header pages of a BTreeFile, which track the pages
+ * of the file that are free for reuse. The page holds the page numbers of
+ * the next and the previous header page (ints, 0 if there is none) and a
+ * bitmap with one bit per page of the file: the n-th header page of the list
+ * covers the pages from n * {@link #getNumSlots()} on. A set bit means that
+ * the page is in use; a new header page has every bit set.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private static final int INDEX_SIZE = 4;
+
+    private int next;
+    private int prev;
+    private final byte[] header;
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        this.next = bb.getInt();
+        this.prev = bb.getInt();
+        this.header = new byte[BufferPool.getPageSize() - 2 * INDEX_SIZE];
+        bb.get(header);
+    }
+
+    protected BTreePage create(byte[] data) {
+        return new BTreeHeaderPage(pid, data);
+    }
+
+    /**
+     * @return the number of pages a header page keeps track of
+     */
+    public static int getNumSlots() {
+        return (BufferPool.getPageSize() - 2 * INDEX_SIZE) * 8;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.allocate(BufferPool.getPageSize());
+        bb.putInt(next).putInt(prev).put(header);
+        return bb.array();
+    }
+
+    /**
+     * Marks every page the header page covers as in use.
+     */
+    public void init() {
+        Arrays.fill(header, (byte) 0xff);
+    }
+
+    public BTreePageId getNextPageId() {
+        return pageId(next, BTreePageId.HEADER);
+    }
+
+    public void setNextPageId(BTreePageId id) {
+        this.next = pageNumber(id);
+    }
+
+    public BTreePageId getPrevPageId() {
+        return pageId(prev, BTreePageId.HEADER);
+    }
+
+    public void setPrevPageId(BTreePageId id) {
+        this.prev = pageNumber(id);
+    }
+
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    public void markSlotUsed(int i, boolean value) {
+        if (value) {
+            header[i / 8] |= (byte) (1 << (i % 8));
+        } else {
+            header[i / 8] &= (byte) ~(1 << (i % 8));
+        }
+    }
+
+    /**
+     * @return the first slot whose page is free, or -1 if there is none
+     */
+    public int getEmptySlot() {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i] != (byte) 0xff) {
+                for (int j = 0; j < 8; j++) {
+                    if (!isSlotUsed(i * 8 + j)) {
+                        return i * 8 + j;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+}
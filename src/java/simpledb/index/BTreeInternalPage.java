@@ -0,0 +1,247 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An internal (non-leaf) page of a BTreeFile. It holds n keys and n + 1
+ * children, numbered from 0: key i separates child i from child i + 1, so
+ * that every key in the subtree of child i is at most key i, and every key in
+ * the subtree of child i + 1 is at least key i. All children are of the same
+ * category, either internal or leaf pages.
+ * <p>
+ * The page holds the category of its children (a byte), n (an int), room for
+ * {@link #getMaxEntries()} keys and, after them, room for one more child page
+ * numbers (ints).
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int INDEX_SIZE = 4;
+    private static final int HEADER_SIZE = 1 + INDEX_SIZE;
+
+    private final Type keyType;
+    private final int maxEntries;
+    private int childCategory;
+    private int numEntries;
+    private final Field[] keys;
+    private final int[] children;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk.
+     * The type of the keys is that of the key field of the BTreeFile the
+     * page belongs to, which is looked up in the catalog.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) {
+        this(id, keyType(id), data);
+    }
+
+    private static Type keyType(BTreePageId id) {
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+        return f.getTupleDesc().getFieldType(f.keyField());
+    }
+
+    BTreeInternalPage(BTreePageId id, Type keyType, byte[] data) {
+        super(id, data);
+        this.keyType = keyType;
+        this.maxEntries = getMaxEntries(keyType);
+        this.keys = new Field[maxEntries];
+        this.children = new int[maxEntries + 1];
+        this.childCategory = data[0];
+        this.numEntries = Math.max(0, Math.min(ByteBuffer.wrap(data).getInt(1), maxEntries));
+        for (int i = 0; i < numEntries; i++) {
+            keys[i] = keyType.parse(data, HEADER_SIZE + i * keyType.getLen());
+        }
+        ByteBuffer bb = ByteBuffer.wrap(data, HEADER_SIZE + maxEntries * keyType.getLen(), INDEX_SIZE * (maxEntries + 1));
+        for (int i = 0; i <= maxEntries; i++) {
+            children[i] = bb.getInt();
+        }
+    }
+
+    /**
+     * @return the number of keys an internal page with keys of the specified
+     *         type holds
+     */
+    public static int getMaxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - INDEX_SIZE) / (keyType.getLen() + INDEX_SIZE);
+    }
+
+    protected BTreePage create(byte[] data) {
+        return new BTreeInternalPage(pid, keyType, data);
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.allocate(BufferPool.getPageSize());
+        bb.put((byte) childCategory).putInt(numEntries);
+        for (int i = 0; i < numEntries; i++) {
+            keys[i].serialize(bb, HEADER_SIZE + i * keyType.getLen());
+        }
+        bb.position(HEADER_SIZE + maxEntries * keyType.getLen());
+        for (int i = 0; i <= maxEntries; i++) {
+            bb.putInt(i <= numEntries ? children[i] : 0);
+        }
+        return bb.array();
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int getNumEmptySlots() {
+        return maxEntries - numEntries;
+    }
+
+    public Field getKey(int i) {
+        checkKey(i);
+        return keys[i];
+    }
+
+    public void setKey(int i, Field key) {
+        checkKey(i);
+        keys[i] = key;
+    }
+
+    private void checkKey(int i) {
+        if (i < 0 || i >= numEntries) {
+            throw new IndexOutOfBoundsException("no key " + i + " on " + pid);
+        }
+    }
+
+    /**
+     * @return the id of child i, for i from 0 to getNumEntries()
+     */
+    public BTreePageId getChildId(int i) {
+        if (i < 0 || i > numEntries) {
+            throw new IndexOutOfBoundsException("no child " + i + " on " + pid);
+        }
+        return pageId(children[i], childCategory);
+    }
+
+    /**
+     * @return the index of the specified child, or -1 if it is not a child
+     *         of this page
+     */
+    public int indexOfChild(BTreePageId id) {
+        for (int i = 0; i <= numEntries; i++) {
+            if (children[i] == id.getPageNumber()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the leftmost child whose subtree may hold the
+     *         specified key (the first child for null)
+     */
+    public int childIndexFor(Field key) {
+        if (key == null) {
+            return 0;
+        }
+        int lo = 0;
+        int hi = numEntries;
+        while (lo < hi) { // first key that is at least key
+            int mid = (lo + hi) >>> 1;
+            if (key.compare(Predicate.Op.LESS_THAN_OR_EQ, keys[mid])) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Makes the specified page the only child of this page, which must have
+     * no children yet.
+     */
+    public void setFirstChild(BTreePageId id) {
+        numEntries = 0;
+        children[0] = id.getPageNumber();
+        childCategory = id.pgcateg();
+    }
+
+    /**
+     * Inserts a key and the child to its right after the specified child,
+     * which the page must hold; if the page has no children yet, left becomes
+     * its first child.
+     */
+    public void insertEntry(Field key, BTreePageId left, BTreePageId right) {
+        if (numEntries == 0 && children[0] == 0) {
+            setFirstChild(left);
+        }
+        int j = indexOfChild(left);
+        if (j < 0) {
+            throw new IllegalArgumentException(left + " is not a child of " + pid);
+        }
+        insert(j, key, j + 1, right);
+    }
+
+    /**
+     * Adds a key and a child after the last child.
+     */
+    public void append(Field key, BTreePageId child) {
+        insert(numEntries, key, numEntries + 1, child);
+    }
+
+    /**
+     * Adds a child and a key before the first child.
+     */
+    public void prepend(BTreePageId child, Field key) {
+        insert(0, key, 0, child);
+    }
+
+    private void insert(int keyIndex, Field key, int childIndex, BTreePageId child) {
+        if (numEntries == maxEntries) {
+            throw new IllegalStateException(pid + " is full");
+        }
+        if (!key.getType().equals(keyType)) {
+            throw new IllegalArgumentException("key type mismatch");
+        }
+        System.arraycopy(keys, keyIndex, keys, keyIndex + 1, numEntries - keyIndex);
+        System.arraycopy(children, childIndex, children, childIndex + 1, numEntries + 1 - childIndex);
+        keys[keyIndex] = key;
+        children[childIndex] = child.getPageNumber();
+        numEntries++;
+    }
+
+    /**
+     * Removes key i and child i + 1.
+     */
+    public void deleteKeyAndRightChild(int i) {
+        remove(i, i + 1);
+    }
+
+    /**
+     * Removes key i and child i.
+     */
+    public void deleteKeyAndLeftChild(int i) {
+        remove(i, i);
+    }
+
+    private void remove(int keyIndex, int childIndex) {
+        checkKey(keyIndex);
+        System.arraycopy(keys, keyIndex + 1, keys, keyIndex, numEntries - keyIndex - 1);
+        System.arraycopy(children, childIndex + 1, children, childIndex, numEntries - childIndex);
+        numEntries--;
+        keys[numEntries] = null;
+        children[numEntries + 1] = 0;
+    }
+
+    /**
+     * Removes all keys from key i on, and all children after child i.
+     */
+    public void truncate(int i) {
+        while (numEntries > i) {
+            deleteKeyAndRightChild(numEntries - 1);
+        }
+    }
+}
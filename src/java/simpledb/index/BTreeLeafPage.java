@@ -0,0 +1,304 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A leaf page of a BTreeFile, which holds the tuples of the table. Like a
+ * HeapPage, it has a header bitmap of used slots followed by the slots, but
+ * the used slots are kept in the order of the key field: inserting a tuple
+ * may move others to make room for it in the right place, while deleting one
+ * leaves its slot empty. The leaf pages of a file form a doubly linked list
+ * in key order; the page starts with the page numbers of its left and right
+ * siblings (ints, 0 if there is none).
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int INDEX_SIZE = 4;
+    private static final int POINTERS_SIZE = 2 * INDEX_SIZE;
+
+    private final TupleDesc td;
+    private final int keyField;
+    private final int numSlots;
+    private final int headerSize;
+    private final Tuple[] tuples; // null for empty slots
+    private int leftSibling;
+    private int rightSibling;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk. The
+     * TupleDesc and the key field are those of the BTreeFile the page belongs
+     * to, which is looked up in the catalog.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) {
+        this(id, file(id).getTupleDesc(), file(id).keyField(), data);
+    }
+
+    private static BTreeFile file(BTreePageId id) {
+        return (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+    }
+
+    BTreeLeafPage(BTreePageId id, TupleDesc td, int keyField, byte[] data) {
+        super(id, data);
+        this.td = td;
+        this.keyField = keyField;
+        this.numSlots = getMaxTuples(td);
+        this.headerSize = (numSlots + 7) / 8;
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        this.leftSibling = bb.getInt();
+        this.rightSibling = bb.getInt();
+        this.tuples = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            if ((data[POINTERS_SIZE + i / 8] & (1 << (i % 8))) != 0) {
+                Tuple t = new Tuple(td);
+                int offset = POINTERS_SIZE + headerSize + i * td.getSize();
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, td.getFieldType(j).parse(data, offset + td.getOffset(j)));
+                }
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+            }
+        }
+    }
+
+    /**
+     * @return the number of tuples a leaf page of a table with the
+     *         specified TupleDesc holds
+     */
+    public static int getMaxTuples(TupleDesc td) {
+        return ((BufferPool.getPageSize() - POINTERS_SIZE) * 8) / (td.getSize() * 8 + 1);
+    }
+
+    protected BTreePage create(byte[] data) {
+        return new BTreeLeafPage(pid, td, keyField, data);
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.allocate(BufferPool.getPageSize());
+        bb.putInt(leftSibling).putInt(rightSibling);
+        for (int i = 0; i < numSlots; i++) {
+            Tuple t = tuples[i];
+            if (t != null) {
+                bb.put(POINTERS_SIZE + i / 8, (byte) (bb.get(POINTERS_SIZE + i / 8) | (1 << (i % 8))));
+                int offset = POINTERS_SIZE + headerSize + i * td.getSize();
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.getField(j).serialize(bb, offset + td.getOffset(j));
+                }
+            }
+        }
+        return bb.array();
+    }
+
+    public int getMaxTuples() {
+        return numSlots;
+    }
+
+    public int getNumTuples() {
+        int n = 0;
+        for (Tuple t : tuples) {
+            if (t != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    public int getNumEmptySlots() {
+        return numSlots - getNumTuples();
+    }
+
+    public boolean isSlotUsed(int i) {
+        return tuples[i] != null;
+    }
+
+    public BTreePageId getLeftSiblingId() {
+        return pageId(leftSibling, BTreePageId.LEAF);
+    }
+
+    public void setLeftSiblingId(BTreePageId id) {
+        this.leftSibling = pageNumber(id);
+    }
+
+    public BTreePageId getRightSiblingId() {
+        return pageId(rightSibling, BTreePageId.LEAF);
+    }
+
+    public void setRightSiblingId(BTreePageId id) {
+        this.rightSibling = pageNumber(id);
+    }
+
+    private Field key(int slot) {
+        return tuples[slot].getField(keyField);
+    }
+
+    private void move(int from, int to) {
+        tuples[to] = tuples[from];
+        tuples[from] = null;
+        tuples[to].setRecordId(new RecordId(pid, to));
+    }
+
+    /**
+     * Adds a copy of the specified tuple to the page, after the tuples whose
+     * keys are at most its key; the tuple's RecordId is set to where it is
+     * stored. Other tuples may be moved to other slots.
+     *
+     * @throws DbException if the page is full or the TupleDesc does not match
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("Tupledesc is mismatch!");
+        }
+        Field k = t.getField(keyField);
+        int last = -1; // the last used slot with a key that is at most k
+        for (int i = 0; i < numSlots; i++) {
+            if (tuples[i] != null) {
+                if (!key(i).compare(Predicate.Op.LESS_THAN_OR_EQ, k)) {
+                    break;
+                }
+                last = i;
+            }
+        }
+        // the empty slot closest to where the tuple goes
+        int empty = -1;
+        for (int i = last + 1; i < numSlots && empty < 0; i++) {
+            if (tuples[i] == null) {
+                empty = i;
+            }
+        }
+        int slot;
+        if (empty >= 0) {
+            for (int i = empty; i > last + 1; i--) {
+                move(i - 1, i);
+            }
+            slot = last + 1;
+        } else {
+            for (int i = last; i >= 0 && empty < 0; i--) {
+                if (tuples[i] == null) {
+                    empty = i;
+                }
+            }
+            if (empty < 0) {
+                throw new DbException("The page is full!");
+            }
+            for (int i = empty; i < last; i++) {
+                move(i + 1, i);
+            }
+            slot = last;
+        }
+        Tuple copy = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            copy.setField(j, t.getField(j));
+        }
+        copy.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = copy;
+        t.setRecordId(copy.getRecordId());
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot becomes empty.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        if (t.getRecordId() == null) {
+            throw new DbException("This tuple is already deleted.");
+        }
+        if (!pid.equals(t.getRecordId().getPageId())) {
+            throw new DbException("This tuple is not on this page.");
+        }
+        int slot = t.getRecordId().getTupleNumber();
+        if (slot < 0 || slot >= numSlots || tuples[slot] == null) {
+            throw new DbException("This tuple slot is already empty.");
+        }
+        deleteSlot(slot);
+    }
+
+    void deleteSlot(int slot) {
+        tuples[slot] = null;
+    }
+
+    /**
+     * @return the slot of a tuple with the same fields as t, preferring the
+     *         one t's RecordId points to, or -1 if there is none
+     */
+    int indexOf(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid != null && pid.equals(rid.getPageId())) {
+            int slot = rid.getTupleNumber();
+            if (slot >= 0 && slot < numSlots && sameFields(tuples[slot], t)) {
+                return slot;
+            }
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (sameFields(tuples[i], t)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        if (a == null || b.getTupleDesc().numFields() != td.numFields()) {
+            return false;
+        }
+        for (int j = 0; j < td.numFields(); j++) {
+            if (!a.getField(j).equals(b.getField(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the key of the first tuple on the page, or null if it is empty
+     */
+    Field firstKey() {
+        for (int i = 0; i < numSlots; i++) {
+            if (tuples[i] != null) {
+                return key(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return copies of the tuples on this page, in key order, with their
+     *         RecordIds
+     */
+    List<Tuple> tuples() {
+        List<Tuple> out = new ArrayList<>();
+        for (Tuple t : tuples) {
+            if (t != null) {
+                Tuple copy = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    copy.setField(j, t.getField(j));
+                }
+                copy.setRecordId(t.getRecordId());
+                out.add(copy);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return an iterator over copies of the tuples on this page, in key
+     *         order (calling remove on this iterator throws an
+     *         UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableList(tuples()).iterator();
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Base class of the pages of a BTreeFile. All of them are
+ * {@link BufferPool#getPageSize()} bytes long, and page n of the file starts
+ * at byte n * page size; page 0 is the {@link BTreeRootPtrPage}. Page number 0
+ * also stands for "no page" in the pointers the pages hold.
+ * <p>
+ * A page decodes any bytes without failing, so that a page can be read (and
+ * locked) through the buffer pool before it is reused as a page of another
+ * category.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    protected final BTreePageId pid;
+    private byte[] oldData;
+    private volatile TransactionId dirtier;
+
+    protected BTreePage(BTreePageId pid, byte[] data) {
+        this.pid = pid;
+        this.oldData = data.clone();
+    }
+
+    /**
+     * @return the page id for the specified page number, or null for 0
+     */
+    BTreePageId pageId(int pgNo, int pgcateg) {
+        return pgNo == 0 ? null : new BTreePageId(pid.getTableId(), pgNo, pgcateg);
+    }
+
+    static int pageNumber(BTreePageId id) {
+        return id == null ? 0 : id.getPageNumber();
+    }
+
+    /**
+     * @return a page of the same kind as this one, decoded from the bytes
+     */
+    protected abstract BTreePage create(byte[] data);
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public BTreePage getBeforeImage() {
+        return create(oldData);
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if
+     * the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
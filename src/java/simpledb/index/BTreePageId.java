@@ -0,0 +1,93 @@
+package simpledb.index;
+
+import simpledb.storage.PageId;
+
+import java.util.Objects;
+
+/**
+ * Unique identifier for the pages of a BTreeFile. Besides the table and the
+ * page number, the id carries the category of the page, which tells
+ * BTreeFile how to decode it. Two ids of the same page with different
+ * categories are equal, so that a page that is freed and reused as a page of
+ * another category is never cached twice.
+ */
+public class BTreePageId implements PageId {
+
+    public final static int ROOT_PTR = 0;
+    public final static int INTERNAL = 1;
+    public final static int LEAF = 2;
+    public final static int HEADER = 3;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int pgcateg;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo    The page number in that table.
+     * @param pgcateg which kind of page it is: ROOT_PTR, INTERNAL, LEAF or
+     *                HEADER
+     */
+    public BTreePageId(int tableId, int pgNo, int pgcateg) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.pgcateg = pgcateg;
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *         this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return the category of this page
+     */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, pgNo);
+    }
+
+    /**
+     * Compares one PageId to another. The categories are not compared.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *         ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId p = (BTreePageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo;
+    }
+
+    public String toString() {
+        return "(" + tableId + ", " + pgNo + ", " + pgcateg + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of
+     * integers, for writing to disk.  Size of returned array must contain
+     * number of integers that corresponds to number of args to one of the
+     * constructors.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo, pgcateg};
+    }
+}
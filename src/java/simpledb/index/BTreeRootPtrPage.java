@@ -0,0 +1,69 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Page 0 of a BTreeFile, which points to the root of the tree and to the
+ * first header page. It holds the page number of the root (an int, 0 while
+ * the tree is empty), the category of the root (a byte) and the page number
+ * of the first header page (an int, 0 if there is none).
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+    private int rootCategory;
+    private int header;
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        this.root = bb.getInt();
+        this.rootCategory = bb.get();
+        this.header = bb.getInt();
+    }
+
+    /**
+     * @return the id of the root pointer page of the specified table
+     */
+    public static BTreePageId getId(int tableid) {
+        return new BTreePageId(tableid, 0, BTreePageId.ROOT_PTR);
+    }
+
+    protected BTreePage create(byte[] data) {
+        return new BTreeRootPtrPage(pid, data);
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.allocate(BufferPool.getPageSize());
+        bb.putInt(root).put((byte) rootCategory).putInt(header);
+        return bb.array();
+    }
+
+    /**
+     * @return the id of the root page, or null if the tree is empty
+     */
+    public BTreePageId getRootId() {
+        return pageId(root, rootCategory);
+    }
+
+    public void setRootId(BTreePageId id) {
+        this.root = pageNumber(id);
+        this.rootCategory = id == null ? 0 : id.pgcateg();
+    }
+
+    /**
+     * @return the id of the first header page, or null if there is none
+     */
+    public BTreePageId getHeaderId() {
+        return pageId(header, BTreePageId.HEADER);
+    }
+
+    public void setHeaderId(BTreePageId id) {
+        this.header = pageNumber(id);
+    }
+}
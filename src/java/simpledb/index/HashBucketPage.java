@@ -0,0 +1,177 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.HeapPageId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bucket page of a HashIndex, which holds index entries: a key and the
+ * location of a tuple with that key in the indexed table (the page number
+ * and the slot of its RecordId). The page starts with the local depth of the
+ * bucket, the page number of the next page of the bucket (0 if there is
+ * none) and the number of entries, all ints, followed by the entries in no
+ * particular order. A bucket only has more than one page when its keys
+ * cannot be told apart by splitting it, e.g. when they are all equal.
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int INDEX_SIZE = 4;
+    private static final int HEADER_SIZE = 3 * INDEX_SIZE;
+
+    private final Type keyType;
+    private final int maxEntries;
+    private final Field[] keys;
+    private final int[] pages;
+    private final int[] slots;
+    private int localDepth;
+    private int next;
+    private int numEntries;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk. The
+     * type of the keys is that of the HashIndex the page belongs to, which is
+     * looked up in the catalog.
+     */
+    public HashBucketPage(HeapPageId id, byte[] data) {
+        this(id, ((HashIndex) Database.getCatalog().getDatabaseFile(id.getTableId())).keyType(), data);
+    }
+
+    HashBucketPage(HeapPageId id, Type keyType, byte[] data) {
+        super(id, data);
+        this.keyType = keyType;
+        this.maxEntries = getMaxEntries(keyType);
+        this.keys = new Field[maxEntries];
+        this.pages = new int[maxEntries];
+        this.slots = new int[maxEntries];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        this.localDepth = bb.getInt();
+        this.next = bb.getInt();
+        this.numEntries = Math.max(0, Math.min(bb.getInt(), maxEntries));
+        for (int i = 0; i < numEntries; i++) {
+            int offset = HEADER_SIZE + i * entrySize(keyType);
+            keys[i] = keyType.parse(data, offset);
+            pages[i] = Type.readInt(data, offset + keyType.getLen());
+            slots[i] = Type.readInt(data, offset + keyType.getLen() + INDEX_SIZE);
+        }
+    }
+
+    private static int entrySize(Type keyType) {
+        return keyType.getLen() + 2 * INDEX_SIZE;
+    }
+
+    /**
+     * @return the number of entries a bucket page with keys of the specified
+     *         type holds
+     */
+    public static int getMaxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / entrySize(keyType);
+    }
+
+    protected HashPage create(byte[] data) {
+        return new HashBucketPage(pid, keyType, data);
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.allocate(BufferPool.getPageSize());
+        bb.putInt(localDepth).putInt(next).putInt(numEntries);
+        for (int i = 0; i < numEntries; i++) {
+            int offset = HEADER_SIZE + i * entrySize(keyType);
+            keys[i].serialize(bb, offset);
+            bb.putInt(offset + keyType.getLen(), pages[i]);
+            bb.putInt(offset + keyType.getLen() + INDEX_SIZE, slots[i]);
+        }
+        return bb.array();
+    }
+
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    /**
+     * @return the page number of the next page of this bucket, or 0
+     */
+    public int getNext() {
+        return next;
+    }
+
+    public void setNext(int next) {
+        this.next = next;
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public int getNumEmptySlots() {
+        return maxEntries - numEntries;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * @return the page number of the tuple of entry i
+     */
+    public int getRecordPage(int i) {
+        return pages[i];
+    }
+
+    /**
+     * @return the slot of the tuple of entry i
+     */
+    public int getRecordSlot(int i) {
+        return slots[i];
+    }
+
+    /**
+     * Adds an entry to the page.
+     *
+     * @throws DbException if the page is full or the key has the wrong type
+     */
+    public void insertEntry(Field key, int page, int slot) throws DbException {
+        if (numEntries == maxEntries) {
+            throw new DbException("The page is full!");
+        }
+        if (key.getType() != keyType) {
+            throw new DbException("key type mismatch");
+        }
+        keys[numEntries] = key;
+        pages[numEntries] = page;
+        slots[numEntries] = slot;
+        numEntries++;
+    }
+
+    /**
+     * Removes entry i, moving the last entry into its place.
+     */
+    public void deleteEntry(int i) {
+        numEntries--;
+        keys[i] = keys[numEntries];
+        pages[i] = pages[numEntries];
+        slots[i] = slots[numEntries];
+        keys[numEntries] = null;
+    }
+
+    /**
+     * @return the index of the entry with the specified key and tuple
+     *         location, or -1 if there is none
+     */
+    public int indexOf(Field key, int page, int slot) {
+        for (int i = 0; i < numEntries; i++) {
+            if (pages[i] == page && slots[i] == slot && keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Page 0 of a HashIndex: the directory of extendible hashing. It holds the
+ * global depth d (an int) followed by 2^d slots, each the page number of the
+ * bucket (an int) for the keys whose hashes end in the d bits of the slot
+ * number. Several slots point to the same bucket when its local depth is
+ * less than d. A directory whose slot 0 is 0 belongs to an empty index.
+ * <p>
+ * The directory fits in one page, which bounds the global depth (see
+ * {@link #getMaxDepth}).
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private static final int INDEX_SIZE = 4;
+
+    private int globalDepth;
+    private final int[] buckets;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     */
+    public HashDirectoryPage(HeapPageId id, byte[] data) {
+        super(id, data);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        this.buckets = new int[1 << getMaxDepth()];
+        // any bytes decode, even those of a page that was never written
+        this.globalDepth = Math.max(0, Math.min(bb.getInt(), getMaxDepth()));
+        for (int i = 0; i < getNumSlots(); i++) {
+            buckets[i] = bb.getInt();
+        }
+    }
+
+    /**
+     * @return the largest global depth a directory page has room for
+     */
+    public static int getMaxDepth() {
+        return 31 - Integer.numberOfLeadingZeros((BufferPool.getPageSize() - INDEX_SIZE) / INDEX_SIZE);
+    }
+
+    protected HashPage create(byte[] data) {
+        return new HashDirectoryPage(pid, data);
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer bb = ByteBuffer.allocate(BufferPool.getPageSize());
+        bb.putInt(globalDepth);
+        for (int i = 0; i < getNumSlots(); i++) {
+            bb.putInt(buckets[i]);
+        }
+        return bb.array();
+    }
+
+    /**
+     * @return true if the index has no buckets yet
+     */
+    public boolean isEmpty() {
+        return buckets[0] == 0;
+    }
+
+    /**
+     * Makes the specified page the only bucket of an empty index.
+     */
+    public void init(int bucket) {
+        globalDepth = 0;
+        buckets[0] = bucket;
+    }
+
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    public int getNumSlots() {
+        return 1 << globalDepth;
+    }
+
+    /**
+     * @return the page number of the bucket for the specified hash
+     */
+    public int getBucket(int hash) {
+        return buckets[hash & (getNumSlots() - 1)];
+    }
+
+    public void setBucket(int slot, int bucket) {
+        buckets[slot] = bucket;
+    }
+
+    /**
+     * Doubles the number of slots, each new slot pointing to the same bucket
+     * as the slot it differs from in the highest bit.
+     */
+    public void grow() {
+        if (globalDepth == getMaxDepth()) {
+            throw new IllegalStateException("the directory is full");
+        }
+        System.arraycopy(buckets, 0, buckets, getNumSlots(), getNumSlots());
+        globalDepth++;
+    }
+}
@@ -0,0 +1,554 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HashIndex is a disk-backed extendible hash index over one field (the key
+ * field) of a table stored in a HeapFile. Page 0 of its file is the
+ * directory ({@link HashDirectoryPage}); the other pages are buckets
+ * ({@link HashBucketPage}) of entries that map a key to the RecordId of a
+ * tuple of the table. All pages are read and written through the buffer
+ * pool, with the usual locks, so an index changes and rolls back together
+ * with its table.
+ * <p>
+ * A full bucket is split in two on insert, doubling the directory if its
+ * local depth is the global depth. A bucket whose keys cannot be split
+ * further, e.g. because they are all equal, gets more pages instead.
+ * Buckets are never merged.
+ * <p>
+ * The file of an index is itself a DbFile whose tuples are its entries (see
+ * {@link #entry}), and whose id is that of the index file, not of the table.
+ * Indexes are registered with {@link simpledb.common.Catalog#addIndex}, and
+ * the BufferPool adds and removes the entries of the tuples it inserts into
+ * and deletes from the table. A catalog declares an index by following a
+ * field of a heap file with the annotation <code>hash</code>.
+ *
+ * @see simpledb.execution.IndexNestedLoopJoin
+ */
+public class HashIndex implements DbFile {
+
+    private final File f;
+    private final HeapFile table;
+    private final int keyField;
+    private final TupleDesc td;
+    private final int indexid;
+
+    /** opened on first use and kept open for the lifetime of this index */
+    private volatile FileChannel channel;
+    /** pages appended by aborted transactions, for reuse (see appendEmptyPage) */
+    private final Deque<Integer> freePages = new ArrayDeque<>();
+
+    /**
+     * Constructs a hash index backed by the specified file.
+     *
+     * @param f     the file that stores the on-disk backing store for this
+     *              index
+     * @param table the table the index is on
+     * @param key   the field of the table the index is keyed on
+     */
+    public HashIndex(File f, HeapFile table, int key) {
+        if (key < 0 || key >= table.getTupleDesc().numFields()) {
+            throw new IllegalArgumentException("no field " + key + " in " + table.getTupleDesc());
+        }
+        this.f = f;
+        this.table = table;
+        this.keyField = key;
+        this.td = new TupleDesc(new Type[]{table.getTupleDesc().getFieldType(key), Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{"key", "page", "slot"});
+        this.indexid = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the File backing this index on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this index, computed the same way as
+     * for a HeapFile.
+     */
+    public int getId() {
+        return indexid;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of this index: the key, and the
+     * page number and slot of a tuple with the key.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the table the index is on
+     */
+    public HeapFile getTable() {
+        return table;
+    }
+
+    /**
+     * @return the index of the field of the table the index is keyed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * @return the type of the keys
+     */
+    public Type keyType() {
+        return td.getFieldType(0);
+    }
+
+    /**
+     * @return the entry of this index for the specified tuple of the table,
+     *         which has to have a RecordId
+     */
+    public Tuple entry(Tuple t) {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new IllegalArgumentException("tuple is not stored in a table");
+        }
+        Tuple e = new Tuple(td);
+        e.setField(0, t.getField(keyField));
+        e.setField(1, new IntField(rid.getPageId().getPageNumber()));
+        e.setField(2, new IntField(rid.getTupleNumber()));
+        return e;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                ch = new RandomAccessFile(f.getAbsoluteFile(), "rw").getChannel();
+                channel = ch;
+            }
+            return ch;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HeapPageId id = (HeapPageId) pid;
+        try {
+            byte[] data = new byte[BufferPool.getPageSize()];
+            ByteBuffer bb = ByteBuffer.wrap(data);
+            FileChannel ch = channel();
+            long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, offset + bb.position()) < 0) {
+                    // the directory of an empty index reads as zeros
+                    if (id.getPageNumber() != 0) {
+                        throw new IllegalArgumentException("Read past end of index");
+                    }
+                    break;
+                }
+            }
+            return id.getPageNumber() == 0 ? new HashDirectoryPage(id, data)
+                    : new HashBucketPage(id, keyType(), data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(page.getPageData());
+        FileChannel ch = channel();
+        long offset = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+        while (bb.hasRemaining()) {
+            ch.write(bb, offset + bb.position());
+        }
+    }
+
+    /**
+     * Returns the number of pages in this index, including the directory.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the hash of the specified key, whose low bits pick its bucket
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Returns the specified page: the version in dirtypages if there is one,
+     * otherwise the one in the buffer pool. Pages requested with READ_WRITE
+     * are added to dirtypages and marked dirty, since the caller is about to
+     * modify them. While the index is being built (tid is null), pages are
+     * read from disk instead and all of them are kept in dirtypages.
+     */
+    private Page getPage(TransactionId tid, Map<PageId, Page> dirtypages, int pgno, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        HeapPageId pid = new HeapPageId(indexid, pgno);
+        Page p = dirtypages.get(pid);
+        if (p != null) {
+            return p;
+        }
+        p = tid == null ? readPage(pid) : Database.getBufferPool().getPage(tid, pid, perm);
+        if (tid == null || perm == Permissions.READ_WRITE) {
+            if (tid != null) {
+                // keep the pool from evicting the page before it is cached
+                p.markDirty(true, tid);
+            }
+            dirtypages.put(pid, p);
+        }
+        return p;
+    }
+
+    private HashDirectoryPage getDirectory(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashDirectoryPage) getPage(tid, dirtypages, 0, perm);
+    }
+
+    private HashBucketPage getBucket(TransactionId tid, Map<PageId, Page> dirtypages, int pgno, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashBucketPage) getPage(tid, dirtypages, pgno, perm);
+    }
+
+    /**
+     * Returns the RecordIds of the tuples of the table with the specified
+     * key. The pages of the bucket of the key are locked READ_ONLY.
+     */
+    public Iterator<RecordId> lookup(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        Map<PageId, Page> none = new LinkedHashMap<>();
+        List<RecordId> rids = new ArrayList<>();
+        HashDirectoryPage dir = getDirectory(tid, none, Permissions.READ_ONLY);
+        if (dir.isEmpty()) {
+            return rids.iterator();
+        }
+        int pgno = dir.getBucket(hash(key));
+        while (pgno != 0) {
+            HashBucketPage bucket = getBucket(tid, none, pgno, Permissions.READ_ONLY);
+            for (int i = 0; i < bucket.getNumEntries(); i++) {
+                if (bucket.getKey(i).equals(key)) {
+                    rids.add(new RecordId(new HeapPageId(table.getId(), bucket.getRecordPage(i)),
+                            bucket.getRecordSlot(i)));
+                }
+            }
+            pgno = bucket.getNext();
+        }
+        return rids.iterator();
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc mismatch!");
+        }
+        Map<PageId, Page> dirtypages = new LinkedHashMap<>();
+        insert(tid, dirtypages, t.getField(0), ((IntField) t.getField(1)).getValue(),
+                ((IntField) t.getField(2)).getValue());
+        return new ArrayList<>(dirtypages.values());
+    }
+
+    private void insert(TransactionId tid, Map<PageId, Page> dirtypages, Field key, int page, int slot)
+            throws DbException, IOException, TransactionAbortedException {
+        HashDirectoryPage dir = getDirectory(tid, dirtypages, Permissions.READ_ONLY);
+        if (dir.isEmpty()) {
+            dir = getDirectory(tid, dirtypages, Permissions.READ_WRITE);
+            // the index may have been started while waiting for the lock
+            if (dir.isEmpty()) {
+                dir.init(newBucket(tid, dirtypages, 0).getId().getPageNumber());
+            }
+        }
+        int h = hash(key);
+        while (true) {
+            HashBucketPage bucket = getBucket(tid, dirtypages, dir.getBucket(h), Permissions.READ_WRITE);
+            if (bucket.getNumEmptySlots() > 0) {
+                bucket.insertEntry(key, page, slot);
+                return;
+            }
+            if (bucket.getNext() != 0 || !canSplit(bucket, h)) {
+                appendToChain(tid, dirtypages, bucket, key, page, slot);
+                return;
+            }
+            dir = getDirectory(tid, dirtypages, Permissions.READ_WRITE);
+            split(tid, dirtypages, dir, bucket, h);
+        }
+    }
+
+    /**
+     * @return true if splitting the full bucket page, possibly more than
+     *         once, can separate its keys and the key with the specified hash
+     */
+    private static boolean canSplit(HashBucketPage bucket, int h) {
+        int maxDepth = HashDirectoryPage.getMaxDepth();
+        if (bucket.getLocalDepth() >= maxDepth) {
+            return false;
+        }
+        int mask = (1 << maxDepth) - 1;
+        for (int i = 0; i < bucket.getNumEntries(); i++) {
+            if (((hash(bucket.getKey(i)) ^ h) & mask) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the bucket with local depth d that the key with hash h belongs
+     * to, moving the entries whose hashes have bit d set to a new bucket and
+     * pointing the directory slots for them at it.
+     */
+    private void split(TransactionId tid, Map<PageId, Page> dirtypages, HashDirectoryPage dir,
+                       HashBucketPage bucket, int h)
+            throws DbException, IOException, TransactionAbortedException {
+        int d = bucket.getLocalDepth();
+        if (d == dir.getGlobalDepth()) {
+            dir.grow();
+        }
+        HashBucketPage image = newBucket(tid, dirtypages, d + 1);
+        bucket.setLocalDepth(d + 1);
+        for (int i = bucket.getNumEntries() - 1; i >= 0; i--) {
+            if ((hash(bucket.getKey(i)) >>> d & 1) == 1) {
+                image.insertEntry(bucket.getKey(i), bucket.getRecordPage(i), bucket.getRecordSlot(i));
+                bucket.deleteEntry(i);
+            }
+        }
+        int low = (1 << d) - 1;
+        for (int i = 0; i < dir.getNumSlots(); i++) {
+            if ((i & low) == (h & low) && (i >>> d & 1) == 1) {
+                dir.setBucket(i, image.getId().getPageNumber());
+            }
+        }
+    }
+
+    /**
+     * Adds the entry to the first page of the bucket that has room for it,
+     * adding a page to the bucket if none has.
+     */
+    private void appendToChain(TransactionId tid, Map<PageId, Page> dirtypages, HashBucketPage bucket,
+                               Field key, int page, int slot)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage last = bucket;
+        while (last.getNext() != 0) {
+            last = getBucket(tid, dirtypages, last.getNext(), Permissions.READ_ONLY);
+            if (last.getNumEmptySlots() > 0) {
+                getBucket(tid, dirtypages, last.getId().getPageNumber(), Permissions.READ_WRITE)
+                        .insertEntry(key, page, slot);
+                return;
+            }
+        }
+        HashBucketPage next = newBucket(tid, dirtypages, bucket.getLocalDepth());
+        getBucket(tid, dirtypages, last.getId().getPageNumber(), Permissions.READ_WRITE)
+                .setNext(next.getId().getPageNumber());
+        next.insertEntry(key, page, slot);
+    }
+
+    /**
+     * Appends an empty bucket page with the specified local depth to the
+     * file, locked by tid and in dirtypages. The page is the one the buffer
+     * pool reads, not a new one, so that the next insert of a batch (see
+     * {@link DbFile#insertTuples}) sees it even before it is cached.
+     */
+    private HashBucketPage newBucket(TransactionId tid, Map<PageId, Page> dirtypages, int localDepth)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage page = getBucket(tid, dirtypages, appendEmptyPage(tid), Permissions.READ_WRITE);
+        page.setLocalDepth(localDepth);
+        return page;
+    }
+
+    /**
+     * Writes an empty page to the end of the file (after an empty directory,
+     * if the file is empty) so that it can be read through the buffer pool,
+     * and returns its page number. An empty page holds no entries, so writing
+     * it does not expose uncommitted data.
+     * <p>
+     * The file grows outside of tid, so if tid aborts, no bucket chain that
+     * it committed reaches the page. The page is then emptied again and
+     * handed out by the next call instead of growing the file. The index has
+     * no free list on disk, so such pages are only reused until the system
+     * stops.
+     */
+    private int appendEmptyPage(TransactionId tid) throws IOException {
+        int pgno;
+        synchronized (this) {
+            if (!freePages.isEmpty()) {
+                pgno = freePages.pop();
+            } else {
+                pgno = Math.max(numPages(), 1);
+                byte[] empty = new byte[BufferPool.getPageSize()];
+                for (int i = numPages(); i <= pgno; i++) {
+                    writePage(new HashDirectoryPage(new HeapPageId(indexid, i), empty));
+                }
+            }
+        }
+        if (tid != null) { // null while the index is built (see build)
+            Database.getBufferPool().onAbort(tid, () -> reclaimEmptyPage(pgno));
+        }
+        return pgno;
+    }
+
+    /**
+     * Empties a page appended by an aborted transaction and makes it
+     * available to {@link #appendEmptyPage}.
+     */
+    private synchronized void reclaimEmptyPage(int pgno) {
+        HeapPageId pid = new HeapPageId(indexid, pgno);
+        try {
+            writePage(new HashDirectoryPage(pid, new byte[BufferPool.getPageSize()]));
+        } catch (IOException e) {
+            return; // leave the page unused
+        }
+        Database.getBufferPool().removePage(pid);
+        freePages.push(pgno);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc mismatch!");
+        }
+        Field key = t.getField(0);
+        int page = ((IntField) t.getField(1)).getValue();
+        int slot = ((IntField) t.getField(2)).getValue();
+        Map<PageId, Page> dirtypages = new LinkedHashMap<>();
+        HashDirectoryPage dir = getDirectory(tid, dirtypages, Permissions.READ_ONLY);
+        int pgno = dir.isEmpty() ? 0 : dir.getBucket(hash(key));
+        while (pgno != 0) {
+            HashBucketPage bucket = getBucket(tid, dirtypages, pgno, Permissions.READ_ONLY);
+            if (bucket.indexOf(key, page, slot) >= 0) {
+                bucket = getBucket(tid, dirtypages, pgno, Permissions.READ_WRITE);
+                bucket.deleteEntry(bucket.indexOf(key, page, slot));
+                return new ArrayList<>(dirtypages.values());
+            }
+            pgno = bucket.getNext();
+        }
+        throw new DbException("no entry " + t + " in the index");
+    }
+
+    /**
+     * Adds the entries of all tuples of the table to an empty index, writing
+     * the pages of the index directly to disk. The table must not be
+     * modified while the index is built.
+     */
+    public void build() throws DbException, IOException, TransactionAbortedException {
+        if (numPages() > 0) {
+            throw new DbException("index " + f + " is not empty");
+        }
+        Map<PageId, Page> pages = new LinkedHashMap<>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                insert(null, pages, t.getField(keyField), t.getRecordId().getPageId().getPageNumber(),
+                        t.getRecordId().getTupleNumber());
+            }
+        } finally {
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        for (Page p : pages.values()) {
+            writePage(p);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexIterator(this, tid);
+    }
+
+    /**
+     * Helper class that iterates over the entries of a HashIndex, one bucket
+     * page after the other in the order of the file.
+     */
+    private static class HashIndexIterator extends AbstractDbFileIterator {
+
+        private final HashIndex index;
+        private final TransactionId tid;
+        private HashBucketPage page = null;
+        private int entry;
+        private int numPages;
+
+        HashIndexIterator(HashIndex index, TransactionId tid) {
+            this.index = index;
+            this.tid = tid;
+        }
+
+        public void open() {
+            page = null;
+            entry = 0;
+            numPages = index.numPages();
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (numPages == 0) {
+                return null;
+            }
+            while (page == null || entry == page.getNumEntries()) {
+                int pgno = page == null ? 1 : page.getId().getPageNumber() + 1;
+                if (pgno >= numPages) {
+                    return null;
+                }
+                page = index.getBucket(tid, new LinkedHashMap<>(), pgno, Permissions.READ_ONLY);
+                entry = 0;
+            }
+            Tuple t = new Tuple(index.td);
+            t.setField(0, page.getKey(entry));
+            t.setField(1, new IntField(page.getRecordPage(entry)));
+            t.setField(2, new IntField(page.getRecordSlot(entry)));
+            entry++;
+            return t;
+        }
+
+        public void rewind() {
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            page = null;
+            numPages = 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Base class of the pages of a HashIndex. All of them are
+ * {@link BufferPool#getPageSize()} bytes long, and page n of the file starts
+ * at byte n * page size; page 0 is the {@link HashDirectoryPage}, all others
+ * are {@link HashBucketPage}s. Page number 0 also stands for "no page" in the
+ * pointers the pages hold.
+ *
+ * @see HashIndex
+ */
+public abstract class HashPage implements Page {
+
+    protected final HeapPageId pid;
+    private byte[] oldData;
+    private volatile TransactionId dirtier;
+
+    protected HashPage(HeapPageId pid, byte[] data) {
+        this.pid = pid;
+        this.oldData = data.clone();
+    }
+
+    /**
+     * @return a page of the same kind as this one, decoded from the bytes
+     */
+    protected abstract HashPage create(byte[] data);
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public HashPage getBeforeImage() {
+        return create(oldData);
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if
+     * the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
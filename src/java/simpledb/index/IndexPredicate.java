@@ -0,0 +1,49 @@
+package simpledb.index;
+
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of the tuples of an index with a
+ * constant, e.g. to look up the tuples with a given key or a range of keys.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op         The operation to apply (as defined in Predicate.Op);
+     *                   the key of a tuple is the left operand
+     * @param fieldvalue The value that the key is compared to
+     */
+    public IndexPredicate(Predicate.Op op, Field fieldvalue) {
+        this.op = op;
+        this.fieldvalue = fieldvalue;
+    }
+
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return true if the specified key satisfies this predicate
+     */
+    public boolean matches(Field key) {
+        return key.compare(op, fieldvalue);
+    }
+
+    public String toString() {
+        return "key " + op + " " + fieldvalue;
+    }
+}
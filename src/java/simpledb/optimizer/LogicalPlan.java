@@ -5,6 +5,8 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.IndexPredicate;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -297,6 +299,107 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Returns the columns of the table scanned as alias that the query refers
+     * to anywhere, in the order of the table, or null if that is all of them
+     * or the query selects * from it.
+     */
+    private int[] referencedColumns(String alias, TupleDesc td) {
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        String prefix = alias + ".";
+        boolean[] used = new boolean[td.numFields()];
+        int numUsed = 0;
+        for (String name : names) {
+            if (name == null)
+                continue;
+            if (name.equals("*") || name.equals(prefix + "*"))
+                return null;
+            if (!name.startsWith(prefix))
+                continue;
+            try {
+                int i = td.indexForFieldName(name.substring(prefix.length()));
+                if (!used[i]) {
+                    used[i] = true;
+                    numUsed++;
+                }
+            } catch (NoSuchElementException e) {
+                // reported while the plan is built
+            }
+        }
+        if (numUsed == td.numFields())
+            return null;
+        if (numUsed == 0)
+            used[0] = true; // the scan still has to produce every tuple
+        int[] columns = new int[Math.max(numUsed, 1)];
+        for (int i = 0, j = 0; i < used.length; i++) {
+            if (used[i])
+                columns[j++] = i;
+        }
+        return columns;
+    }
+
+    /**
+     * Returns the first filter on the key field of the BTreeFile scanned as
+     * alias that an IndexScan can answer, or null if there is none.
+     */
+    private LogicalFilterNode indexFilter(String alias, BTreeFile file) {
+        String key = alias + "." + file.getTupleDesc().getFieldName(file.keyField());
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(alias) || !lf.fieldQuantifiedName.equals(key))
+                continue;
+            switch (lf.p) {
+                case EQUALS:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                case LESS_THAN:
+                case LESS_THAN_OR_EQ:
+                    return lf;
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an IndexNestedLoopJoin of plan1 with the unfiltered scan
+     * inner, which looks the inner tuples up in a hash index instead of
+     * scanning the table for every outer tuple, or null if the join is not an
+     * equi-join on an indexed field of the inner table.
+     */
+    private OpIterator indexJoin(TransactionId t, LogicalJoinNode lj, OpIterator plan1, SeqScan inner) {
+        if (lj.p != Predicate.Op.EQUALS)
+            return null;
+        int tableId = getTableId(inner.getAlias());
+        int f1, f2;
+        try {
+            f1 = plan1.getTupleDesc().indexForFieldName(lj.f1QuantifiedName);
+            f2 = inner.getTupleDesc().indexForFieldName(lj.f2QuantifiedName);
+        } catch (NoSuchElementException e) {
+            return null; // reported by instantiateJoin
+        }
+        if (Database.getCatalog().getIndex(tableId, f2) == null)
+            return null;
+        return new IndexNestedLoopJoin(t, new JoinPredicate(f1, lj.p, f2), plan1, tableId, inner.getAlias());
+    }
+
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      * find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
@@ -317,17 +420,38 @@ public class LogicalPlan {
         Map<String, String> equivMap = new HashMap<>();
         Map<String, Double> filterSelectivities = new HashMap<>();
         Map<String, TableStats> statsMap = new HashMap<>();
+        Map<String, SeqScan> scans = new HashMap<>();
+        Set<LogicalFilterNode> indexed = new HashSet<>(); // answered by an IndexScan
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
+            DbFile file;
             try {
-                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                file = Database.getCatalog().getDatabaseFile(table.t);
+                ss = new SeqScan(t, file.getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
-
-            subplanMap.put(table.alias, ss);
+            LogicalFilterNode lf = file instanceof BTreeFile ? indexFilter(table.alias, (BTreeFile) file) : null;
+            if (lf != null) {
+                // read only the keys the filter wants instead of the whole table
+                Type keyType = file.getTupleDesc().getFieldType(((BTreeFile) file).keyField());
+                Field key = keyType == Type.INT_TYPE ? new IntField(Integer.parseInt(lf.c))
+                        : new StringField(lf.c, Type.STRING_LEN);
+                subplanMap.put(table.alias, new IndexScan(t, file.getId(), table.alias,
+                        new IndexPredicate(lf.p, key)));
+                indexed.add(lf);
+            } else {
+                if (file instanceof ColumnarFile) {
+                    // only decode the columns the query refers to
+                    int[] columns = referencedColumns(table.alias, file.getTupleDesc());
+                    if (columns != null)
+                        ss.setColumns(columns);
+                }
+                subplanMap.put(table.alias, ss);
+                scans.put(table.alias, ss);
+            }
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -360,7 +484,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!indexed.contains(lf)) {
+                // lets the scan skip pages, but it need not filter every tuple
+                if (scans.containsKey(lf.tableAlias))
+                    scans.get(lf.tableAlias).pushDown(p);
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -405,8 +534,11 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
-            OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            OpIterator j = null;
+            if (!isSubqueryJoin && plan2 == scans.get(t2name))
+                j = indexJoin(t, lj, plan1, scans.get(t2name));
+            if (j == null)
+                j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -1,15 +1,27 @@
 package simpledb.storage;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Queue;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.index.HashIndex;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -21,8 +33,26 @@ import simpledb.transaction.TransactionId;
  * The BufferPool is also responsible for locking; when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Resident pages live in fixed arrays of frames, split into hash partitions
+ * keyed by PageId. The bytes of resident HeapPages are kept off the Java heap,
+ * in a {@link FrameArena} with one direct buffer per frame, so that the heap
+ * the pool takes up does not grow with its size. Cache hits are served from
+ * a concurrent map without taking any latch; a miss only latches the
+ * partition the page belongs to. Which
+ * frame of a partition is reused when it is full is decided by a pluggable
+ * {@link ReplacementPolicy} (CLOCK by default). Dirty pages are never evicted
+ * (NO STEAL), and neither are pages pinned with {@link #pinPage}.
+ * <p>
+ * Sequential scans can ask for pages to be read ahead with
+ * {@link #prefetchPage}. Pages are read ahead on a background thread and
+ * only into free frames or frames the replacement policy considers cold.
+ * Scans of tables larger than the pool read through a private
+ * {@link ScanRing} instead, so that they do not flush the pool.
  *
- * @Threadsafe, all fields are final
+ * @Threadsafe, hits read the page map and pin frames with atomic counts
+ * without any latch; loading, evicting and removing a page hold the latch of
+ * its partition, and whole-pool flushes hold the pool's monitor
  */
 public class BufferPool {
     /**
@@ -39,20 +69,362 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    final int numPages; // number of pages -- currently, not enforced
-    final ConcurrentMap<PageId, Page> pages; // hash table storing current pages in memory
+    /**
+     * Pools are split into partitions of at least this many frames, so that
+     * an uneven spread of pages across partitions costs little capacity.
+     */
+    private static final int MIN_FRAMES_PER_PARTITION = 64;
+
+    /**
+     * Reads pages ahead of sequential scans. A single thread keeps the reads
+     * in the order they were requested, which is the order on disk.
+     */
+    private static final ExecutorService readAheadExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "simpledb-read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    final int numPages; // number of pages
+    final ConcurrentMap<PageId, Frame> pages; // hash table mapping resident pages to their frames
+
+    private final Partition[] partitions;
+    private final LockManager lockManager;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    /** before images of pages written to disk ahead of their transaction's commit */
+    private final ConcurrentMap<TransactionId, List<Page>> writtenBeforeCommit = new ConcurrentHashMap<>();
+    /** the pins each transaction holds, by page */
+    private final ConcurrentMap<TransactionId, Map<PageId, Integer>> pinned = new ConcurrentHashMap<>();
+    /** what to do once a transaction has aborted (see {@link #onAbort}) */
+    private final ConcurrentMap<TransactionId, List<Runnable>> abortActions = new ConcurrentHashMap<>();
+
+    /**
+     * A slot of the pool that holds one resident page. A frame is reused for
+     * other pages after eviction, so readers that find it without holding the
+     * partition latch must check that it still holds the page they want.
+     */
+    static final class Frame {
+        final int index; // index within the frame's partition
+        final ByteBuffer buffer; // off-heap bytes of the page, if it is a HeapPage
+        volatile Page page;
+        volatile boolean prefetched; // read ahead and not requested since
+        /**
+         * Number of pins on the page; -1 while the frame is free or its page
+         * is being evicted, so that it can no longer be pinned.
+         */
+        final AtomicInteger pins = new AtomicInteger(-1);
+
+        Frame(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return false if the frame is free or being evicted
+         */
+        boolean pin() {
+            for (int n = pins.get(); n >= 0; n = pins.get()) {
+                if (pins.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void unpin(int count) {
+            for (int n = pins.get(); n > 0; n = pins.get()) {
+                if (pins.compareAndSet(n, Math.max(0, n - count))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A hash partition of the pool. Each partition owns a fixed share of the
+     * frames and its own replacement state; its monitor is the latch that
+     * serializes misses, installs and evictions within the partition.
+     */
+    private final class Partition {
+        private final Frame[] frames;
+        private final int[] freeFrames; // stack of unused frame indexes
+        private int numFreeFrames;
+        private final ReplacementPolicy policy;
+
+        Partition(int numFrames, IntFunction<ReplacementPolicy> policyFactory) {
+            FrameArena arena = new FrameArena(numFrames, pageSize);
+            this.frames = new Frame[numFrames];
+            this.freeFrames = new int[numFrames];
+            for (int i = 0; i < numFrames; i++) {
+                frames[i] = new Frame(i, arena.frame(i));
+                freeFrames[i] = numFrames - 1 - i;
+            }
+            this.numFreeFrames = numFrames;
+            this.policy = policyFactory.apply(numFrames);
+        }
+
+        /**
+         * Returns the page with the specified id, reading it from disk if it
+         * is not resident, and pins it if asked to.
+         */
+        synchronized Page fetch(PageId pid, boolean pin) throws DbException {
+            Frame frame = pages.get(pid);
+            if (frame != null) {
+                hits.increment();
+                frame.prefetched = false;
+                policy.pageAccessed(frame.index);
+            } else {
+                misses.increment();
+                frame = install(read(pid));
+            }
+            if (pin) {
+                frame.pin(); // resident frames can be pinned while we hold the latch
+            }
+            return frame.page;
+        }
+
+        /**
+         * Reads the specified page from disk straight into the frame that
+         * {@link #install} uses next, evicting a page first if there is no
+         * free frame.
+         */
+        private Page read(PageId pid) throws DbException {
+            if (numFreeFrames == 0) {
+                evict();
+            }
+            return readInto(pid, frames[freeFrames[numFreeFrames - 1]].buffer);
+        }
+
+        /**
+         * Puts the specified page in the partition, replacing any cached
+         * version of it, and evicting another page if the partition is full.
+         *
+         * @return the frame now holding the page
+         */
+        synchronized Frame install(Page p) throws DbException {
+            Frame frame = pages.get(p.getId());
+            if (frame != null) {
+                if (frame.page != p) {
+                    vacate(frame);
+                    occupy(frame, p);
+                }
+                frame.prefetched = false;
+                policy.pageAccessed(frame.index);
+                return frame;
+            }
+            if (numFreeFrames == 0) {
+                evict();
+            }
+            frame = frames[freeFrames[--numFreeFrames]];
+            occupy(frame, p);
+            frame.prefetched = false;
+            frame.pins.set(0);
+            pages.put(p.getId(), frame);
+            policy.pageLoaded(frame.index);
+            return frame;
+        }
+
+        /**
+         * Reads the specified page into the partition if it is not resident
+         * and there is a free or cold frame for it. Pages read ahead earlier
+         * and not used yet are not replaced. Holding the latch during
+         * the read keeps a stale version from being installed after a
+         * concurrent miss, flush and eviction of the same page.
+         */
+        synchronized void prefetch(PageId pid) {
+            if (pages.containsKey(pid)) {
+                return;
+            }
+            while (numFreeFrames == 0) {
+                int victim = policy.chooseColdVictim(i -> !frames[i].prefetched && evictable(i));
+                if (victim == -1) {
+                    return;
+                }
+                tryRemove(victim);
+            }
+            Page p = readInto(pid, frames[freeFrames[numFreeFrames - 1]].buffer);
+            Frame frame = frames[freeFrames[--numFreeFrames]];
+            occupy(frame, p);
+            frame.prefetched = true;
+            frame.pins.set(0);
+            pages.put(pid, frame);
+            policy.pagePrefetched(frame.index);
+        }
+
+        synchronized void remove(PageId pid) {
+            Frame frame = pages.get(pid);
+            if (frame == null) {
+                return;
+            }
+            pages.remove(pid);
+            frame.pins.set(-1);
+            vacate(frame);
+            policy.pageRemoved(frame.index);
+            freeFrames[numFreeFrames++] = frame.index;
+        }
+
+        /**
+         * Puts p in the empty frame; a HeapPage's bytes move into the
+         * frame's buffer.
+         */
+        private void occupy(Frame frame, Page p) {
+            if (p instanceof HeapPage) {
+                ((HeapPage) p).attach(frame.buffer);
+            }
+            frame.page = p;
+        }
 
-    private Queue<PageId> queue;
+        /**
+         * Empties the frame. A HeapPage's bytes are moved back to the heap
+         * first, since whoever still holds the page may read it after the
+         * frame's buffer has been reused.
+         */
+        private void vacate(Frame frame) {
+            Page p = frame.page;
+            if (p instanceof HeapPage) {
+                ((HeapPage) p).detach();
+            }
+            frame.page = null;
+        }
+
+        /**
+         * Discards a page, as chosen by the replacement policy. Dirty pages
+         * are never chosen, since writing them out would expose uncommitted
+         * data on disk (NO STEAL), and neither are pinned pages. Pages that
+         * were read ahead and not used yet are only chosen if there is
+         * nothing else, so that a scan does not evict the pages read ahead
+         * for it when it gets ahead of the read-ahead thread; they are still
+         * replaced by further read-ahead.
+         *
+         * @throws DbException if every page in the partition is dirty or pinned
+         */
+        private void evict() throws DbException {
+            while (numFreeFrames == 0) {
+                int victim = policy.chooseVictim(i -> !frames[i].prefetched && evictable(i));
+                if (victim == -1) {
+                    victim = policy.chooseVictim(this::evictable);
+                }
+                if (victim == -1) {
+                    throw new DbException("cannot evict a page: all " + frames.length
+                            + " pages in the buffer pool partition are dirty or pinned");
+                }
+                tryRemove(victim);
+            }
+        }
+
+        private boolean evictable(int i) {
+            return frames[i].page.isDirty() == null && frames[i].pins.get() == 0;
+        }
+
+        /**
+         * Removes the page of the specified frame unless it was pinned since
+         * it was chosen; pins are taken without the latch.
+         */
+        private void tryRemove(int victim) {
+            Frame frame = frames[victim];
+            if (frame.pins.compareAndSet(0, -1)) {
+                remove(frame.page.getId());
+            }
+        }
+    }
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the CLOCK
+     * replacement policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, ClockPolicy::new);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, with one
+     * partition per processor (but no partition smaller than
+     * {@value #MIN_FRAMES_PER_PARTITION} frames).
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param policyFactory creates the replacement policy of a partition, given
+     *                      the number of frames it has to manage (e.g.
+     *                      <code>ClockPolicy::new</code> or
+     *                      <code>n -&gt; new LruKPolicy(n, 2)</code>)
+     */
+    public BufferPool(int numPages, IntFunction<ReplacementPolicy> policyFactory) {
+        this(numPages, defaultPartitions(numPages), policyFactory);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages split into the
+     * specified number of hash partitions.
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param numPartitions number of partitions; each gets an equal share of
+     *                      the pages
+     * @param policyFactory creates the replacement policy of a partition, given
+     *                      the number of frames it has to manage
+     */
+    public BufferPool(int numPages, int numPartitions, IntFunction<ReplacementPolicy> policyFactory) {
+        if (numPartitions < 1 || numPartitions > numPages) {
+            throw new IllegalArgumentException("invalid number of partitions: " + numPartitions);
+        }
         this.numPages = numPages;
         this.pages = new ConcurrentHashMap<>();
-        this.queue = new LinkedList<>();
+        this.lockManager = new LockManager();
+        this.partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            int share = numPages / numPartitions + (i < numPages % numPartitions ? 1 : 0);
+            partitions[i] = new Partition(share, policyFactory);
+        }
+    }
+
+    private static int defaultPartitions(int numPages) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Math.min(cpus, numPages / MIN_FRAMES_PER_PARTITION));
+    }
+
+    /**
+     * Reads the specified page from disk for a free frame. A HeapFile or
+     * MappedHeapFile reads it straight into the frame's buffer, which the
+     * page then keeps as its bytes. Any other file, including a subclass of
+     * HeapFile that may override readPage(PageId), is read with
+     * {@link DbFile#readPage(PageId)}, and the frame's buffer goes unused.
+     */
+    private static Page readInto(PageId pid, ByteBuffer frame) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file.getClass() == HeapFile.class || file.getClass() == MappedHeapFile.class) {
+            return ((HeapFile) file).readPage(pid, frame);
+        }
+        return file.readPage(pid);
+    }
+
+    private Partition partitionOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return partitions[(h & 0x7fffffff) % partitions.length];
+    }
+
+    /**
+     * @return the maximum number of pages this pool caches
+     */
+    public int getCapacity() {
+        return numPages;
+    }
+
+    /**
+     * @return the number of getPage calls so far that found the page
+     *         resident in the pool
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of getPage calls so far that had to read the page
+     *         into the pool
+     */
+    public long getMissCount() {
+        return misses.sum();
     }
 
     public static int getPageSize() {
@@ -83,28 +455,148 @@ public class BufferPool {
      * @param tid  the ID of the transaction requesting the page
      * @param pid  the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if waiting for the lock would
+     *                                     deadlock and tid was chosen to abort
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        // XXX Yuan points out that HashMap is not synchronized, so this is buggy.
-        // XXX TODO(ghuo): do we really know enough to implement NO STEAL here?
-        // won't we still evict pages?
-        Page p;
-        synchronized (this) {
-            p = pages.get(pid);
-            if (p == null) {
-                if (pages.size() >= numPages) {
-                    evictPage();
-                }
+        lockManager.acquire(tid, pid, perm);
+        Page p = lookup(pid);
+        return p != null ? p : partitionOf(pid).fetch(pid, false);
+    }
 
-                p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                pages.put(pid, p);
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId,
+     * Permissions)}, and pin it: the page is not evicted until it is
+     * unpinned as many times as it was pinned, with {@link #unpinPage}, or
+     * until tid completes, which drops its remaining pins. A pinned page
+     * keeps its bytes in its frame, so it can be read in place (e.g. through
+     * a view of its bytes) without copying it first. A page that is removed
+     * from the pool (see {@link #removePage}) loses its pins.
+     * <p>
+     * Pins are meant to be held for as long as an operator works with a
+     * page, e.g. while a scan iterates over it. Pages that are all pinned
+     * or dirty cannot be evicted, so a pool needs more frames than the
+     * pages pinned at the same time.
+     *
+     * @throws DbException if the page is not resident and every page of
+     *                     its partition is dirty or pinned
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        lockManager.acquire(tid, pid, perm);
+        Page p = null;
+        Frame frame = pages.get(pid);
+        if (frame != null && frame.pin()) {
+            // the frame may have been reused for another page before the pin
+            p = frame.page;
+            if (p != null && p.getId().equals(pid)) {
+                hits.increment();
+                frame.prefetched = false;
+                partitionOf(pid).policy.pageAccessed(frame.index);
+            } else {
+                frame.unpin(1);
+                p = null;
             }
         }
-        this.updateQueue(p.getId());
+        if (p == null) {
+            p = partitionOf(pid).fetch(pid, true);
+        }
+        pinned.computeIfAbsent(tid, t -> new ConcurrentHashMap<>()).merge(pid, 1, Integer::sum);
         return p;
     }
 
+    /**
+     * Gives back one pin tid took on the specified page with
+     * {@link #pinPage}. Does nothing if tid holds no pin on it.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<PageId, Integer> pins = pinned.get(tid);
+        if (pins == null) {
+            return;
+        }
+        boolean[] held = {false};
+        pins.computeIfPresent(pid, (k, n) -> {
+            held[0] = true;
+            return n == 1 ? null : n - 1;
+        });
+        if (held[0]) {
+            unpinFrame(pid, 1);
+        }
+    }
+
+    private void unpinFrame(PageId pid, int count) {
+        Frame frame = pages.get(pid);
+        if (frame != null) {
+            frame.unpin(count);
+        }
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId,
+     * Permissions)}, except that a READ_ONLY page that is not resident is read
+     * into the specified scan ring instead of the pool.
+     *
+     * @param ring the ring of the scan requesting the page, or null to use
+     *             the pool
+     * @see ScanRing
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+            throws TransactionAbortedException, DbException {
+        if (ring == null || perm != Permissions.READ_ONLY) {
+            return getPage(tid, pid, perm);
+        }
+        lockManager.acquire(tid, pid, perm);
+        Page p = lookup(pid);
+        return p != null ? p : ring.fetch(pid);
+    }
+
+    /**
+     * Returns the specified page if it is resident, and null otherwise. This
+     * is the hit path: no latch, just the concurrent map.
+     */
+    private Page lookup(PageId pid) {
+        Frame frame = pages.get(pid);
+        if (frame != null) {
+            Page p = frame.page;
+            if (p != null && p.getId().equals(pid)) {
+                hits.increment();
+                if (frame.prefetched) {
+                    frame.prefetched = false;
+                }
+                partitionOf(pid).policy.pageAccessed(frame.index);
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Asks for the specified page to be read into the pool in the background,
+     * because it is about to be requested (e.g. by a sequential scan). This
+     * is only a hint: the page is not locked, and it is not read if it is
+     * already resident, if there is no room for it without evicting a page
+     * that was used recently, or if reading it fails.
+     *
+     * @param pid the ID of the page to read ahead
+     */
+    public void prefetchPage(PageId pid) {
+        if (pages.containsKey(pid)) {
+            return;
+        }
+        try {
+            readAheadExecutor.execute(() -> {
+                try {
+                    partitionOf(pid).prefetch(pid);
+                } catch (RuntimeException e) {
+                    // a hint; the page will be read when it is requested
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // likewise
+        }
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -115,8 +607,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void unsafeReleasePage(TransactionId tid, PageId pid) {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -125,41 +616,78 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /**
      * Return true if the specified transaction has a lock on the specified page
      */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit, the pages the transaction dirtied are forced to disk (FORCE).
+     * On abort, they are dropped from the pool; since dirty pages are never
+     * evicted (NO STEAL), the versions on disk are the ones from before the
+     * transaction. The only exception are pages a bulk insert wrote straight
+     * to disk (see {@link #pagesWritten}), whose before images are written
+     * back.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
+        Map<PageId, Integer> pins = pinned.remove(tid);
+        if (pins != null) {
+            pins.forEach(this::unpinFrame);
+        }
+        List<Runnable> onAbort = abortActions.remove(tid);
+        try {
+            List<Page> written = writtenBeforeCommit.remove(tid);
+            if (commit) {
+                flushPages(tid);
+            } else {
+                discardPages(tid);
+                if (written != null) {
+                    restorePages(written);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lockManager.releaseAll(tid);
+        }
+        if (!commit && onAbort != null) {
+            onAbort.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Arrange for the specified action to run if tid aborts, after its pages
+     * have been rolled back and its locks released; nothing happens if tid
+     * commits. Files use this to take back what they changed on disk on
+     * behalf of tid outside of the transaction, such as pages they appended
+     * to make room for it (see {@link simpledb.index.BTreeFile}).
+     */
+    public void onAbort(TransactionId tid, Runnable action) {
+        abortActions.computeIfAbsent(tid, t -> Collections.synchronizedList(new ArrayList<>())).add(action);
     }
 
     /**
      * Add a tuple to the specified table on behalf of transaction tid. Will
      * acquire a write lock on the page the tuple is added to and any other
-     * pages that are updated (Lock acquisition is not needed for lab2).
-     * May block if the lock(s) cannot be acquired.
+     * pages that are updated. May block if the lock(s) cannot be acquired.
      * <p>
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
-     * that future requests see up-to-date pages.
+     * that future requests see up-to-date pages. The entries for the tuple
+     * are added to the indexes of the table the same way (see
+     * {@link simpledb.common.Catalog#addIndex}).
      *
      * @param tid     the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -168,13 +696,9 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         List<Page> affectedPages = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
-        for (Page affectedPage : affectedPages) {
-            affectedPage.markDirty(true, tid);
-            if (this.pages.size() > this.numPages) {
-                evictPage();
-            }
-            this.pages.put(affectedPage.getId(), affectedPage);
-            this.updateQueue(affectedPage.getId());
+        cacheDirtyPages(tid, affectedPages);
+        for (HashIndex index : Database.getCatalog().getIndexes(tableId)) {
+            cacheDirtyPages(tid, index.insertTuple(tid, index.entry(t)));
         }
     }
 
@@ -186,7 +710,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
-     * that future requests see up-to-date pages.
+     * that future requests see up-to-date pages. The entries for the tuple
+     * are removed from the indexes of the table.
      *
      * @param tid the transaction deleting the tuple.
      * @param t   the tuple to delete
@@ -194,14 +719,94 @@ public class BufferPool {
     public void deleteTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         int tableId = t.getRecordId().getPageId().getTableId();
+        List<HashIndex> indexes = Database.getCatalog().getIndexes(tableId);
+        List<Tuple> entries = new ArrayList<>(indexes.size());
+        for (HashIndex index : indexes) {
+            entries.add(index.entry(t));
+        }
         List<Page> affectedPages = Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
-        for (Page affectedPage : affectedPages) {
-            affectedPage.markDirty(true, tid);
-            if (this.pages.size() > this.numPages) {
-                evictPage();
+        cacheDirtyPages(tid, affectedPages);
+        for (int i = 0; i < indexes.size(); i++) {
+            cacheDirtyPages(tid, indexes.get(i).deleteTuple(tid, entries.get(i)));
+        }
+    }
+
+    /**
+     * Add the tuples of the specified iterator to the specified table on
+     * behalf of transaction tid, through {@link DbFile#insertTuples}. Files
+     * may append whole pages to disk directly instead of going through the
+     * pool; the pages they modify in the pool are marked dirty and cached as
+     * for {@link #insertTuple}, and so are the pages of the indexes of the
+     * table, to which the entries for the tuples are added.
+     *
+     * @param tid     the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples  the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        List<HashIndex> indexes = Database.getCatalog().getIndexes(tableId);
+        List<Tuple> inserted = new ArrayList<>();
+        if (!indexes.isEmpty()) {
+            // remember the tuples, which know where they went once inserted
+            Iterator<Tuple> source = tuples;
+            tuples = new Iterator<Tuple>() {
+                public boolean hasNext() {
+                    return source.hasNext();
+                }
+
+                public Tuple next() {
+                    Tuple t = source.next();
+                    inserted.add(t);
+                    return t;
+                }
+            };
+        }
+        List<Page> affectedPages = Database.getCatalog().getDatabaseFile(tableId).insertTuples(tid, tuples);
+        cacheDirtyPages(tid, affectedPages);
+        for (HashIndex index : indexes) {
+            List<Tuple> entries = new ArrayList<>(inserted.size());
+            for (Tuple t : inserted) {
+                entries.add(index.entry(t));
             }
-            this.pages.put(affectedPage.getId(), affectedPage);
-            this.updateQueue(affectedPage.getId());
+            cacheDirtyPages(tid, index.insertTuples(tid, entries.iterator()));
+        }
+    }
+
+    /**
+     * Acquire a lock on a page without fetching it, e.g. because it does not
+     * exist on disk yet.
+     */
+    void lockPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        lockManager.acquire(tid, pid, perm);
+    }
+
+    /**
+     * Called by a DbFile that wrote the specified pages to disk on behalf of
+     * tid before tid committed, bypassing the pool (which breaks NO STEAL for
+     * these pages). tid must hold exclusive locks on them. Any cached
+     * versions are dropped, and if tid aborts, the before images of the pages
+     * are written back.
+     */
+    void pagesWritten(TransactionId tid, List<? extends Page> pages) {
+        List<Page> beforeImages = new ArrayList<>(pages.size());
+        for (Page p : pages) {
+            removePage(p.getId());
+            beforeImages.add(p.getBeforeImage());
+        }
+        writtenBeforeCommit.computeIfAbsent(tid, t -> Collections.synchronizedList(new ArrayList<>()))
+                .addAll(beforeImages);
+    }
+
+    private void restorePages(List<Page> beforeImages) throws IOException {
+        for (Page p : beforeImages) {
+            // restore the disk first: a read-ahead does not lock pages, so one
+            // that ran between the two steps would otherwise cache the
+            // aborted bytes as a clean page. Dropping the page afterwards also
+            // drops any version the transaction read back into the pool.
+            Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+            removePage(p.getId());
         }
     }
 
@@ -211,9 +816,14 @@ public class BufferPool {
      * break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        for (PageId pageId : this.pages.keySet()) {
-            this.flushPage(pageId);
+        List<Page> dirty = new ArrayList<>();
+        for (Map.Entry<PageId, Frame> e : pages.entrySet()) {
+            Page p = e.getValue().page;
+            if (p != null && p.getId().equals(e.getKey()) && p.isDirty() != null) {
+                dirty.add(p);
+            }
         }
+        writePages(dirty);
     }
 
     /**
@@ -225,51 +835,71 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void removePage(PageId pid) {
-        this.pages.remove(pid);
+    public void removePage(PageId pid) {
+        partitionOf(pid).remove(pid);
     }
 
     /**
-     * Flushes a certain page to disk
-     *
-     * @param pid an ID indicating the page to flush
+     * Writes the specified dirty pages to disk, grouped by file so that each
+     * file can write its pages in order and coalesce neighbouring ones, and
+     * marks them clean.
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        if (this.pages.get(pid) == null) {
-            return;
+    private void writePages(List<Page> dirty) throws IOException {
+        Map<Integer, List<Page>> byFile = new HashMap<>();
+        for (Page p : dirty) {
+            byFile.computeIfAbsent(p.getId().getTableId(), id -> new ArrayList<>()).add(p);
         }
-        boolean isNotDirty = this.pages.get(pid).isDirty() == null;
-        if (isNotDirty) {
-            return;
+        for (Map.Entry<Integer, List<Page>> e : byFile.entrySet()) {
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
+        }
+        for (Page p : dirty) {
+            p.markDirty(false, null);
         }
-
-        Page dirtyPage = this.pages.get(pid);
-
-        int tableId = dirtyPage.getId().getTableId();
-        Database.getCatalog().getDatabaseFile(tableId).writePage(dirtyPage);
-        dirtyPage.markDirty(false, null);
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
+        List<Page> dirty = new ArrayList<>();
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Frame frame = pages.get(pid);
+            Page p = frame == null ? null : frame.page;
+            if (p != null && p.getId().equals(pid) && tid.equals(p.isDirty())) {
+                dirty.add(p);
+            }
+        }
+        writePages(dirty);
+        // the flushed versions are what a later abort has to roll back to
+        for (Page p : dirty) {
+            p.setBeforeImage();
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Drop all pages dirtied by the specified transaction from the pool, so
+     * that they are read back from disk the next time they are needed.
      */
-    private synchronized void evictPage() throws DbException {
-        PageId evictedPageId = this.queue.remove();
-        this.removePage(evictedPageId);
+    private void discardPages(TransactionId tid) {
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Frame frame = pages.get(pid);
+            Page p = frame == null ? null : frame.page;
+            if (p != null && p.getId().equals(pid) && tid.equals(p.isDirty())) {
+                removePage(pid);
+            }
+        }
     }
 
-    private void updateQueue(PageId pid) {
-        this.queue.remove(pid);
-        this.queue.add(pid);
+    /**
+     * Marks the pages modified by an insert or delete as dirty and caches
+     * them, so that future requests see the up-to-date versions.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> affectedPages)
+            throws DbException {
+        for (Page affectedPage : affectedPages) {
+            affectedPage.markDirty(true, tid);
+            partitionOf(affectedPage.getId()).install(affectedPage);
+        }
     }
 
 }
@@ -0,0 +1,81 @@
+package simpledb.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * ClockPolicy implements the CLOCK (second-chance) replacement policy. Each
+ * frame has a reference bit that is set on every access; the clock hand
+ * sweeps over the frames, clearing set bits and stopping at the first
+ * evictable frame whose bit is already clear.
+ * <p>
+ * Recording an access is a single array store, and a victim is found in
+ * amortized constant time, so the cost of replacement does not grow with the
+ * size of the pool.
+ * <p>
+ * Pages that are read ahead start with a clear reference bit, so they are
+ * evicted on the next sweep unless someone uses them first; only such
+ * unreferenced frames are cold.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final boolean[] occupied;
+    private final boolean[] referenced;
+    private int hand;
+
+    /**
+     * Create a CLOCK policy over the specified number of frames.
+     *
+     * @param numFrames the number of frames in the pool
+     */
+    public ClockPolicy(int numFrames) {
+        this.occupied = new boolean[numFrames];
+        this.referenced = new boolean[numFrames];
+        this.hand = 0;
+    }
+
+    public void pageLoaded(int frame) {
+        occupied[frame] = true;
+        referenced[frame] = true;
+    }
+
+    public void pagePrefetched(int frame) {
+        occupied[frame] = true;
+        referenced[frame] = false;
+    }
+
+    public void pageAccessed(int frame) {
+        referenced[frame] = true;
+    }
+
+    public void pageRemoved(int frame) {
+        occupied[frame] = false;
+        referenced[frame] = false;
+    }
+
+    public int chooseVictim(IntPredicate evictable) {
+        int n = occupied.length;
+        // two full sweeps: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            if (!occupied[frame] || !evictable.test(frame))
+                continue;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            return frame;
+        }
+        return -1;
+    }
+
+    public int chooseColdVictim(IntPredicate evictable) {
+        int n = occupied.length;
+        for (int i = 0; i < n; i++) {
+            int frame = (hand + i) % n;
+            if (occupied[frame] && !referenced[frame] && evictable.test(frame))
+                return frame;
+        }
+        return -1;
+    }
+}
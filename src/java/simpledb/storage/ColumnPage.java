@@ -0,0 +1,32 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+
+/**
+ * The pages a ColumnarFile is made of: ColumnarPages, which have a fixed
+ * number of tuple slots, or CompressedPages, which hold as many tuples as
+ * their encoded columns fit in.
+ */
+interface ColumnPage extends PagedFile.TuplePage {
+
+    /**
+     * @return true if the specified tuple can be added to the page
+     */
+    boolean fits(Tuple t);
+
+    /**
+     * @return true if the page may have room for another tuple; this is only
+     *         a hint for the free space map, see {@link #fits}
+     */
+    boolean hasRoom();
+
+    /**
+     * Returns an iterator over the tuples on this page, projected to the
+     * specified columns: the tuples have the TupleDesc
+     * <code>td.project(columns)</code> and the RecordIds of the full tuples,
+     * and only those columns are decoded.
+     *
+     * @param columns indexes of fields of the table
+     */
+    Iterator<Tuple> iterator(int[] columns);
+}
@@ -0,0 +1,124 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A DbFile of ColumnarPages, for analytical tables of which queries read a
+ * few columns at a time. Pages hold as many tuples as HeapPages of the same
+ * table, but store them column by column (see {@link ColumnarPage}), and
+ * {@link #iterator(TransactionId, int[])} decodes only the columns a query
+ * asks for. Pages are identified by HeapPageIds.
+ * <p>
+ * A catalog declares a table stored this way by following its schema with
+ * the keyword <code>columnar</code>. SeqScan reads only the columns set
+ * with {@link simpledb.execution.SeqScan#setColumns}, which the query
+ * planner sets to the ones a query refers to.
+ * <p>
+ * A table with int fields only may instead be stored compressed, in
+ * CompressedPages, which encode each column so that pages hold as many
+ * tuples as fit; a catalog declares it with the keyword
+ * <code>compressed</code>.
+ *
+ * @see ColumnarPage
+ * @see CompressedPage
+ * @see HeapFile
+ * @see PagedFile
+ */
+public class ColumnarFile extends PagedFile<ColumnPage> {
+
+    private final boolean compressed;
+
+    /**
+     * Constructs a columnar file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public ColumnarFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a columnar file backed by the specified file, whose pages
+     * are CompressedPages if compressed is true.
+     *
+     * @param f          the file that stores the on-disk backing store for
+     *                   this file.
+     * @param compressed whether the pages of the file are compressed
+     * @throws IllegalArgumentException if the file is compressed and td has
+     *                                  fields that are not ints
+     */
+    public ColumnarFile(File f, TupleDesc td, boolean compressed) {
+        super(f, td);
+        if (compressed) {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) != Type.INT_TYPE) {
+                    throw new IllegalArgumentException("compressed tables can only have int fields");
+                }
+            }
+        }
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return true if the pages of this file are CompressedPages
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    @Override
+    ColumnPage newPage(HeapPageId id, byte[] data) {
+        return compressed ? new CompressedPage(id, getTupleDesc(), data) : new ColumnarPage(id, getTupleDesc(), data);
+    }
+
+    @Override
+    boolean hasRoom(ColumnPage page) {
+        return page.hasRoom();
+    }
+
+    @Override
+    int headerSize() {
+        return compressed ? CompressedPage.HEADER_SIZE : (ColumnarPage.numSlots(getTupleDesc()) + 7) / 8;
+    }
+
+    @Override
+    boolean hasRoom(ByteBuffer header) {
+        if (compressed) {
+            return CompressedPage.hasRoom(getTupleDesc(), header);
+        }
+        int numSlots = ColumnarPage.numSlots(getTupleDesc());
+        for (int i = 0; i < numSlots; i++) {
+            if ((header.get(i / 8) & (1 << (i % 8))) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    boolean fits(ColumnPage page, Tuple t) {
+        return page.fits(t);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file projected to the
+     * specified columns, decoding only those columns (see
+     * {@link ColumnPage#iterator(int[])}).
+     *
+     * @param columns indexes of fields of the table
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        for (int c : columns) {
+            if (c < 0 || c >= getTupleDesc().numFields()) {
+                throw new IllegalArgumentException("no column " + c);
+            }
+        }
+        int[] cols = columns.clone();
+        return new PagedFileIterator<>(this, tid, p -> p.iterator(cols));
+    }
+}
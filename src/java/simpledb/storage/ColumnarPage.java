@@ -0,0 +1,284 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A page of a ColumnarFile, laid out in the PAX format: the page has the
+ * same number of tuple slots and the same header bitmap as a HeapPage of the
+ * table, but instead of storing each tuple in one piece it stores each column
+ * in a minipage of its own. The minipage of column i starts at
+ * <p>
+ * header size + number of slots * (offset of field i in a serialized tuple)
+ * <p>
+ * and holds the value of that column for every slot in order, each in the
+ * format of {@link Field#serialize(ByteBuffer, int)}.
+ * <p>
+ * A scan that needs only some of the columns decodes only their minipages
+ * (see {@link #iterator(int[])}), whose values are adjacent in memory.
+ *
+ * @see ColumnarFile
+ */
+public class ColumnarPage implements ColumnPage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final int headerSize;
+    /** start of the minipage of each column */
+    private final int[] columnStart;
+    /** the page bytes in the format described above */
+    private final ByteBuffer data;
+
+    /**
+     * The bytes of the before image, or null while the page has not been
+     * modified since the before image was last set. Like data, only accessed
+     * while holding this page's monitor.
+     */
+    private byte[] oldData;
+
+    private volatile TransactionId lastTransactionDirty;
+
+    /**
+     * Create a ColumnarPage from a set of bytes of data read from disk. The
+     * format is described in the class comment.
+     */
+    public ColumnarPage(HeapPageId id, byte[] data) {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    /**
+     * Create a ColumnarPage of a table with the specified TupleDesc, which
+     * need not be in the catalog.
+     */
+    ColumnarPage(HeapPageId id, TupleDesc td, byte[] data) {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = numSlots(td);
+        this.headerSize = (numSlots + 7) / 8;
+        this.columnStart = new int[td.numFields()];
+        for (int i = 0; i < columnStart.length; i++) {
+            columnStart[i] = headerSize + numSlots * td.getOffset(i);
+        }
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        System.arraycopy(data, 0, bytes, 0, Math.min(data.length, bytes.length));
+        this.data = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with the
+     *         specified TupleDesc, the same as for a HeapPage
+     */
+    static int numSlots(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * ColumnarPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; // all 0
+    }
+
+    private int valueOffset(int column, int slot) {
+        return columnStart[column] + slot * td.getFieldType(column).getLen();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return (data.get(i / 8) & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        byte b = data.get(i / 8);
+        if (value) {
+            b |= (1 << (i % 8));
+        } else {
+            b &= ~(1 << (i % 8));
+        }
+        data.put(i / 8, b);
+    }
+
+    public boolean fits(Tuple t) {
+        return getNumUnusedSlots() > 0;
+    }
+
+    public boolean hasRoom() {
+        return getNumUnusedSlots() > 0;
+    }
+
+    /**
+     * Returns the number of unused (i.e., empty) slots on this page.
+     */
+    public synchronized int getNumUnusedSlots() {
+        int used = 0;
+        for (int i = 0; i < headerSize; i++) {
+            used += Integer.bitCount(data.get(i) & 0xff);
+        }
+        return numSlots - used;
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to reflect
+     * that it is now stored on this page.
+     *
+     * @param t The tuple to add.
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *                     is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("Tupledesc is mismatch!");
+        }
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!isSlotUsed(slot)) {
+                beforeWrite();
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.getField(i).serialize(data, valueOffset(i, slot));
+                }
+                markSlotUsed(slot, true);
+                t.setRecordId(new RecordId(pid, slot));
+                return;
+            }
+        }
+        throw new DbException("The page is full!");
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        if (t.getRecordId() == null) {
+            throw new DbException("This tuple is already deleted.");
+        }
+        if (!pid.equals(t.getRecordId().getPageId())) {
+            throw new DbException("This tuple is not on this page.");
+        }
+        int slot = t.getRecordId().getTupleNumber();
+        if (slot >= numSlots || !isSlotUsed(slot)) {
+            throw new DbException("This tuple slot is already empty.");
+        }
+        beforeWrite();
+        markSlotUsed(slot, false);
+        for (int i = 0; i < td.numFields(); i++) {
+            int offset = valueOffset(i, slot);
+            for (int j = 0; j < td.getFieldType(i).getLen(); j++) {
+                data.put(offset + j, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return decode(all, td);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page, projected to the
+     * specified columns: the tuples have the TupleDesc
+     * <code>td.project(columns)</code> and the RecordIds of the full tuples,
+     * and only the minipages of those columns are read. The tuples are
+     * decoded when the iterator is created, one column at a time.
+     *
+     * @param columns indexes of fields of the table
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        return decode(columns, td.project(columns));
+    }
+
+    private synchronized Iterator<Tuple> decode(int[] columns, TupleDesc projected) {
+        List<Tuple> tuples = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (isSlotUsed(slot)) {
+                Tuple t = new Tuple(projected);
+                t.setRecordId(new RecordId(pid, slot));
+                tuples.add(t);
+                slots.add(slot);
+            }
+        }
+        byte[] bytes = data.array();
+        for (int k = 0; k < columns.length; k++) {
+            Type type = td.getFieldType(columns[k]);
+            for (int n = 0; n < tuples.size(); n++) {
+                tuples.get(n).setField(k, type.parse(bytes, valueOffset(columns[k], slots.get(n))));
+            }
+        }
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the constructor to produce an identical page.
+     */
+    public synchronized byte[] getPageData() {
+        return data.array().clone();
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public synchronized ColumnarPage getBeforeImage() {
+        return new ColumnarPage(pid, td, oldData == null ? data.array() : oldData);
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = null; // the current bytes are the before image
+    }
+
+    /**
+     * Called before the page bytes are modified: if they are still the before
+     * image, keep a copy of them as the before image first.
+     */
+    private void beforeWrite() {
+        if (oldData == null) {
+            oldData = data.array().clone();
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.lastTransactionDirty = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if
+     * the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return lastTransactionDirty;
+    }
+}
@@ -0,0 +1,533 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A page of a compressed ColumnarFile, for tables with int fields only. Like
+ * a ColumnarPage, it stores each column in a chunk of its own, but the
+ * chunks are encoded, so that the page holds as many tuples as their
+ * encoded columns fit in rather than a fixed number. The page is:
+ * <p>
+ * number of rows (int), encoded size of the page (int), a bitmap of the rows
+ * that hold a tuple, and then the chunk of each column in order.
+ * <p>
+ * Each chunk is a byte naming its encoding, followed by the values of the
+ * column for every row, in whichever of these encodings is the smallest:
+ * <ul>
+ * <li>frame of reference: the smallest value (int) and a bit width (byte),
+ * then each value minus the smallest in that many bits;</li>
+ * <li>delta: the first value (int), the smallest difference between a value
+ * and the one before it (int) and a bit width (byte), then each such
+ * difference minus the smallest in that many bits, all modulo 2^32;</li>
+ * <li>run-length: the number of runs of equal values (int), then each run as
+ * its value (int) and its length (int).</li>
+ * </ul>
+ * Bits are packed little-endian, starting at the least significant bit of
+ * each byte. Small counters thus take a few bits per tuple, sorted keys
+ * even less, and columns with long runs a few bytes per run.
+ * <p>
+ * While the page is in memory, its columns are kept decoded, along with what
+ * is needed to know the size of each chunk, so that inserts only have to
+ * check that the new tuple fits. Tuples are appended in new rows; a deleted
+ * tuple only clears its bit (its values stay in the chunks), until all the
+ * tuples of the page are deleted and the page is empty again.
+ *
+ * @see ColumnarFile
+ */
+public class CompressedPage implements ColumnPage {
+
+    static final int HEADER_SIZE = 8;
+
+    private static final byte FOR = 0;
+    private static final byte DELTA = 1;
+    private static final byte RLE = 2;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private int numRows;
+    /** values[c][r] is the value of column c in row r, for the first numRows rows */
+    private int[][] values;
+    private final BitSet used = new BitSet();
+    private final Chunk[] chunks;
+
+    /**
+     * The bytes of the before image, or null while the page has not been
+     * modified since the before image was last set. Only accessed while
+     * holding this page's monitor.
+     */
+    private byte[] oldData;
+
+    private volatile TransactionId lastTransactionDirty;
+
+    /**
+     * What is needed to know the size of a chunk in each encoding, kept up to
+     * date as values are appended to the column.
+     */
+    private static final class Chunk {
+        int n;
+        int min, max;
+        int last;
+        long minDelta = Long.MAX_VALUE, maxDelta = Long.MIN_VALUE;
+        int runs;
+
+        Chunk copy() {
+            Chunk c = new Chunk();
+            c.n = n;
+            c.min = min;
+            c.max = max;
+            c.last = last;
+            c.minDelta = minDelta;
+            c.maxDelta = maxDelta;
+            c.runs = runs;
+            return c;
+        }
+
+        void add(int v) {
+            if (n == 0) {
+                min = max = v;
+                runs = 1;
+            } else {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                long d = (long) v - last;
+                minDelta = Math.min(minDelta, d);
+                maxDelta = Math.max(maxDelta, d);
+                if (v != last)
+                    runs++;
+            }
+            last = v;
+            n++;
+        }
+
+        int forSize() {
+            return 1 + 4 + 1 + packedSize(n, bitWidth((long) max - min));
+        }
+
+        int deltaSize() {
+            if (n < 2)
+                return 1 + 4 + 4 + 1;
+            return 1 + 4 + 4 + 1 + packedSize(n - 1, bitWidth(maxDelta - minDelta));
+        }
+
+        int rleSize() {
+            return 1 + 4 + 8 * runs;
+        }
+
+        byte encoding() {
+            int f = forSize(), d = deltaSize(), r = rleSize();
+            return d < f && d <= r ? DELTA : r < f ? RLE : FOR;
+        }
+
+        int size() {
+            return Math.min(forSize(), Math.min(deltaSize(), rleSize()));
+        }
+    }
+
+    /**
+     * @return the number of bits needed for values from 0 to range
+     */
+    private static int bitWidth(long range) {
+        return 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    private static int packedSize(int n, int width) {
+        return (int) (((long) n * width + 7) / 8);
+    }
+
+    /**
+     * Create a CompressedPage from a set of bytes of data read from disk. The
+     * format is described in the class comment.
+     */
+    public CompressedPage(HeapPageId id, byte[] data) {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    /**
+     * Create a CompressedPage of a table with the specified TupleDesc, which
+     * need not be in the catalog.
+     */
+    CompressedPage(HeapPageId id, TupleDesc td, byte[] data) {
+        this.pid = id;
+        this.td = td;
+        this.chunks = new Chunk[td.numFields()];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        numRows = bb.getInt(0);
+        values = new int[td.numFields()][Math.max(numRows, 16)];
+        int offset = HEADER_SIZE;
+        for (int r = 0; r < numRows; r++) {
+            if ((data[offset + r / 8] & (1 << (r % 8))) != 0)
+                used.set(r);
+        }
+        offset += (numRows + 7) / 8;
+        for (int c = 0; c < chunks.length; c++) {
+            offset = decodeChunk(bb, offset, values[c], numRows);
+            chunks[c] = new Chunk();
+            for (int r = 0; r < numRows; r++) {
+                chunks[c].add(values[c][r]);
+            }
+        }
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * CompressedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; // all 0
+    }
+
+    /**
+     * @return true if a page of a table with the specified TupleDesc, whose
+     *         header is at the start of the buffer, may have room for another
+     *         tuple: if one stored without compression would fit
+     */
+    static boolean hasRoom(TupleDesc td, ByteBuffer header) {
+        return header.getInt(4) + 1 + td.getSize() <= BufferPool.getPageSize();
+    }
+
+    /**
+     * @return the number of bytes the page takes once encoded
+     */
+    private int encodedSize(Chunk[] chunks, int rows) {
+        int size = HEADER_SIZE + (rows + 7) / 8;
+        for (Chunk c : chunks) {
+            size += c.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if a tuple stored without compression would fit on the
+     *         page, which may still not be the case for the next tuple
+     */
+    public synchronized boolean hasRoom() {
+        return encodedSize(chunks, numRows) + 1 + td.getSize() <= BufferPool.getPageSize();
+    }
+
+    public synchronized boolean fits(Tuple t) {
+        Chunk[] grown = new Chunk[chunks.length];
+        for (int c = 0; c < chunks.length; c++) {
+            grown[c] = chunks[c].copy();
+            grown[c].add(((IntField) t.getField(c)).getValue());
+        }
+        return encodedSize(grown, numRows + 1) <= BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns true if associated row on this page holds a tuple.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return used.get(i);
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public synchronized int getNumTuples() {
+        return used.cardinality();
+    }
+
+    /**
+     * Adds the specified tuple to the page, in a new row; the tuple is
+     * updated to reflect that it is now stored on this page.
+     *
+     * @param t The tuple to add.
+     * @throws DbException if the tuple does not fit on the page or tupledesc
+     *                     is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("Tupledesc is mismatch!");
+        }
+        if (!fits(t)) {
+            throw new DbException("The page is full!");
+        }
+        beforeWrite();
+        if (numRows == values[0].length) {
+            for (int c = 0; c < values.length; c++) {
+                values[c] = Arrays.copyOf(values[c], numRows * 2);
+            }
+        }
+        for (int c = 0; c < values.length; c++) {
+            int v = ((IntField) t.getField(c)).getValue();
+            values[c][numRows] = v;
+            chunks[c].add(v);
+        }
+        used.set(numRows);
+        t.setRecordId(new RecordId(pid, numRows));
+        numRows++;
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or its row is
+     *                     already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        if (t.getRecordId() == null) {
+            throw new DbException("This tuple is already deleted.");
+        }
+        if (!pid.equals(t.getRecordId().getPageId())) {
+            throw new DbException("This tuple is not on this page.");
+        }
+        int row = t.getRecordId().getTupleNumber();
+        if (row >= numRows || !used.get(row)) {
+            throw new DbException("This tuple slot is already empty.");
+        }
+        beforeWrite();
+        used.clear(row);
+        if (used.isEmpty()) {
+            numRows = 0;
+            for (int c = 0; c < chunks.length; c++) {
+                chunks[c] = new Chunk();
+            }
+        }
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        int[] all = new int[td.numFields()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return decode(all, td);
+    }
+
+    public Iterator<Tuple> iterator(int[] columns) {
+        return decode(columns, td.project(columns));
+    }
+
+    private synchronized Iterator<Tuple> decode(int[] columns, TupleDesc projected) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int r = used.nextSetBit(0); r >= 0; r = used.nextSetBit(r + 1)) {
+            Tuple t = new Tuple(projected);
+            t.setRecordId(new RecordId(pid, r));
+            for (int k = 0; k < columns.length; k++) {
+                t.setField(k, new IntField(values[columns[k]][r]));
+            }
+            tuples.add(t);
+        }
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the constructor to produce an identical page.
+     */
+    public synchronized byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        bb.putInt(0, numRows);
+        bb.putInt(4, encodedSize(chunks, numRows));
+        int offset = HEADER_SIZE;
+        for (int r = used.nextSetBit(0); r >= 0; r = used.nextSetBit(r + 1)) {
+            data[offset + r / 8] |= (byte) (1 << (r % 8));
+        }
+        offset += (numRows + 7) / 8;
+        for (int c = 0; c < chunks.length; c++) {
+            offset = encodeChunk(bb, offset, values[c], numRows, chunks[c]);
+        }
+        return data;
+    }
+
+    private static int encodeChunk(ByteBuffer bb, int offset, int[] column, int n, Chunk chunk) {
+        byte encoding = chunk.encoding();
+        bb.put(offset++, encoding);
+        switch (encoding) {
+            case FOR: {
+                int width = bitWidth((long) chunk.max - chunk.min);
+                bb.putInt(offset, chunk.min);
+                bb.put(offset + 4, (byte) width);
+                return pack(bb.array(), offset + 5, column, n, chunk.min, width);
+            }
+            case DELTA: {
+                int first = n > 0 ? column[0] : 0;
+                long minDelta = n > 1 ? chunk.minDelta : 0;
+                int width = n > 1 ? bitWidth(chunk.maxDelta - minDelta) : 0;
+                bb.putInt(offset, first);
+                bb.putInt(offset + 4, (int) minDelta);
+                bb.put(offset + 8, (byte) width);
+                return packDeltas(bb.array(), offset + 9, column, n, minDelta, width);
+            }
+            default: {
+                int runsOffset = offset;
+                offset += 4;
+                int runs = 0;
+                for (int r = 0; r < n; ) {
+                    int v = column[r];
+                    int end = r + 1;
+                    while (end < n && column[end] == v)
+                        end++;
+                    bb.putInt(offset, v);
+                    bb.putInt(offset + 4, end - r);
+                    offset += 8;
+                    runs++;
+                    r = end;
+                }
+                bb.putInt(runsOffset, runs);
+                return offset;
+            }
+        }
+    }
+
+    private static int decodeChunk(ByteBuffer bb, int offset, int[] column, int n) {
+        byte encoding = bb.get(offset++);
+        switch (encoding) {
+            case FOR:
+                return unpack(bb.array(), offset + 5, column, 0, n, bb.getInt(offset), bb.get(offset + 4));
+            case DELTA: {
+                if (n > 0)
+                    column[0] = bb.getInt(offset);
+                int end = unpack(bb.array(), offset + 9, column, 1, n, bb.getInt(offset + 4), bb.get(offset + 8));
+                // the unpacked values are the differences from the row before (modulo 2^32); add them up
+                for (int r = 1; r < n; r++) {
+                    column[r] += column[r - 1];
+                }
+                return end;
+            }
+            default: {
+                int runs = bb.getInt(offset);
+                offset += 4;
+                int r = 0;
+                for (int i = 0; i < runs; i++) {
+                    int v = bb.getInt(offset);
+                    int len = bb.getInt(offset + 4);
+                    Arrays.fill(column, r, r + len, v);
+                    r += len;
+                    offset += 8;
+                }
+                return offset;
+            }
+        }
+    }
+
+    /**
+     * Write column[0] - base to column[n - 1] - base in width bits each,
+     * starting at the specified offset of data.
+     *
+     * @return the offset after the last byte written
+     */
+    private static int pack(byte[] data, int offset, int[] column, int n, long base, int width) {
+        long acc = 0;
+        int bits = 0;
+        for (int r = 0; r < n; r++) {
+            acc |= (column[r] - base) << bits;
+            bits += width;
+            while (bits >= 8) {
+                data[offset++] = (byte) acc;
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) {
+            data[offset++] = (byte) acc;
+        }
+        return offset;
+    }
+
+    /**
+     * Write the difference between each value of the column and the one
+     * before it, minus minDelta, in width bits each.
+     *
+     * @return the offset after the last byte written
+     */
+    private static int packDeltas(byte[] data, int offset, int[] column, int n, long minDelta, int width) {
+        long acc = 0;
+        int bits = 0;
+        for (int r = 1; r < n; r++) {
+            acc |= ((long) column[r] - column[r - 1] - minDelta) << bits;
+            bits += width;
+            while (bits >= 8) {
+                data[offset++] = (byte) acc;
+                acc >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) {
+            data[offset++] = (byte) acc;
+        }
+        return offset;
+    }
+
+    /**
+     * Read values of width bits each starting at the specified offset of
+     * data into column[from] to column[n - 1], adding base to each.
+     *
+     * @return the offset after the last byte read
+     */
+    private static int unpack(byte[] data, int offset, int[] column, int from, int n, long base, int width) {
+        long mask = (1L << width) - 1;
+        long acc = 0;
+        int bits = 0;
+        for (int r = from; r < n; r++) {
+            while (bits < width) {
+                acc |= (data[offset++] & 0xffL) << bits;
+                bits += 8;
+            }
+            column[r] = (int) (base + (acc & mask));
+            acc >>>= width;
+            bits -= width;
+        }
+        return offset;
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public synchronized CompressedPage getBeforeImage() {
+        return new CompressedPage(pid, td, oldData == null ? getPageData() : oldData);
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = null; // the current contents are the before image
+    }
+
+    /**
+     * Called before the page is modified: if it is still the before image,
+     * keep its encoded bytes as the before image first.
+     */
+    private void beforeWrite() {
+        if (oldData == null) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.lastTransactionDirty = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if
+     * the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return lastTransactionDirty;
+    }
+}
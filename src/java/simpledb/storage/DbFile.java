@@ -6,7 +6,11 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -31,10 +35,29 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages of this file to disk. Files may override this
+     * to write them in fewer, larger writes; the default writes them one at
+     * a time with {@link #writePage}.
+     *
+     * @param pages The pages to write, in any order.
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
      * may block until the lock can be acquired.
+     * <p>
+     * A file that pins the pages it modifies (see {@link BufferPool#pinPage})
+     * marks them dirty and unpins them before it returns; the buffer pool
+     * does not give back pins on its behalf, since tid may hold pins of its
+     * own on the same pages.
      *
      * @param tid The transaction performing the update
      * @param t   The tuple to add.  This tuple should be updated to reflect that
@@ -46,11 +69,43 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts all tuples of the specified iterator into the file on behalf of
+     * the transaction. Files may override this with a path that fills whole
+     * pages at once; the default inserts the tuples one at a time with
+     * {@link #insertTuple}, marking each modified page dirty right away so that
+     * the buffer pool does not evict it before the caller has cached it.
+     * <p>
+     * Pages an implementation writes to disk directly, rather than returning
+     * them, must be locked exclusively by tid and reported to
+     * {@link BufferPool#pagesWritten} so that they can be restored if the
+     * transaction aborts.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to add. Each is updated to reflect where it is
+     *               now stored.
+     * @return the pages that were modified in the buffer pool, each once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    default List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> affectedPages = new LinkedHashMap<>();
+        while (tuples.hasNext()) {
+            for (Page p : insertTuple(tid, tuples.next())) {
+                p.markDirty(true, tid);
+                affectedPages.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<>(affectedPages.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
      * This method will acquire a lock on the affected pages of the file, and
      * may block until the lock can be acquired.
+     * Pins are handled as for {@link #insertTuple}.
      *
      * @param tid The transaction performing the update
      * @param t   The tuple to delete.  This tuple should be updated to reflect that
@@ -0,0 +1,82 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+/**
+ * A StringField read from a dictionary-encoded column (see
+ * {@link StringDictionary}): it holds the code of its value, and only looks
+ * the value up when it is asked for, e.g. when a tuple is printed.
+ * <p>
+ * Equality between two fields of the same dictionary, as used by equality
+ * predicates, joins and the hash maps of grouping, is decided on their
+ * codes. Ordering comparisons and LIKE need the values, as does equality
+ * with any other StringField. The hash code is that of the value, which the
+ * dictionary's String caches, so that it agrees with StringField's.
+ */
+public class DictionaryField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+    private final transient StringDictionary dictionary;
+
+    /**
+     * Constructor.
+     *
+     * @param code       the code of the value of this field
+     * @param dictionary the dictionary the code is from
+     */
+    public DictionaryField(int code, StringDictionary dictionary) {
+        super(Type.STRING_LEN);
+        this.code = code;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return the code of the value of this field
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return the dictionary the code of this field is from
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public String getValue() {
+        return dictionary.decode(code);
+    }
+
+    @Override
+    public boolean equals(Object field) {
+        if (field instanceof DictionaryField && ((DictionaryField) field).dictionary == dictionary) {
+            return ((DictionaryField) field).code == code;
+        }
+        return super.equals(field);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field, as
+     * {@link StringField#compare} does. EQUALS and NOT_EQUALS compare codes.
+     */
+    @Override
+    public boolean compare(Predicate.Op op, Field val) {
+        if (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS) {
+            return (dictionary.lookup((StringField) val) == code) == (op == Predicate.Op.EQUALS);
+        }
+        return super.compare(op, val);
+    }
+
+    /**
+     * Serialized fields do not take the dictionary with them, so they are
+     * replaced by plain StringFields.
+     */
+    private Object writeReplace() {
+        return new StringField(getValue(), Type.STRING_LEN);
+    }
+}
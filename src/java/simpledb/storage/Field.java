@@ -5,6 +5,7 @@ import simpledb.execution.Predicate;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.io.Serializable;
 
 /**
@@ -20,6 +21,17 @@ public interface Field extends Serializable {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field to the specified offset of a
+     * big-endian buffer, in the same format as
+     * {@link #serialize(DataOutputStream)}. The buffer's position is not
+     * changed.
+     *
+     * @param data   the buffer to write to
+     * @param offset the absolute offset to write the field at
+     */
+    void serialize(ByteBuffer data, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      *
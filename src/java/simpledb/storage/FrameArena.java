@@ -0,0 +1,53 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed number of page-sized frames allocated outside the Java heap, in
+ * direct ByteBuffer slabs. Each partition of the BufferPool owns an arena
+ * with one frame per pool frame, and HeapPages resident in the pool keep
+ * their bytes in the frame they occupy (see {@link HeapPage#attach}). The
+ * heap then only holds the small page and tuple objects, however large the
+ * pool is.
+ * <p>
+ * The slabs are allocated up front and live as long as the arena.
+ */
+class FrameArena {
+
+    /** Frames per slab; keeps every slab well below the 2 GB buffer limit. */
+    private static final int FRAMES_PER_SLAB = 16384;
+
+    private final ByteBuffer[] slabs;
+    private final int pageSize;
+
+    /**
+     * @param numFrames the number of frames
+     * @param pageSize  the size of a frame, in bytes
+     */
+    FrameArena(int numFrames, int pageSize) {
+        this.pageSize = pageSize;
+        this.slabs = new ByteBuffer[(numFrames + FRAMES_PER_SLAB - 1) / FRAMES_PER_SLAB];
+        for (int i = 0; i < slabs.length; i++) {
+            int frames = Math.min(FRAMES_PER_SLAB, numFrames - i * FRAMES_PER_SLAB);
+            slabs[i] = ByteBuffer.allocateDirect(frames * pageSize);
+        }
+    }
+
+    /**
+     * @return the size of a frame, in bytes
+     */
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return a buffer spanning exactly the specified frame, positioned at
+     *         its start
+     */
+    ByteBuffer frame(int index) {
+        ByteBuffer slab = slabs[index / FRAMES_PER_SLAB].duplicate();
+        int offset = (index % FRAMES_PER_SLAB) * pageSize;
+        slab.position(offset).limit(offset + pageSize);
+        return slab.slice();
+    }
+}
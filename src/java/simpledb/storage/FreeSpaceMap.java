@@ -0,0 +1,47 @@
+package simpledb.storage;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have at least one empty
+ * slot, so that inserts can go straight to such a page instead of trying
+ * every page of the file.
+ * <p>
+ * The map is only a hint. It is updated as HeapPages gain and lose free
+ * slots in memory, also by transactions that may still abort, so it can be
+ * wrong in both directions: callers must check that a page it names really
+ * has room, and report what they find with {@link #update}. Pages past the
+ * ones the map knows about (e.g. because the file was extended by other
+ * means) are always reported as candidates.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private final BitSet free = new BitSet();
+    private int numPages; // pages the map knows about
+
+    /**
+     * Returns the first page at or after the specified one that may have an
+     * empty slot. The returned page may be past the end of the file.
+     */
+    synchronized int nextCandidate(int from) {
+        if (from >= numPages) {
+            return from;
+        }
+        int i = free.nextSetBit(from);
+        return i < 0 || i >= numPages ? numPages : i;
+    }
+
+    /**
+     * Record whether the specified page has an empty slot. Pages between the
+     * last known page and this one become candidates.
+     */
+    synchronized void update(int pageNo, boolean hasRoom) {
+        if (pageNo >= numPages) {
+            free.set(numPages, pageNo);
+            numPages = pageNo + 1;
+        }
+        free.set(pageNo, hasRoom);
+    }
+}
@@ -1,18 +1,24 @@
 package simpledb.storage;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -32,6 +38,33 @@ public class HeapFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
 
+    /**
+     * Number of pages a sequential scan reads ahead of the page it is on,
+     * unless configured otherwise (see {@link #iterator(TransactionId, int)}).
+     */
+    public static final int DEFAULT_READ_AHEAD = 8;
+
+    /**
+     * Maximum number of pages insertTuples appends with a single write.
+     */
+    public static final int APPEND_BATCH_PAGES = 64;
+
+    /** opened on first use and kept open for the lifetime of this HeapFile */
+    private volatile FileChannel channel;
+    /** built from the page headers on first use */
+    private volatile FreeSpaceMap freeSpace;
+    /**
+     * number of pages, taken from the file length on first use and raised by
+     * every write past the end; -1 until then (see {@link #pageCount})
+     */
+    private final AtomicInteger pageCount = new AtomicInteger(-1);
+    /** pages reserved by appendPages that it has not written yet */
+    private final Set<Integer> appending = ConcurrentHashMap.newKeySet();
+    /** loaded or built by the first scan that can use it (see {@link #zoneMap}) */
+    private volatile ZoneMap zoneMap;
+    /** pages inserted into before the zone map was loaded */
+    private final BitSet unrecorded = new BitSet();
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -75,49 +108,309 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the channel used for all reads and writes of this file, opening
+     * it if this is the first access. The channel is also reopened if it was
+     * closed because a thread was interrupted during I/O.
+     */
+    FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                ch = new RandomAccessFile(f.getAbsoluteFile(), "rw").getChannel();
+                channel = ch;
+            }
+            return ch;
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
+        return readPage(pid, ByteBuffer.allocate(BufferPool.getPageSize()));
+    }
+
+    /**
+     * Reads the page straight into the specified BufferPool frame, which the
+     * page keeps as its bytes (see {@link HeapPage#attach}), so that a miss
+     * copies the page only once. The frame is free while this is called, and
+     * is only used if the page is put in it. The pool only calls this for
+     * HeapFiles and MappedHeapFiles, not subclasses from other packages, so
+     * that an override of {@link #readPage(PageId)} sees every read.
+     *
+     * @param frame a buffer of {@link BufferPool#getPageSize()} bytes,
+     *              positioned at 0
+     */
+    Page readPage(PageId pid, ByteBuffer frame) {
         HeapPageId id = (HeapPageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            byte[] pageBuf = new byte[BufferPool.getPageSize()];
-            if (bis.skip((long) id.getPageNumber() * BufferPool.getPageSize()) != (long) id
-                    .getPageNumber() * BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(
-                        "Unable to seek to correct place in heapfile");
-            }
-            int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-            if (retval == -1) {
-                throw new IllegalArgumentException("Read past end of table");
-            }
-            if (retval < BufferPool.getPageSize()) {
-                throw new IllegalArgumentException("Unable to read "
-                        + BufferPool.getPageSize() + " bytes from heapfile");
+        try {
+            ByteBuffer bb = frame.duplicate().clear();
+            FileChannel ch = channel();
+            long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+            while (bb.hasRemaining()) {
+                int retval = ch.read(bb, offset + bb.position());
+                if (retval == -1) {
+                    if (bb.position() == 0) {
+                        throw new IllegalArgumentException("Read past end of table");
+                    }
+                    throw new IllegalArgumentException("Unable to read "
+                            + BufferPool.getPageSize() + " bytes from heapfile");
+                }
             }
             Debug.log(1, "HeapFile.readPage: read page %d", id.getPageNumber());
-            return new HeapPage(id, pageBuf);
+            return trackFreeSpace(HeapPage.wrap(id, frame));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(f.getAbsoluteFile(), "rw");
+        // a HeapPage's bytes can be written without copying them first
+        ByteBuffer bb = page instanceof HeapPage
+                ? ((HeapPage) page).pageData() : ByteBuffer.wrap(page.getPageData());
+        FileChannel ch = channel();
+        long offset = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+        int pgno = page.getId().getPageNumber();
+        pageCount(); // the file length has to be taken before it grows
+        td.forceDictionaries();
+        ZoneMap zm = zoneMap;
+        if (zm != null && page instanceof HeapPage) {
+            // the ranges have to match what is written, so no insert or
+            // delete may come in between
+            synchronized (page) {
+                write(ch, bb, offset);
+                zm.record((HeapPage) page);
+            }
+            zm.save();
+        } else {
+            write(ch, bb, offset);
+        }
+        pageCount.accumulateAndGet(pgno + 1, Math::max);
+        if (page instanceof HeapPage) {
+            trackFreeSpace((HeapPage) page);
+        }
+    }
+
+    /**
+     * Writes the pages sorted by page number, each run of consecutive pages
+     * with a single gathering write. HeapPages are written from their own
+     * bytes without copying them, as by writePage, and the zone map, if
+     * loaded, is saved once after all the writes.
+     */
+    @Override
+    public void writePages(List<Page> pages) throws IOException {
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        FileChannel ch = channel();
+        pageCount(); // the file length has to be taken before it grows
+        td.forceDictionaries();
+        ZoneMap zm = zoneMap;
+        int start = 0;
+        while (start < sorted.size()) {
+            int end = start + 1;
+            while (end < sorted.size() && sorted.get(end).getId().getPageNumber()
+                    == sorted.get(end - 1).getId().getPageNumber() + 1) {
+                end++;
+            }
+            ByteBuffer[] run = new ByteBuffer[end - start];
+            for (int i = start; i < end; i++) {
+                Page page = sorted.get(i);
+                if (!(page instanceof HeapPage)) {
+                    run[i - start] = ByteBuffer.wrap(page.getPageData());
+                } else if (zm != null) {
+                    // the ranges have to match what is written, so take both
+                    // without an insert or delete in between
+                    synchronized (page) {
+                        run[i - start] = ((HeapPage) page).pageData();
+                        zm.record((HeapPage) page);
+                    }
+                } else {
+                    run[i - start] = ((HeapPage) page).pageData();
+                }
+            }
+            long offset = (long) sorted.get(start).getId().getPageNumber() * BufferPool.getPageSize();
+            // positional writes elsewhere leave the position alone, so only
+            // gathering writes need to hold the channel
+            synchronized (ch) {
+                ch.position(offset);
+                while (run[run.length - 1].hasRemaining()) {
+                    ch.write(run);
+                }
+            }
+            Debug.log(1, "HeapFile.writePages: wrote pages %d to %d",
+                    sorted.get(start).getId().getPageNumber(), sorted.get(end - 1).getId().getPageNumber());
+            start = end;
+        }
+        if (zm != null) {
+            zm.save();
+        }
+        for (Page page : sorted) {
+            int pgno = page.getId().getPageNumber();
+            pageCount.accumulateAndGet(pgno + 1, Math::max);
+            if (page instanceof HeapPage) {
+                trackFreeSpace((HeapPage) page);
+            }
+        }
+    }
+
+    private static void write(FileChannel ch, ByteBuffer bb, long offset) throws IOException {
+        while (bb.hasRemaining()) {
+            ch.write(bb, offset + bb.position());
+        }
+    }
+
+    /**
+     * Returns the zone map of this file, loading it from its sidecar file or
+     * building it from the pages on disk the first time it is needed.
+     *
+     * @see ZoneMap
+     */
+    ZoneMap zoneMap() {
+        ZoneMap zm = zoneMap;
+        if (zm != null) {
+            return zm;
+        }
+        synchronized (this) {
+            if (zoneMap == null) {
+                try {
+                    zm = ZoneMap.open(f, td, channel());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                // the map has been built from the pages on disk, which may
+                // lack tuples inserted in the buffer pool
+                zm.forget(unrecorded);
+                unrecorded.clear();
+                zoneMap = zm;
+            }
+            return zoneMap;
+        }
+    }
+
+    /**
+     * Called when a tuple has been inserted into one of the pages of this
+     * file, so that the zone map, if loaded, covers the tuple.
+     */
+    private void tupleInserted(int pgno, Tuple t) {
+        ZoneMap zm = zoneMap;
+        if (zm == null) {
+            synchronized (this) {
+                zm = zoneMap;
+                if (zm == null) {
+                    unrecorded.set(pgno);
+                    return;
+                }
+            }
+        }
+        zm.inserted(pgno, t);
+    }
+
+    /**
+     * Called with every page read from or written to disk, and with every
+     * page a tuple is inserted into or deleted from, if the free space map
+     * is loaded; a map built later reads the pages on disk. A page is only
+     * read when it is not in the buffer pool, and only written when its
+     * changes are to become permanent, so the free space it has on disk is
+     * current; this also corrects the free space map after an abort threw
+     * away changes.
+     */
+    HeapPage trackFreeSpace(HeapPage page) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null) {
+            fsm.update(page.getId().getPageNumber(), page.getNumUnusedSlots() > 0);
+        }
+        return page;
+    }
+
+    /**
+     * Returns the free space map of this file, building it from the headers
+     * of its pages on disk the first time it is needed.
+     */
+    FreeSpaceMap freeSpaceMap() {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null) {
+            return fsm;
+        }
+        synchronized (this) {
+            if (freeSpace == null) {
+                try {
+                    freeSpace = loadFreeSpaceMap();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return freeSpace;
+        }
+    }
+
+    /**
+     * Reads the header of every page in the file and records which pages
+     * have an empty slot. The header layout is described in the HeapPage
+     * constructor.
+     */
+    private FreeSpaceMap loadFreeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = new FreeSpaceMap();
+        int pageSize = BufferPool.getPageSize();
+        int numSlots = tuplesPerPage();
+        ByteBuffer header = ByteBuffer.allocate((numSlots + 7) / 8);
+        int n = pageCount();
+        FileChannel ch = n == 0 ? null : channel();
+        for (int pgno = 0; pgno < n; pgno++) {
+            header.clear();
+            long offset = (long) pgno * pageSize;
+            while (header.hasRemaining()) {
+                if (ch.read(header, offset + header.position()) < 0) {
+                    break;
+                }
+            }
+            boolean hasRoom = header.hasRemaining(); // short page: treat as having room
+            for (int i = 0; i < numSlots && !hasRoom; i++) {
+                hasRoom = (header.get(i / 8) & (1 << (i % 8))) == 0;
+            }
+            fsm.update(pgno, hasRoom);
+        }
+        return fsm;
+    }
 
-        int offset = page.getId().getPageNumber() * BufferPool.getPageSize();
-        raf.seek(offset);
-        raf.write(page.getPageData());
-        raf.close();
+    /**
+     * Returns the number of tuple slots on a page of this file (see the
+     * HeapPage constructor).
+     */
+    private int tuplesPerPage() {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. This checks the length of
+     * the file, so pages appended to it by other means are counted too. The
+     * length is taken under the file's monitor, as vacuum truncates the file
+     * and lowers the count under it; a length taken before a truncation
+     * would otherwise raise the count past the end of the file again.
      */
-    public int numPages() {
-        return (int) (f.length() / BufferPool.getPageSize());
+    public synchronized int numPages() {
+        int n = (int) (f.length() / BufferPool.getPageSize());
+        return pageCount.accumulateAndGet(n, Math::max);
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile without asking the file
+     * system. The count is taken from the file length the first time, and
+     * after that only goes up, once a page written past the end is on disk;
+     * a reader that sees the new count can therefore read the new page.
+     * Scans and inserts use this rather than {@link #numPages}.
+     */
+    int pageCount() {
+        int n = pageCount.get();
+        if (n < 0) {
+            pageCount.compareAndSet(-1, (int) (f.length() / BufferPool.getPageSize()));
+            n = pageCount.get();
+        }
+        return n;
     }
 
     // see DbFile.java for javadocs
@@ -129,27 +422,175 @@ public class HeapFile implements DbFile {
 
         ArrayList<Page> affectedPages = new ArrayList<Page>();
 
-        // Find a page with an empty slot
-        for (int i = 0; i < this.numPages(); i++) {
+        // Go to the pages the free space map names. It may be out of date, so
+        // a page that turns out to be full is recorded as such, and its lock
+        // is given back unless tid held it already
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        for (int i = fsm.nextCandidate(0); i < pageCount(); i = fsm.nextCandidate(i + 1)) {
             HeapPageId pageId = new HeapPageId(this.getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+            boolean held = bp.holdsLock(tid, pageId);
+            bp.lockPage(tid, pageId, Permissions.READ_WRITE);
+            if (i >= pageCount()) {
+                // truncated by vacuum while we were waiting for the lock
+                if (!held) {
+                    bp.unsafeReleasePage(tid, pageId);
+                }
+                break;
+            }
+            if (appending.contains(i)) {
+                // reserved by appendPages, which will overwrite it
+                if (!held) {
+                    bp.unsafeReleasePage(tid, pageId);
+                }
+                continue;
+            }
+            HeapPage page = (HeapPage) bp.pinPage(tid, pageId, Permissions.READ_WRITE);
             if (page.getNumUnusedSlots() != 0) {
-                page.insertTuple(t);
-                affectedPages.add(page);
+                affectedPages.add(inserted(tid, page, t));
                 return affectedPages;
             }
+            fsm.update(i, false);
+            bp.unpinPage(tid, pageId);
+            if (!held) {
+                bp.unsafeReleasePage(tid, pageId);
+            }
         }
 
-        HeapPageId newPageID = new HeapPageId(this.getId(), this.numPages());
-        HeapPage newHeapPage = new HeapPage(newPageID, HeapPage.createEmptyPageData());
-        this.writePage(newHeapPage);
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, newPageID,
-                Permissions.READ_WRITE);
-        page.insertTuple(t);
-        affectedPages.add(page);
+        HeapPageId newPageID;
+        synchronized (this) {
+            newPageID = new HeapPageId(this.getId(), pageCount());
+            this.writePage(new HeapPage(newPageID, HeapPage.createEmptyPageData()));
+        }
+        HeapPage page = (HeapPage) bp.pinPage(tid, newPageID, Permissions.READ_WRITE);
+        affectedPages.add(inserted(tid, page, t));
         return affectedPages;
     }
 
+    /**
+     * Inserts the tuple into the pinned page, and brings the free space map
+     * and zone map, if loaded, up to date with it. The page is then marked
+     * dirty, which keeps it in the pool, and unpinned.
+     */
+    private HeapPage inserted(TransactionId tid, HeapPage page, Tuple t) throws DbException {
+        page.insertTuple(t);
+        trackFreeSpace(page);
+        tupleInserted(page.getId().getPageNumber(), t);
+        page.markDirty(true, tid);
+        Database.getBufferPool().unpinPage(tid, page.getId());
+        return page;
+    }
+
+    /**
+     * Inserts the tuples of the specified iterator. As long as there are
+     * enough tuples left to fill whole pages, pages are filled in memory and
+     * appended to the end of the file, up to {@value #APPEND_BATCH_PAGES} of
+     * them with a single write, after logging an update record for each. The
+     * remaining tuples go through {@link #insertTuple}.
+     * <p>
+     * Appended pages are locked exclusively by tid and written to disk
+     * before tid commits; the buffer pool writes their before images (empty
+     * pages) back if tid aborts. They are not brought into the pool.
+     *
+     * @see DbFile#insertTuples
+     */
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        int perPage = tuplesPerPage();
+        List<Tuple> pending = new ArrayList<>();
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (!td.equals(t.getTupleDesc())) {
+                throw new DbException("TupleDesc mismatch!");
+            }
+            pending.add(t);
+            if (pending.size() == APPEND_BATCH_PAGES * perPage) {
+                appendPages(tid, pending, APPEND_BATCH_PAGES);
+                pending.clear();
+            }
+        }
+        int fullPages = pending.size() / perPage;
+        appendPages(tid, pending, fullPages);
+        return DbFile.super.insertTuples(tid, pending.subList(fullPages * perPage, pending.size()).iterator());
+    }
+
+    /**
+     * Appends numPages pages filled with the first tuples of the list to the
+     * end of the file.
+     * <p>
+     * The page numbers are reserved under the file's monitor, by extending
+     * the file so that the reserved pages read as empty until they are
+     * written. Locking, logging and writing the pages happen outside it.
+     * Inserts skip reserved pages, and vacuum does not truncate while there
+     * are any.
+     */
+    private void appendPages(TransactionId tid, List<Tuple> tuples, int numPages)
+            throws DbException, IOException, TransactionAbortedException {
+        if (numPages == 0) {
+            return;
+        }
+        BufferPool bp = Database.getBufferPool();
+        int pageSize = BufferPool.getPageSize();
+        int perPage = tuplesPerPage();
+        FreeSpaceMap fsm = freeSpaceMap();
+        FileChannel ch = channel();
+        int first;
+        synchronized (this) {
+            first = pageCount();
+            for (int i = 0; i < numPages; i++) {
+                appending.add(first + i);
+                fsm.update(first + i, false);
+            }
+            // the pages in between read as zeros, i.e. empty, until written
+            write(ch, ByteBuffer.allocate(1), (long) (first + numPages) * pageSize - 1);
+            pageCount.accumulateAndGet(first + numPages, Math::max);
+        }
+
+        List<HeapPage> pages = new ArrayList<>(numPages);
+        boolean written = false;
+        try {
+            for (int i = 0; i < numPages; i++) {
+                HeapPageId pid = new HeapPageId(getId(), first + i);
+                bp.lockPage(tid, pid, Permissions.READ_WRITE);
+                HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+                for (Tuple t : tuples.subList(i * perPage, (i + 1) * perPage)) {
+                    page.insertTuple(t);
+                }
+                pages.add(page);
+            }
+
+            // write-ahead: the log records have to be on disk before the pages
+            ByteBuffer data = ByteBuffer.allocate(numPages * pageSize);
+            for (HeapPage page : pages) {
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                data.put(page.pageData());
+            }
+            Database.getLogFile().force();
+            td.forceDictionaries();
+            data.flip();
+            write(ch, data, (long) first * pageSize);
+            written = true;
+        } finally {
+            for (int i = 0; i < numPages; i++) {
+                if (!written) {
+                    fsm.update(first + i, true); // left empty
+                }
+                appending.remove(first + i);
+            }
+        }
+        ZoneMap zm = zoneMap;
+        for (HeapPage page : pages) {
+            trackFreeSpace(page);
+            if (zm != null) {
+                zm.record(page); // tid holds the page exclusively
+            }
+        }
+        if (zm != null) {
+            zm.save();
+        }
+        bp.pagesWritten(tid, pages);
+    }
+
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -157,17 +598,184 @@ public class HeapFile implements DbFile {
             throw new DbException("The tuple is not a number in this file!");
         } // Not sure about whether this statement checks it or not
           // What does it mean by tuple cannot be deleted?
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(),
+        HeapPage page = (HeapPage) Database.getBufferPool().pinPage(tid, t.getRecordId().getPageId(),
                 Permissions.READ_WRITE);
         page.deleteTuple(t);
+        trackFreeSpace(page);
+        page.markDirty(true, tid);
+        Database.getBufferPool().unpinPage(tid, page.getId());
         ArrayList<Page> affectedPages = new ArrayList<Page>();
         affectedPages.add(page);
         return affectedPages;
     }
 
+    /**
+     * Moves the tuples of the last pages of this file into the empty slots of
+     * earlier pages, and then truncates the pages at the end of the file that
+     * are left empty, e.g. after a large delete.
+     * <p>
+     * The tuples of each page, starting from the last one, are moved in a
+     * transaction of their own, as long as there is room for them on earlier
+     * pages: each is deleted and inserted again through the BufferPool, so
+     * that it gets a new RecordId and the indexes of the table follow it.
+     * The empty pages at the end are then locked exclusively and removed from
+     * the BufferPool and the file; scans and inserts lock a page before they
+     * check that it is still part of the file.
+     *
+     * @return the number of pages the file was truncated by
+     * @throws TransactionAbortedException if one of the transactions is
+     *                                     aborted, e.g. to break a deadlock;
+     *                                     the tuples moved before are kept
+     */
+    public int vacuum() throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        for (int pgno = pageCount() - 1; pgno > 0 && fsm.nextCandidate(0) < pgno; pgno--) {
+            TransactionId tid = new TransactionId();
+            boolean moved;
+            try {
+                moved = compactPage(tid, pgno);
+            } catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+                bp.transactionComplete(tid, false);
+                throw e;
+            }
+            bp.transactionComplete(tid);
+            if (!moved) {
+                break;
+            }
+        }
+        return truncate();
+    }
+
+    /**
+     * Moves the tuples on the specified page to earlier pages, for as long as
+     * they have room.
+     *
+     * @return false if some tuples could not be moved
+     */
+    private boolean compactPage(TransactionId tid, int pgno)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(getId(), pgno), Permissions.READ_WRITE);
+        List<Tuple> tuples = new ArrayList<>();
+        page.iterator().forEachRemaining(tuples::add);
+        for (Tuple t : tuples) {
+            if (!hasRoomBefore(tid, pgno)) {
+                return false;
+            }
+            bp.deleteTuple(tid, t);
+            bp.insertTuple(tid, getId(), t);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a page before the specified one has an empty slot,
+     *         according to the free space map, which is corrected where it
+     *         is found to be wrong
+     */
+    private boolean hasRoomBefore(TransactionId tid, int pgno)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        for (int i = fsm.nextCandidate(0); i < pgno; i = fsm.nextCandidate(i + 1)) {
+            HeapPageId pageId = new HeapPageId(getId(), i);
+            boolean held = bp.holdsLock(tid, pageId);
+            HeapPage page = (HeapPage) bp.getPage(tid, pageId, Permissions.READ_ONLY);
+            if (page.getNumUnusedSlots() != 0) {
+                return true;
+            }
+            fsm.update(i, false);
+            if (!held) {
+                bp.unsafeReleasePage(tid, pageId);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the empty pages at the end of the file, unless the file grows
+     * while they are being locked.
+     *
+     * @return the number of pages removed
+     */
+    private int truncate() throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        try {
+            int n = pageCount();
+            int keep = n;
+            while (keep > 0) {
+                HeapPageId pid = new HeapPageId(getId(), keep - 1);
+                HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                if (page.getNumUnusedSlots() != tuplesPerPage()) {
+                    break;
+                }
+                keep--;
+            }
+            if (keep == n) {
+                return 0;
+            }
+            synchronized (this) {
+                if (pageCount() != n || !appending.isEmpty()) {
+                    return 0; // pages were appended meanwhile
+                }
+                for (int pgno = keep; pgno < n; pgno++) {
+                    bp.removePage(new HeapPageId(getId(), pgno));
+                }
+                channel().truncate((long) keep * BufferPool.getPageSize());
+                pageCount.set(keep);
+                truncated();
+            }
+            Debug.log(1, "HeapFile.vacuum: removed %d of %d pages", n - keep, n);
+            return n - keep;
+        } finally {
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Called by vacuum after the file has been truncated to
+     * {@link #pageCount} pages.
+     */
+    void truncated() {
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, 0, List.of());
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this HeapFile that,
+     * while it is on a page, asks the BufferPool to read the next readAhead
+     * pages in the background.
+     *
+     * @param readAhead number of pages to read ahead; 0 disables read-ahead
+     * @see BufferPool#prefetchPage
+     */
+    public DbFileIterator iterator(TransactionId tid, int readAhead) {
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("readAhead must not be negative");
+        }
+        return iterator(tid, readAhead, List.of());
+    }
+
+    /**
+     * Like {@link #iterator(TransactionId, int)}, but skips the pages on
+     * which, according to the zone map of this file, no tuple satisfies all
+     * of the specified predicates. Tuples that do not satisfy them are still
+     * returned from the pages that are read; the predicates only serve to
+     * avoid reading pages.
+     *
+     * @param predicates predicates on fields of this file's TupleDesc
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, int readAhead, List<Predicate> predicates) {
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("readAhead must not be negative");
+        }
+        return new HeapFileIterator(this, tid, readAhead, List.copyOf(predicates));
     }
 
 }
@@ -179,32 +787,64 @@ class HeapFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     int curpgno = 0;
+    HeapPageId pinned; // the page it iterates over, unless it is in the ring
+    int prefetched = 0; // last page number read ahead
 
     final TransactionId tid;
     final HeapFile hf;
+    final int readAhead;
+    final List<Predicate> predicates; // pages that cannot match are skipped
+    ScanRing ring; // set while scanning a file larger than the buffer pool
+    ZoneMap zoneMap; // set while open if there are predicates
 
-    public HeapFileIterator(HeapFile hf, TransactionId tid) {
+    public HeapFileIterator(HeapFile hf, TransactionId tid, int readAhead, List<Predicate> predicates) {
         this.hf = hf;
         this.tid = tid;
+        this.readAhead = readAhead;
+        this.predicates = predicates;
     }
 
     public void open() {
         curpgno = -1;
+        prefetched = -1;
+        ring = hf.pageCount() > Database.getBufferPool().getCapacity()
+                ? new ScanRing(ScanRing.DEFAULT_PAGES) : null;
+        zoneMap = predicates.isEmpty() ? null : hf.zoneMap();
+    }
+
+    private boolean skip(int pgno) {
+        return zoneMap != null && !zoneMap.mayMatch(pgno, predicates);
     }
 
     @Override
     protected Tuple readNext() throws TransactionAbortedException, DbException {
-        if (it != null && !it.hasNext())
+        if (it != null && !it.hasNext()) {
             it = null;
+            unpin();
+        }
 
-        while (it == null && curpgno < hf.numPages() - 1) {
+        while (it == null && curpgno < hf.pageCount() - 1) {
             curpgno++;
+            if (skip(curpgno))
+                continue;
+            readAhead();
             HeapPageId curpid = new HeapPageId(hf.getId(), curpgno);
-            HeapPage curp = (HeapPage) Database.getBufferPool().getPage(tid,
-                    curpid, Permissions.READ_ONLY);
+            // lock the page first, since vacuum may have truncated it away
+            Database.getBufferPool().lockPage(tid, curpid, Permissions.READ_ONLY);
+            if (curpgno >= hf.pageCount())
+                break;
+            HeapPage curp;
+            if (ring == null) {
+                curp = (HeapPage) Database.getBufferPool().pinPage(tid, curpid, Permissions.READ_ONLY);
+                pinned = curpid;
+            } else {
+                curp = (HeapPage) Database.getBufferPool().getPage(tid, curpid, Permissions.READ_ONLY, ring);
+            }
             it = curp.iterator();
-            if (!it.hasNext())
+            if (!it.hasNext()) {
                 it = null;
+                unpin();
+            }
         }
 
         if (it == null)
@@ -212,6 +852,32 @@ class HeapFileIterator extends AbstractDbFileIterator {
         return it.next();
     }
 
+    private void unpin() {
+        if (pinned != null) {
+            Database.getBufferPool().unpinPage(tid, pinned);
+            pinned = null;
+        }
+    }
+
+    /**
+     * Asks for the pages up to readAhead pages past the current one to be
+     * read in the background, skipping those that were asked for before.
+     * Scans through a ring do not read ahead, since that would bring their
+     * pages into the pool.
+     */
+    private void readAhead() {
+        if (readAhead == 0 || ring != null) {
+            return;
+        }
+        int last = Math.min(curpgno + readAhead, hf.pageCount() - 1);
+        prefetched = Math.max(prefetched, curpgno);
+        while (prefetched < last) {
+            prefetched++;
+            if (!skip(prefetched))
+                Database.getBufferPool().prefetchPage(new HeapPageId(hf.getId(), prefetched));
+        }
+    }
+
     public void rewind() {
         close();
         open();
@@ -220,6 +886,9 @@ class HeapFileIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        unpin();
+        ring = null;
+        zoneMap = null;
         curpgno = Integer.MAX_VALUE;
     }
 }
@@ -1,11 +1,14 @@
 package simpledb.storage;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -13,6 +16,9 @@ import java.util.List;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * The convertSlotted methods write the pages of a SlottedHeapFile instead.
+ * {@link HeapFileLoader} converts text files in parallel.
  */
 
 public class HeapFileEncoder {
@@ -34,26 +40,31 @@ public class HeapFileEncoder {
      * @see HeapFile
      */
     public static void convert(List<List<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
-        File tempInput = File.createTempFile("tempTable", ".txt");
-        tempInput.deleteOnExit();
-        BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
-        for (List<Integer> tuple : tuples) {
-            int writtenFields = 0;
-            for (Integer field : tuple) {
-                writtenFields++;
-                if (writtenFields > numFields) {
-                    throw new RuntimeException("Tuple has more than " + numFields + " fields: (" +
-                            Utility.listToString(tuple) + ")");
+        int nrecords = (npagebytes * 8) / (numFields * Type.INT_TYPE.getLen() * 8 + 1);
+        int nheaderbytes = (nrecords + 7) / 8;
+        int npages = Math.max(1, (tuples.size() + nrecords - 1) / nrecords);
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)))) {
+            for (int p = 0; p < npages; p++) {
+                List<List<Integer>> page = tuples.subList(Math.min(tuples.size(), p * nrecords),
+                        Math.min(tuples.size(), (p + 1) * nrecords));
+                // a 1 bit for each tuple on the page, a 0 bit for each empty slot
+                for (int i = 0; i < nheaderbytes; i++) {
+                    int bits = Math.max(0, Math.min(8, page.size() - 8 * i));
+                    os.writeByte((1 << bits) - 1);
                 }
-                bw.write(String.valueOf(field));
-                if (writtenFields < numFields) {
-                    bw.write(',');
+                for (List<Integer> tuple : page) {
+                    if (tuple.size() != numFields) {
+                        throw new RuntimeException("Tuple does not have " + numFields + " fields: (" +
+                                Utility.listToString(tuple) + ")");
+                    }
+                    for (Integer field : tuple) {
+                        os.writeInt(field);
+                    }
                 }
+                // pad the rest of the page with zeroes
+                os.write(new byte[npagebytes - nheaderbytes - page.size() * numFields * Type.INT_TYPE.getLen()]);
             }
-            bw.write('\n');
         }
-        bw.close();
-        convert(tempInput, outFile, npagebytes, numFields);
     }
 
     public static void convert(File inFile, File outFile, int npagebytes,
@@ -225,4 +236,112 @@ public class HeapFileEncoder {
         br.close();
         os.close();
     }
+
+    /**
+     * Convert the specified tuple list (with only integer fields) into a
+     * file of SlottedPages of {@link BufferPool#getPageSize()} bytes.
+     *
+     * @param tuples    the tuples, each represented by a list of integers
+     * @param outFile   The output file to write data to
+     * @param numFields the number of fields in each input tuple
+     * @throws IOException if the output file can't be written
+     * @see SlottedPage
+     * @see SlottedHeapFile
+     */
+    public static void convertSlotted(List<List<Integer>> tuples, File outFile, int numFields)
+            throws IOException {
+        Type[] ts = new Type[numFields];
+        Arrays.fill(ts, Type.INT_TYPE);
+        TupleDesc td = new TupleDesc(ts);
+        List<Tuple> converted = new ArrayList<>(tuples.size());
+        for (List<Integer> tuple : tuples) {
+            if (tuple.size() != numFields) {
+                throw new RuntimeException("Tuple does not have " + numFields + " fields: (" +
+                        Utility.listToString(tuple) + ")");
+            }
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < numFields; i++) {
+                t.setField(i, new IntField(tuple.get(i)));
+            }
+            converted.add(t);
+        }
+        writeSlotted(converted, td, outFile);
+    }
+
+    /**
+     * Convert the specified input text file, in the format described at
+     * {@link #convert(File, File, int, int, Type[], char)}, into a file of
+     * SlottedPages of {@link BufferPool#getPageSize()} bytes. Every page is
+     * filled with as many tuples as fit on it.
+     *
+     * @param inFile         The input file to read data from
+     * @param outFile        The output file to write data to
+     * @param typeAr         the types of the fields of each line
+     * @param fieldSeparator the character between the fields of a line
+     * @throws IOException if the input/output file can't be opened or a
+     *                     malformed input line is encountered
+     * @see SlottedPage
+     * @see SlottedHeapFile
+     */
+    public static void convertSlotted(File inFile, File outFile, Type[] typeAr, char fieldSeparator)
+            throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        List<Tuple> tuples = new ArrayList<>();
+        Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+        try (BufferedReader br = new BufferedReader(new FileReader(inFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] values = separator.split(line, -1);
+                if (values.length != typeAr.length) {
+                    throw new IOException("BAD LINE : " + line);
+                }
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < typeAr.length; i++) {
+                    String s = values[i].trim();
+                    if (typeAr[i] == Type.INT_TYPE) {
+                        try {
+                            t.setField(i, new IntField(Integer.parseInt(s)));
+                        } catch (NumberFormatException e) {
+                            throw new IOException("BAD LINE : " + line);
+                        }
+                    } else {
+                        t.setField(i, new StringField(s, Type.STRING_LEN));
+                    }
+                }
+                tuples.add(t);
+            }
+        }
+        writeSlotted(tuples, td, outFile);
+    }
+
+    /**
+     * Write the tuples to outFile on as few SlottedPages as they fit on, in
+     * order. An empty list still produces one empty page.
+     */
+    private static void writeSlotted(List<Tuple> tuples, TupleDesc td, File outFile) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile))) {
+            int pgno = 0;
+            SlottedPage page = new SlottedPage(new HeapPageId(0, pgno), td, SlottedPage.createEmptyPageData());
+            boolean empty = true;
+            for (Tuple t : tuples) {
+                if (!page.canInsert(t)) {
+                    if (empty) {
+                        throw new IOException("tuple does not fit on a page: " + t);
+                    }
+                    os.write(page.getPageData());
+                    page = new SlottedPage(new HeapPageId(0, ++pgno), td, SlottedPage.createEmptyPageData());
+                }
+                try {
+                    page.insertTuple(t);
+                } catch (DbException e) {
+                    throw new IOException(e);
+                }
+                empty = false;
+            }
+            os.write(page.getPageData());
+        }
+    }
 }
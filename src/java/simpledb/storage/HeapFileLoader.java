@@ -0,0 +1,397 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * HeapFileLoader converts a delimited text file into a HeapFile like
+ * {@link HeapFileEncoder#convert(File, File, int, int, Type[], char)}, and
+ * writes the same bytes for well-formed input, but parses and encodes the
+ * input in parallel.
+ * <p>
+ * The input is split into chunks of about the same number of bytes, each
+ * ending at the end of a line. The chunks are read twice on a fork-join
+ * pool: first to count the tuples in each, which tells where on which page
+ * every tuple of a chunk goes, and then to encode them. Every chunk writes
+ * its own tuples, and the headers and padding of the pages it starts and
+ * finishes, to their place in the output file with positional writes, so
+ * the chunks need not be written in order.
+ * <p>
+ * Unlike HeapFileEncoder, the loader rejects lines with the wrong number of
+ * fields or malformed integers, and reads the input as ISO-8859-1, which is
+ * what HeapFileEncoder writes for ASCII input.
+ */
+public class HeapFileLoader {
+
+    /**
+     * Number of input bytes per chunk by default.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 1 << 22;
+
+    /**
+     * Number of pages of output a chunk encodes before writing them out.
+     */
+    private static final int OUTPUT_PAGES = 64;
+
+    private final Type[] typeAr;
+    private final byte separator;
+    private final int npagebytes;
+    private final int nrecbytes;
+    private final int nrecords; // tuples per page
+    private final int nheaderbytes;
+    private final byte[] zeros;
+
+    private long numRecords; // in the whole input, once counted
+
+    private HeapFileLoader(int npagebytes, Type[] typeAr, char fieldSeparator) {
+        if (fieldSeparator > 0xff) {
+            throw new IllegalArgumentException("field separator is not a single byte: " + fieldSeparator);
+        }
+        this.typeAr = typeAr;
+        this.separator = (byte) fieldSeparator;
+        this.npagebytes = npagebytes;
+        int size = 0;
+        for (Type t : typeAr) {
+            size += t.getLen();
+        }
+        this.nrecbytes = size;
+        this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+        this.nheaderbytes = (nrecords + 7) / 8;
+        this.zeros = new byte[npagebytes];
+    }
+
+    /**
+     * Convert the specified input text file into a binary page file, using
+     * the common fork-join pool and chunks of {@value #DEFAULT_CHUNK_BYTES}
+     * bytes.
+     *
+     * @see #load(File, File, int, Type[], char, int, ForkJoinPool)
+     */
+    public static void load(File inFile, File outFile, int npagebytes, Type[] typeAr, char fieldSeparator)
+            throws IOException {
+        load(inFile, outFile, npagebytes, typeAr, fieldSeparator, DEFAULT_CHUNK_BYTES, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Convert the specified input text file, in the format described at
+     * {@link HeapFileEncoder#convert(File, File, int, int, Type[], char)},
+     * into a binary page file in the format specified in HeapPage and
+     * HeapFile.
+     *
+     * @param inFile         The input file to read data from
+     * @param outFile        The output file to write data to; it is
+     *                       overwritten if it exists
+     * @param npagebytes     The number of bytes per page in the output file
+     * @param typeAr         the types of the fields of each line
+     * @param fieldSeparator the character between the fields of a line
+     * @param chunkBytes     the number of input bytes to parse in one task
+     * @param pool           the pool to run the tasks on
+     * @throws IOException if the input/output file can't be opened or a
+     *                     malformed input line is encountered
+     */
+    public static void load(File inFile, File outFile, int npagebytes, Type[] typeAr, char fieldSeparator,
+                            int chunkBytes, ForkJoinPool pool) throws IOException {
+        HeapFileLoader loader = new HeapFileLoader(npagebytes, typeAr, fieldSeparator);
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long[] bounds = loader.split(in, chunkBytes);
+            int n = bounds.length - 1;
+
+            List<Callable<Long>> counts = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                long from = bounds[i];
+                long to = bounds[i + 1];
+                counts.add(() -> loader.count(read(in, from, to)));
+            }
+            long[] first = new long[n + 1]; // number of the first tuple of each chunk
+            List<Long> counted = invokeAll(pool, counts);
+            for (int i = 0; i < n; i++) {
+                first[i + 1] = first[i] + counted.get(i);
+            }
+            loader.numRecords = first[n];
+
+            if (loader.numRecords == 0) {
+                // an empty input still gets an empty page
+                write(out, ByteBuffer.wrap(loader.zeros), 0);
+                return;
+            }
+            List<Callable<Long>> encodes = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                long from = bounds[i];
+                long to = bounds[i + 1];
+                long record = first[i];
+                if (first[i + 1] > record) {
+                    encodes.add(() -> loader.encode(read(in, from, to), record, out));
+                }
+            }
+            invokeAll(pool, encodes);
+        }
+    }
+
+    /**
+     * Splits the input into chunks of about chunkBytes bytes that end at the
+     * end of a line (or of the input).
+     *
+     * @return the offsets where the chunks start, followed by the length of
+     *         the input
+     */
+    private long[] split(FileChannel in, int chunkBytes) throws IOException {
+        long length = in.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer bb = ByteBuffer.allocate(4096);
+        long offset = chunkBytes;
+        while (offset < length) {
+            long end = -1;
+            while (end == -1 && offset < length) {
+                bb.clear();
+                int read = in.read(bb, offset);
+                for (int i = 0; i < read && end == -1; i++) {
+                    if (bb.get(i) == '\n') {
+                        end = offset + i + 1;
+                    }
+                }
+                offset += Math.max(read, 0);
+            }
+            if (end == -1 || end >= length) {
+                break;
+            }
+            bounds.add(end);
+            offset = end + chunkBytes;
+        }
+        bounds.add(length);
+        long[] out = new long[bounds.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = bounds.get(i);
+        }
+        return out;
+    }
+
+    private static byte[] read(FileChannel in, long from, long to) throws IOException {
+        byte[] data = new byte[(int) (to - from)];
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        while (bb.hasRemaining()) {
+            if (in.read(bb, from + bb.position()) < 0) {
+                throw new IOException("input file shrank while it was loaded");
+            }
+        }
+        return data;
+    }
+
+    private static void write(FileChannel out, ByteBuffer bb, long offset) throws IOException {
+        while (bb.hasRemaining()) {
+            out.write(bb, offset + bb.position());
+        }
+    }
+
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> f : pool.invokeAll(tasks)) {
+                results.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while loading");
+        } catch (ExecutionException e) {
+            // the pool may wrap what a task threw in a RuntimeException
+            for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+                if (t instanceof IOException) {
+                    throw (IOException) t;
+                }
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        return results;
+    }
+
+    /**
+     * @return the end of the line starting at the specified offset: the
+     *         offset of its newline, or the end of the data
+     */
+    private static int lineEnd(byte[] data, int from) {
+        int i = from;
+        while (i < data.length && data[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Lines with nothing but carriage returns on them hold no tuple, as in
+     * HeapFileEncoder.
+     */
+    private static boolean isBlank(byte[] data, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (data[i] != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of tuples in the chunk
+     */
+    private long count(byte[] data) {
+        long n = 0;
+        for (int from = 0; from < data.length; ) {
+            int to = lineEnd(data, from);
+            if (!isBlank(data, from, to)) {
+                n++;
+            }
+            from = to + 1;
+        }
+        return n;
+    }
+
+    /**
+     * @return the offset in the output file of the slot of the specified
+     *         tuple
+     */
+    private long slotOffset(long record) {
+        return (record / nrecords) * npagebytes + nheaderbytes + (record % nrecords) * nrecbytes;
+    }
+
+    /**
+     * Encodes the tuples of the chunk, the first of which is the tuple with
+     * the specified number, and writes them to the output file.
+     *
+     * @return the number of tuples written
+     */
+    private long encode(byte[] data, long firstRecord, FileChannel out) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(OUTPUT_PAGES * npagebytes);
+        long record = firstRecord;
+        long start = record % nrecords == 0 ? (record / nrecords) * npagebytes : slotOffset(record);
+        for (int from = 0; from < data.length; ) {
+            int to = lineEnd(data, from);
+            if (!isBlank(data, from, to)) {
+                // whatever goes out for one tuple stays within one page
+                if (bb.remaining() < npagebytes) {
+                    bb.flip();
+                    write(out, bb, start);
+                    start += bb.limit();
+                    bb.clear();
+                }
+                int slot = (int) (record % nrecords);
+                boolean lastPage = record / nrecords == (numRecords - 1) / nrecords;
+                if (slot == 0) {
+                    putHeader(bb, lastPage ? (int) (numRecords - record) : nrecords);
+                }
+                putRecord(bb, data, from, to);
+                record++;
+                if (record == numRecords || slot == nrecords - 1) {
+                    // pad the rest of the page with zeroes
+                    long used = nheaderbytes + (long) (slot + 1) * nrecbytes;
+                    bb.put(zeros, 0, (int) (npagebytes - used));
+                }
+            }
+            from = to + 1;
+        }
+        bb.flip();
+        write(out, bb, start);
+        return record - firstRecord;
+    }
+
+    /**
+     * Puts the header of a page with the specified number of tuples on it:
+     * a 1 bit for each used slot and a 0 bit for each empty one.
+     */
+    private void putHeader(ByteBuffer bb, int used) {
+        for (int i = 0; i < nheaderbytes; i++) {
+            int bits = Math.max(0, Math.min(8, used - 8 * i));
+            bb.put((byte) ((1 << bits) - 1));
+        }
+    }
+
+    /**
+     * Parses the specified line and puts the fields of its tuple.
+     */
+    private void putRecord(ByteBuffer bb, byte[] data, int from, int to) throws IOException {
+        int field = 0;
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i < to && data[i] != separator) {
+                continue;
+            }
+            if (field == typeAr.length) {
+                throw badLine(data, from, to);
+            }
+            // trim as String.trim does
+            int s = start;
+            int e = i;
+            while (s < e && (data[s] & 0xff) <= ' ') {
+                s++;
+            }
+            while (e > s && (data[e - 1] & 0xff) <= ' ') {
+                e--;
+            }
+            if (typeAr[field] == Type.INT_TYPE) {
+                try {
+                    bb.putInt(parseInt(data, s, e));
+                } catch (NumberFormatException ex) {
+                    throw badLine(data, from, to);
+                }
+            } else {
+                int len = Math.min(e - s, Type.STRING_LEN);
+                bb.putInt(len);
+                bb.put(data, s, len);
+                bb.put(zeros, 0, Type.STRING_LEN - len);
+            }
+            field++;
+            start = i + 1;
+        }
+        if (field != typeAr.length) {
+            throw badLine(data, from, to);
+        }
+    }
+
+    private static IOException badLine(byte[] data, int from, int to) {
+        return new IOException("BAD LINE : " + new String(data, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Parses a decimal integer without creating a String for it, falling
+     * back to {@link Integer#parseInt} for anything other than an optional
+     * minus sign followed by at most 10 digits.
+     */
+    private static int parseInt(byte[] data, int from, int to) {
+        boolean negative = from < to && data[from] == '-';
+        int i = negative ? from + 1 : from;
+        long v = 0;
+        if (i < to && to - i <= 10) {
+            for (; i < to; i++) {
+                int d = data[i] - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                v = v * 10 + d;
+            }
+            if (i == to) {
+                v = negative ? -v : v;
+                if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+                    return (int) v;
+                }
+            }
+        }
+        return Integer.parseInt(new String(data, from, to - from, StandardCharsets.ISO_8859_1));
+    }
+}
@@ -1,10 +1,8 @@
 package simpledb.storage;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -17,6 +15,18 @@ import simpledb.transaction.TransactionId;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * While a page is resident in the BufferPool, its bytes live in the pool's
+ * off-heap frame for it, which they are read into straight from disk (see
+ * {@link HeapFile#readPage(PageId, ByteBuffer)} and {@link #attach});
+ * otherwise they are on the heap, or, for a {@link MappedHeapFile}, in a
+ * read-only view of the file mapping until the page is first modified. The
+ * page keeps no other per-tuple state: every tuple read from it
+ * gets its own copy of the tuple's bytes, and decodes its fields from that
+ * copy on demand. When the page leaves its frame, which may then be reused,
+ * its bytes are first copied back to the heap ({@link #detach}). Reads that
+ * raced with that copy notice that the bytes moved and are repeated, so that
+ * nothing read from a page comes from a reused frame.
  *
  * @see HeapFile
  * @see BufferPool
@@ -25,12 +35,28 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
+    /**
+     * The serialized page: the header bits followed by the tuple slots, at
+     * absolute positions starting at 0. insertTuple and deleteTuple update it
+     * in place, so it is always what getPageData returns. It is either a heap
+     * buffer, the frame the page occupies in the BufferPool, or a read-only
+     * view of a file mapping, which is copied to the heap before the first
+     * modification (see {@link #beforeWrite}); it is only
+     * replaced while holding this page's monitor, as are all changes to its
+     * contents.
+     */
+    private volatile ByteBuffer data;
+    final int headerSize;
     final int numSlots;
 
+    /**
+     * The bytes of the before image, or null while the page has not been
+     * modified since the before image was last set, in which case data is
+     * the before image. Copied on the first modification (see
+     * {@link #beforeWrite}).
+     */
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
 
     private TransactionId lastTransactionDirty;
 
@@ -54,28 +80,121 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the remaining bytes of a buffer, which may be a
+     * view of a memory-mapped file. Reading advances the buffer's position.
+     * <p>
+     * The page keeps a private copy of its bytes, taken with a single bulk
+     * get; the tuples are decoded from the copy as they are accessed, so
+     * neither the caller's buffer nor the array passed to
+     * {@link #HeapPage(HeapPageId, byte[])} is retained.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer buf) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), copy(buf));
+    }
+
+    private static ByteBuffer copy(ByteBuffer buf) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        buf.get(data, 0, Math.min(buf.remaining(), data.length));
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Create a HeapPage that keeps the specified buffer as its bytes, without
+     * copying them: a page-sized buffer positioned at the start of the page,
+     * such as the BufferPool frame the page was read into, or a read-only
+     * view of a file mapping.
+     */
+    private HeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
         this.lastTransactionDirty = null;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data;
+        this.headerSize = getHeaderSize();
+    }
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+    /**
+     * @see #HeapPage(HeapPageId, TupleDesc, ByteBuffer)
+     */
+    static HeapPage wrap(HeapPageId id, ByteBuffer data) {
+        return new HeapPage(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
 
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+    /**
+     * Move the bytes of this page into the specified frame, which the page
+     * then keeps them in until {@link #detach} is called. Nothing happens if
+     * the page was read into the frame in the first place, if the frame does
+     * not have the size of the page, or if the page is a view of a file
+     * mapping, which is cheaper to keep reading from.
+     *
+     * @return true if the page is now in the frame
+     */
+    synchronized boolean attach(ByteBuffer frame) {
+        ByteBuffer cur = data;
+        if (frame.capacity() != cur.capacity() || cur.isReadOnly()) {
+            return false;
         }
-        dis.close();
+        if (cur != frame) {
+            frame.duplicate().put(cur.duplicate().clear());
+            data = frame;
+        }
+        return true;
+    }
+
+    /**
+     * Move the bytes of this page out of the frame it is in, if any, back to
+     * the heap. Must be called before the frame is reused.
+     */
+    synchronized void detach() {
+        ByteBuffer cur = data;
+        if (cur.isDirect() && !cur.isReadOnly()) {
+            ByteBuffer heap = ByteBuffer.allocate(cur.capacity());
+            heap.put(cur.duplicate().clear());
+            data = heap;
+        }
+    }
+
+    /**
+     * Copy dst.length bytes starting at the specified offset of the page to
+     * dst.
+     */
+    private void copyBytes(int offset, byte[] dst) {
+        while (true) {
+            ByteBuffer buf = data;
+            ByteBuffer src = buf.duplicate();
+            src.position(offset);
+            src.get(dst);
+            if (unmoved(buf)) {
+                return;
+            }
+        }
+    }
 
-        setBeforeImage();
+    private byte headerByte(int i) {
+        while (true) {
+            ByteBuffer buf = data;
+            byte b = buf.get(i);
+            if (unmoved(buf)) {
+                return b;
+            }
+        }
+    }
+
+    /**
+     * Called after reading from buf, which was the value of data when the
+     * read started: if data is still the same, the read did not overlap with
+     * the bytes being moved out of a frame, which may have been reused since.
+     */
+    private boolean unmoved(ByteBuffer buf) {
+        // keep the reads of buf from being reordered after the check
+        VarHandle.loadLoadFence();
+        return buf == data;
     }
 
     /**
@@ -113,11 +232,11 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
+            // copy while holding the lock, so that data cannot start
+            // changing before it is copied
             synchronized (oldDataLock) {
-                oldDataRef = oldData;
+                return new HeapPage(pid, oldData == null ? getPageData() : oldData);
             }
-            return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             // should never happen -- we parsed it OK before!
@@ -128,49 +247,35 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = null; // the current bytes are the before image
         }
     }
 
     /**
-     * @return the PageId associated with this page.
-     */
-    public HeapPageId getId() {
-        return pid;
-    }
-
-    /**
-     * Suck up tuples from the source file.
+     * Called before the page bytes are modified, while holding the page's
+     * monitor: if they are a view of a file mapping, move them to the heap,
+     * and if they are still the before image, keep a copy of them as the
+     * before image first.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private void beforeWrite() {
+        ByteBuffer cur = data;
+        if (cur.isReadOnly()) {
+            ByteBuffer heap = ByteBuffer.allocate(cur.capacity());
+            heap.put(cur.duplicate().clear());
+            data = heap;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
     }
 
     /**
@@ -185,65 +290,19 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); // - numSlots *
-                                                                                                 // td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        byte[] out = new byte[BufferPool.getPageSize()];
+        copyBytes(0, out);
+        return out;
+    }
 
-        return baos.toByteArray();
+    /**
+     * Like {@link #getPageData}, but returns a view of the page's own bytes
+     * instead of a copy, for callers in this package that write a page out
+     * right away while no one can modify it or evict it (e.g. because it is
+     * dirty or pinned). The view must not be modified.
+     */
+    ByteBuffer pageData() {
+        return data.duplicate().clear();
     }
 
     /**
@@ -269,7 +328,7 @@ public class HeapPage implements Page {
      * @throws DbException if this tuple is not on this page, or tuple slot is
      *                     already empty.
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         if (t.getRecordId() == null) {
             throw new DbException("This tuple is already deleted.");
         }
@@ -281,8 +340,12 @@ public class HeapPage implements Page {
         if (!isSlotUsed(tupleNum)) {
             throw new DbException("This tuple slot is already empty.");
         }
+        beforeWrite();
         this.markSlotUsed(tupleNum, false);
-        tuples[tupleNum] = null;
+        int offset = headerSize + tupleNum * td.getSize();
+        for (int i = 0; i < td.getSize(); i++) {
+            data.put(offset + i, (byte) 0);
+        }
     }
 
     /**
@@ -293,7 +356,7 @@ public class HeapPage implements Page {
      * @throws DbException if the page is full (no empty slots) or tupledesc
      *                     is mismatch.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         if (this.getNumUnusedSlots() == 0) {
             throw new DbException("The page is full!");
         }
@@ -303,14 +366,20 @@ public class HeapPage implements Page {
 
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
+                beforeWrite();
+                try {
+                    t.serialize(td, data, headerSize + i * td.getSize());
+                } catch (IOException e) {
+                    throw new DbException("could not encode tuple: " + e.getMessage());
+                }
                 t.setRecordId(new RecordId(this.pid, i));
                 this.markSlotUsed(i, true);
-                this.tuples[i] = t;
                 return;
             }
         }
     }
 
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -335,11 +404,11 @@ public class HeapPage implements Page {
      * Returns the number of unused (i.e., empty) slots on this page.
      */
     public int getNumUnusedSlots() {
-        int cnt = 0;
-        for (int i = 0; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                cnt++;
-        return cnt;
+        int used = 0;
+        for (int i = 0; i < headerSize; i++) {
+            used += Integer.bitCount(headerByte(i) & 0xff);
+        }
+        return numSlots - used;
     }
 
     /**
@@ -348,7 +417,7 @@ public class HeapPage implements Page {
     public boolean isSlotUsed(int i) {
         int headerbit = i % 8;
         int headerbyte = (i - headerbit) / 8;
-        return (header[headerbyte] & (1 << headerbit)) != 0;
+        return (headerByte(headerbyte) & (1 << headerbit)) != 0;
     }
 
     /**
@@ -358,11 +427,13 @@ public class HeapPage implements Page {
         int headerbit = i % 8;
         int headerbyte = i / 8;
 
+        byte b = data.get(headerbyte);
         if (value) {
-            header[headerbyte] |= (1 << headerbit);
+            b |= (1 << headerbit);
         } else {
-            header[headerbyte] &= ~(1 << headerbit);
+            b &= ~(1 << headerbit);
         }
+        data.put(headerbyte, b);
     }
 
     /**
@@ -374,11 +445,15 @@ public class HeapPage implements Page {
         return new HeapPageIterator(this);
     }
 
-    // protected method used by the iterator to get the ith tuple
-    // out of this page
-    Tuple getTuple(int i) throws NoSuchElementException {
+    /**
+     * Returns the tuple in slot i of this page, e.g. to fetch a tuple by its
+     * RecordId, or null if the slot is empty.
+     *
+     * @throws NoSuchElementException if there is no slot i
+     */
+    public Tuple getTuple(int i) throws NoSuchElementException {
 
-        if (i >= tuples.length)
+        if (i >= numSlots)
             throw new NoSuchElementException();
 
         try {
@@ -389,7 +464,11 @@ public class HeapPage implements Page {
             }
 
             Debug.log(1, "HeapPage.getTuple: returning tuple %d", i);
-            return tuples[i];
+            byte[] bytes = new byte[td.getSize()];
+            copyBytes(headerSize + i * td.getSize(), bytes);
+            Tuple t = new Tuple(td, bytes);
+            t.setRecordId(new RecordId(pid, i));
+            return t;
 
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new NoSuchElementException();
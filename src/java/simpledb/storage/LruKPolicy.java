@@ -0,0 +1,113 @@
+package simpledb.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * LruKPolicy implements the LRU-K replacement policy (O'Neil et al.). The
+ * victim is the evictable frame whose K-th most recent access lies furthest
+ * in the past; frames that have been accessed fewer than K times are
+ * considered to have an infinite backward K-distance and are evicted first,
+ * oldest last access first. With K = 2 this keeps pages that are touched
+ * repeatedly in the pool even when a long scan passes over it.
+ * <p>
+ * The access history lives in a flat array with K slots per frame, so
+ * recording an access is constant time and allocates nothing. Choosing a
+ * victim is a single pass over the frames, so it is linear in the size of
+ * the partition the policy serves. This is deliberate: a heap ordered by
+ * backward K-distance would have to be reordered by pageAccessed, which runs
+ * without the partition latch and could then corrupt it instead of merely
+ * degrading the choice. The pass only happens on a miss into a full
+ * partition, which already costs a disk read; pools with large partitions
+ * should use {@link ClockPolicy}, whose victim search is amortized constant.
+ * <p>
+ * A page that is read ahead is loaded with an empty history, so until it is
+ * accessed it is older than any page that was. Frames accessed fewer than K
+ * times are cold.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    private final int k;
+    private final boolean[] occupied;
+    /**
+     * history[frame * k + i] is the logical time of the (i+1)-th most recent
+     * access to frame, or 0 if there have not been that many accesses
+     */
+    private final long[] history;
+    private long clock;
+
+    /**
+     * Create an LRU-K policy over the specified number of frames.
+     *
+     * @param numFrames the number of frames in the pool
+     * @param k         the number of accesses remembered per frame; must be
+     *                  at least 1 (LRU-1 is plain LRU)
+     */
+    public LruKPolicy(int numFrames, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.occupied = new boolean[numFrames];
+        this.history = new long[numFrames * k];
+        this.clock = 0;
+    }
+
+    /**
+     * Create an LRU-2 policy over the specified number of frames.
+     */
+    public LruKPolicy(int numFrames) {
+        this(numFrames, 2);
+    }
+
+    public void pageLoaded(int frame) {
+        occupied[frame] = true;
+        int base = frame * k;
+        for (int i = 0; i < k; i++)
+            history[base + i] = 0;
+        history[base] = ++clock;
+    }
+
+    public void pagePrefetched(int frame) {
+        occupied[frame] = true;
+        int base = frame * k;
+        for (int i = 0; i < k; i++)
+            history[base + i] = 0;
+    }
+
+    public void pageAccessed(int frame) {
+        int base = frame * k;
+        System.arraycopy(history, base, history, base + 1, k - 1);
+        history[base] = ++clock;
+    }
+
+    public void pageRemoved(int frame) {
+        occupied[frame] = false;
+    }
+
+    public int chooseVictim(IntPredicate evictable) {
+        return choose(evictable, false);
+    }
+
+    public int chooseColdVictim(IntPredicate evictable) {
+        return choose(evictable, true);
+    }
+
+    private int choose(IntPredicate evictable, boolean coldOnly) {
+        int victim = -1;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (int frame = 0; frame < occupied.length; frame++) {
+            if (!occupied[frame] || !evictable.test(frame))
+                continue;
+            long kth = history[frame * k + k - 1];
+            long last = history[frame * k];
+            if (coldOnly && kth != 0)
+                continue;
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                victim = frame;
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import simpledb.common.Debug;
+
+/**
+ * MappedHeapFile is a HeapFile that serves page reads from a read-only
+ * memory mapping of its file instead of reading them into a buffer first.
+ * It is meant for read-mostly tables that are scanned repeatedly: once the
+ * file is in the operating system's page cache, reading a page costs no
+ * system call and no copy: the HeapPage is a read-only view of the mapping,
+ * also while it is in the BufferPool, and only copies its bytes to the heap
+ * when it is first modified.
+ * <p>
+ * Writes still go through the file channel of HeapFile; on Linux and most
+ * other systems they are visible through the mapping immediately. When a
+ * page beyond the end of the current mapping is requested (because
+ * insertTuple appended to the file, or it grew in some other way) the file
+ * is mapped again at its new length. Files larger than a single mapping can
+ * cover (2GB) are only mapped up to that size; pages beyond it are read
+ * through the channel.
+ *
+ * @see HeapFile
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /** the current mapping; covers a whole number of pages of the file */
+    private volatile MappedByteBuffer map;
+
+    /**
+     * Constructs a memory-mapped heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap
+     *          file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Returns a mapping that covers the specified page, remapping the file if
+     * it has grown past the current mapping, or null if the page lies beyond
+     * the end of the file or beyond what a mapping can cover.
+     */
+    private MappedByteBuffer mapping(long offset) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        MappedByteBuffer m = map;
+        if (m != null && offset + pageSize <= m.capacity()) {
+            return m;
+        }
+        synchronized (this) {
+            m = map;
+            if (m != null && offset + pageSize <= m.capacity()) {
+                return m;
+            }
+            FileChannel ch = channel();
+            long maxLength = Integer.MAX_VALUE - Integer.MAX_VALUE % pageSize;
+            long length = Math.min(ch.size() - ch.size() % pageSize, maxLength);
+            if (offset + pageSize > length) {
+                return null;
+            }
+            Debug.log(1, "MappedHeapFile.mapping: mapping %d bytes", length);
+            m = ch.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map = m;
+            return m;
+        }
+    }
+
+    /**
+     * Drops the mapping, which may cover pages past the new end of the file.
+     */
+    @Override
+    synchronized void truncated() {
+        map = null;
+    }
+
+    /**
+     * Returns a view of the mapping; the frame is only used for pages that
+     * are not mapped.
+     */
+    @Override
+    Page readPage(PageId pid, ByteBuffer frame) {
+        HeapPageId id = (HeapPageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) id.getPageNumber() * pageSize;
+        try {
+            MappedByteBuffer m = mapping(offset);
+            if (m == null) {
+                // past the end of the file or the mapping; let HeapFile
+                // read it or report the error
+                return super.readPage(pid, frame);
+            }
+            ByteBuffer view = m.duplicate();
+            view.limit((int) offset + pageSize).position((int) offset);
+            return trackFreeSpace(HeapPage.wrap(id, view.slice().asReadOnlyBuffer()));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
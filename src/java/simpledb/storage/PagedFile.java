@@ -0,0 +1,376 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Base class of the DbFiles that, like a HeapFile, are a sequence of pages in
+ * no particular order identified by HeapPageIds, but have a page format of
+ * their own. It keeps the file's channel, page count and free space map, and
+ * implements reading, writing, inserting, deleting and iterating on top of
+ * them. Subclasses only construct their pages and tell whether a page has
+ * room for a tuple.
+ * <p>
+ * Inserts and deletes pin the page they modify, mark it dirty and unpin it,
+ * and iterators pin the page they are on, as for HeapFile.
+ *
+ * @param <P> the type of the pages of the file
+ * @see SlottedHeapFile
+ * @see ColumnarFile
+ */
+public abstract class PagedFile<P extends PagedFile.TuplePage> implements DbFile {
+
+    /**
+     * What a PagedFile needs of its pages.
+     */
+    interface TuplePage extends Page {
+
+        HeapPageId getId();
+
+        void insertTuple(Tuple t) throws DbException;
+
+        void deleteTuple(Tuple t) throws DbException;
+
+        Iterator<Tuple> iterator();
+    }
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+
+    /** opened on first use and kept open for the lifetime of this file */
+    private volatile FileChannel channel;
+    /** built from the page headers on first use */
+    private volatile FreeSpaceMap freeSpace;
+    /** number of pages, as for HeapFile */
+    private final AtomicInteger pageCount = new AtomicInteger(-1);
+
+    /**
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    protected PagedFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Constructs a page of this file from its bytes on disk, or from the
+     * bytes of an empty page, which are all 0.
+     */
+    abstract P newPage(HeapPageId id, byte[] data) throws IOException;
+
+    /**
+     * @return true if the page may have room for another tuple; this is only
+     *         a hint for the free space map, see {@link #fits}
+     */
+    abstract boolean hasRoom(P page);
+
+    /**
+     * @return the number of bytes at the start of a page that
+     *         {@link #hasRoom(ByteBuffer)} needs
+     */
+    abstract int headerSize();
+
+    /**
+     * @param header the first {@link #headerSize} bytes of a page on disk
+     * @return true if the page may have room for another tuple, as for
+     *         {@link #hasRoom(TuplePage)}
+     */
+    abstract boolean hasRoom(ByteBuffer header);
+
+    /**
+     * @return true if the specified tuple can be added to the page
+     */
+    abstract boolean fits(P page, Tuple t);
+
+    /**
+     * Returns the File backing this file on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this file, computed the same way as
+     * for a HeapFile.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return ch;
+        }
+        synchronized (this) {
+            ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                ch = new RandomAccessFile(f.getAbsoluteFile(), "rw").getChannel();
+                channel = ch;
+            }
+            return ch;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HeapPageId id = (HeapPageId) pid;
+        try {
+            byte[] pageBuf = new byte[BufferPool.getPageSize()];
+            ByteBuffer bb = ByteBuffer.wrap(pageBuf);
+            FileChannel ch = channel();
+            long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, offset + bb.position()) < 0) {
+                    throw new IllegalArgumentException("Read past end of table");
+                }
+            }
+            return trackFreeSpace(newPage(id, pageBuf));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    @SuppressWarnings("unchecked")
+    public void writePage(Page page) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(page.getPageData());
+        FileChannel ch = channel();
+        int pgno = page.getId().getPageNumber();
+        long offset = (long) pgno * BufferPool.getPageSize();
+        pageCount(); // the file length has to be taken before it grows
+        td.forceDictionaries();
+        while (bb.hasRemaining()) {
+            ch.write(bb, offset + bb.position());
+        }
+        pageCount.accumulateAndGet(pgno + 1, Math::max);
+        trackFreeSpace((P) page);
+    }
+
+    /**
+     * Records in the free space map whether a page read from or written to
+     * disk has room for another tuple.
+     */
+    private P trackFreeSpace(P page) {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null) {
+            fsm.update(page.getId().getPageNumber(), hasRoom(page));
+        }
+        return page;
+    }
+
+    /**
+     * Returns the free space map of this file, building it from the headers
+     * of its pages on disk the first time it is needed.
+     */
+    private FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpace;
+        if (fsm != null) {
+            return fsm;
+        }
+        synchronized (this) {
+            if (freeSpace == null) {
+                fsm = new FreeSpaceMap();
+                ByteBuffer header = ByteBuffer.allocate(headerSize());
+                int n = pageCount();
+                for (int pgno = 0; pgno < n; pgno++) {
+                    header.clear();
+                    long offset = (long) pgno * BufferPool.getPageSize();
+                    while (header.hasRemaining()) {
+                        if (channel().read(header, offset + header.position()) < 0) {
+                            break;
+                        }
+                    }
+                    // short page: treat as having room
+                    fsm.update(pgno, header.hasRemaining() || hasRoom(header));
+                }
+                freeSpace = fsm;
+            }
+            return freeSpace;
+        }
+    }
+
+    /**
+     * Returns the number of pages in this file. This checks the length of
+     * the file, so pages appended to it by other means are counted too.
+     */
+    public int numPages() {
+        int n = (int) (f.length() / BufferPool.getPageSize());
+        return pageCount.accumulateAndGet(n, Math::max);
+    }
+
+    /**
+     * Returns the number of pages in this file without asking the file
+     * system (see {@link HeapFile#pageCount}).
+     */
+    int pageCount() {
+        int n = pageCount.get();
+        if (n < 0) {
+            pageCount.compareAndSet(-1, (int) (f.length() / BufferPool.getPageSize()));
+            n = pageCount.get();
+        }
+        return n;
+    }
+
+    // see DbFile.java for javadocs
+    @SuppressWarnings("unchecked")
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("TupleDesc mismatch!");
+        }
+
+        // as in HeapFile, the free space map only names candidates
+        BufferPool bp = Database.getBufferPool();
+        FreeSpaceMap fsm = freeSpaceMap();
+        for (int i = fsm.nextCandidate(0); i < pageCount(); i = fsm.nextCandidate(i + 1)) {
+            HeapPageId pageId = new HeapPageId(getId(), i);
+            boolean held = bp.holdsLock(tid, pageId);
+            P page = (P) bp.pinPage(tid, pageId, Permissions.READ_WRITE);
+            if (fits(page, t)) {
+                return inserted(tid, page, t, fsm);
+            }
+            fsm.update(i, false);
+            bp.unpinPage(tid, pageId);
+            if (!held) {
+                bp.unsafeReleasePage(tid, pageId);
+            }
+        }
+
+        HeapPageId newPageID;
+        synchronized (this) {
+            newPageID = new HeapPageId(getId(), pageCount());
+            writePage(newPage(newPageID, new byte[BufferPool.getPageSize()]));
+        }
+        P page = (P) bp.pinPage(tid, newPageID, Permissions.READ_WRITE);
+        return inserted(tid, page, t, fsm);
+    }
+
+    /**
+     * Inserts the tuple into the pinned page, marks it dirty and unpins it,
+     * as HeapFile does.
+     */
+    private List<Page> inserted(TransactionId tid, P page, Tuple t, FreeSpaceMap fsm)
+            throws DbException {
+        page.insertTuple(t);
+        if (!hasRoom(page)) {
+            fsm.update(page.getId().getPageNumber(), false);
+        }
+        page.markDirty(true, tid);
+        Database.getBufferPool().unpinPage(tid, page.getId());
+        List<Page> affectedPages = new ArrayList<>();
+        affectedPages.add(page);
+        return affectedPages;
+    }
+
+    // see DbFile.java for javadocs
+    @SuppressWarnings("unchecked")
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t.getRecordId() == null || t.getRecordId().getPageId().getTableId() != getId()) {
+            throw new DbException("The tuple is not a member of this file!");
+        }
+        P page = (P) Database.getBufferPool().pinPage(tid, t.getRecordId().getPageId(),
+                Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        freeSpaceMap().update(page.getId().getPageNumber(), true);
+        page.markDirty(true, tid);
+        Database.getBufferPool().unpinPage(tid, page.getId());
+        List<Page> affectedPages = new ArrayList<>();
+        affectedPages.add(page);
+        return affectedPages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new PagedFileIterator<>(this, tid, TuplePage::iterator);
+    }
+}
+
+/**
+ * Helper class that implements the Java Iterator for tuples on a PagedFile,
+ * taking the tuples of each page from the specified function.
+ */
+class PagedFileIterator<P extends PagedFile.TuplePage> extends AbstractDbFileIterator {
+
+    Iterator<Tuple> it = null;
+    int curpgno = 0;
+    HeapPageId pinned; // the page it iterates over
+
+    final TransactionId tid;
+    final PagedFile<P> file;
+    final Function<P, Iterator<Tuple>> tuples;
+
+    public PagedFileIterator(PagedFile<P> file, TransactionId tid, Function<P, Iterator<Tuple>> tuples) {
+        this.file = file;
+        this.tid = tid;
+        this.tuples = tuples;
+    }
+
+    public void open() {
+        curpgno = -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (it != null && !it.hasNext()) {
+            it = null;
+            unpin();
+        }
+
+        while (it == null && curpgno < file.pageCount() - 1) {
+            curpgno++;
+            HeapPageId curpid = new HeapPageId(file.getId(), curpgno);
+            P curp = (P) Database.getBufferPool().pinPage(tid, curpid, Permissions.READ_ONLY);
+            pinned = curpid;
+            it = tuples.apply(curp);
+            if (!it.hasNext()) {
+                it = null;
+                unpin();
+            }
+        }
+
+        if (it == null)
+            return null;
+        return it.next();
+    }
+
+    private void unpin() {
+        if (pinned != null) {
+            Database.getBufferPool().unpinPage(tid, pinned);
+            pinned = null;
+        }
+    }
+
+    public void rewind() {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        unpin();
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * ReplacementPolicy decides which frame of the BufferPool is reused when a
+ * new page has to be brought in and the pool is full.
+ * <p>
+ * Frames are identified by their index in the BufferPool's frame array, so
+ * implementations can keep their bookkeeping in flat arrays indexed by frame
+ * number instead of per-page linked structures. All calls except
+ * {@link #pageAccessed} are made while the BufferPool holds the latch that
+ * protects the frame array; pageAccessed may race with the other calls and
+ * must tolerate that (at worst it should degrade the quality of the choice,
+ * never corrupt the policy's state).
+ *
+ * @see BufferPool
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called after a page has been installed in the specified (previously
+     * free) frame.
+     *
+     * @param frame the index of the frame that now holds a page
+     */
+    void pageLoaded(int frame);
+
+    /**
+     * Called every time the page held by the specified frame is handed out
+     * by the BufferPool.
+     *
+     * @param frame the index of the frame that was accessed
+     */
+    void pageAccessed(int frame);
+
+    /**
+     * Called after the page held by the specified frame has been dropped
+     * from the pool; the frame is free until the next call to pageLoaded.
+     *
+     * @param frame the index of the frame that was freed
+     */
+    void pageRemoved(int frame);
+
+    /**
+     * Choose a frame whose page should be evicted. Only occupied frames for
+     * which evictable returns true may be chosen.
+     *
+     * @param evictable tells whether the page held by a frame may be evicted
+     *                  (e.g., it is not dirty)
+     * @return the index of the chosen frame, or -1 if no occupied frame is
+     *         evictable
+     */
+    int chooseVictim(IntPredicate evictable);
+
+    /**
+     * Called after a page has been read ahead into the specified (previously
+     * free) frame, before anyone asked for it. Until it is accessed, such a
+     * page should be among the first candidates for eviction. The default
+     * treats it like any other loaded page.
+     *
+     * @param frame the index of the frame that now holds a page
+     */
+    default void pagePrefetched(int frame) {
+        pageLoaded(frame);
+    }
+
+    /**
+     * Choose a frame whose page has not been used recently enough to be
+     * worth keeping, without changing the state of any other frame (unlike
+     * chooseVictim, which may age the frames it passes over). Used to make
+     * room for pages that are read ahead, which must not displace hot pages.
+     * The default never finds one, so read-ahead only uses free frames.
+     *
+     * @param evictable tells whether the page held by a frame may be evicted
+     * @return the index of the chosen frame, or -1 if there is no cold,
+     *         evictable frame
+     */
+    default int chooseColdVictim(IntPredicate evictable) {
+        return -1;
+    }
+}
@@ -0,0 +1,58 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+/**
+ * ScanRing is a small, private set of page slots that a large sequential
+ * scan reads through instead of the shared frames of the BufferPool. Pages
+ * are replaced in the order they were read, so a scan over a table much
+ * larger than the pool only ever occupies the ring and leaves the working
+ * set of other transactions in the pool alone.
+ * <p>
+ * Only pages requested READ_ONLY go through a ring, and only if they are not
+ * resident in the pool already (see
+ * {@link BufferPool#getPage(simpledb.transaction.TransactionId, PageId,
+ * simpledb.common.Permissions, ScanRing)}). Since the caller holds a shared
+ * lock on such a page, and pages are forced to disk before their exclusive
+ * locks are released, the version read from disk is current for as long as
+ * the lock is held.
+ * <p>
+ * A ring belongs to a single scan and is not thread-safe.
+ */
+public class ScanRing {
+
+    /**
+     * Number of slots of the rings scans use by default.
+     */
+    public static final int DEFAULT_PAGES = 16;
+
+    private final Page[] slots;
+    private int next; // slot that is reused next
+
+    /**
+     * Create a ring with the specified number of slots.
+     */
+    public ScanRing(int numPages) {
+        if (numPages < 1) {
+            throw new IllegalArgumentException("a ring needs at least one slot");
+        }
+        this.slots = new Page[numPages];
+        this.next = 0;
+    }
+
+    /**
+     * Returns the page with the specified id, reading it from disk into the
+     * oldest slot of the ring if it is not in the ring.
+     */
+    Page fetch(PageId pid) {
+        for (Page p : slots) {
+            if (p != null && p.getId().equals(pid)) {
+                return p;
+            }
+        }
+        Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        slots[next] = p;
+        next = (next + 1) % slots.length;
+        return p;
+    }
+}
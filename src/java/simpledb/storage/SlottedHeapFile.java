@@ -0,0 +1,79 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A DbFile of SlottedPages, for tables whose tuples are much smaller than
+ * their fixed-size HeapPage slots, typically because of short strings. Like a
+ * HeapFile, it is a sequence of pages in no particular order, identified by
+ * HeapPageIds; the page format is described in {@link SlottedPage}.
+ * <p>
+ * A catalog declares a table stored this way by following its schema with
+ * the keyword <code>slotted</code>, and
+ * {@link HeapFileEncoder#convertSlotted} writes such files.
+ *
+ * @see SlottedPage
+ * @see HeapFile
+ * @see PagedFile
+ */
+public class SlottedHeapFile extends PagedFile<SlottedPage> {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    SlottedPage newPage(HeapPageId id, byte[] data) throws IOException {
+        return new SlottedPage(id, getTupleDesc(), data);
+    }
+
+    /**
+     * A page has room if the smallest possible tuple fits between its slot
+     * directory and its records.
+     */
+    @Override
+    boolean hasRoom(SlottedPage page) {
+        return hasRoom(page.getFreeSpace());
+    }
+
+    @Override
+    int headerSize() {
+        return SlottedPage.HEADER_SIZE;
+    }
+
+    @Override
+    boolean hasRoom(ByteBuffer header) {
+        return hasRoom(SlottedPage.contiguousFreeSpace(header.array()));
+    }
+
+    private boolean hasRoom(int freeSpace) {
+        return freeSpace >= SlottedPage.minRecordSize(getTupleDesc()) + SlottedPage.SLOT_SIZE;
+    }
+
+    @Override
+    boolean fits(SlottedPage page, Tuple t) {
+        return page.canInsert(t);
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE + SlottedPage.recordSize(t) > BufferPool.getPageSize()) {
+            throw new DbException("The tuple does not fit on a page!");
+        }
+        return super.insertTuple(tid, t);
+    }
+}
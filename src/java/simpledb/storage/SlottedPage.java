@@ -0,0 +1,418 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A page of a SlottedHeapFile. Unlike a HeapPage, which gives every tuple a
+ * fixed-size slot, a SlottedPage stores variable-length records: a string
+ * takes two bytes for its length plus one byte per character, instead of
+ * {@value Type#STRING_LEN} + 4 bytes. A page holds as many tuples as fit.
+ * <p>
+ * The page starts with a header of two unsigned 16-bit numbers, the number
+ * of entries in the slot directory and the offset where the record area
+ * begins. The slot directory follows the header; entry i holds the offset
+ * and the length of the record in slot i, again as unsigned 16-bit numbers,
+ * with offset 0 marking an empty slot. Records are allocated from the end of
+ * the page towards the directory. All zeros is an empty page, so the record
+ * area offset 0 stands for the page size. Page sizes above 64 KB are
+ * therefore not supported.
+ * <p>
+ * A record is the fields of the tuple in order: an int as 4 bytes, a string
+ * as its length in an unsigned 16-bit number followed by its characters,
+ * one byte each.
+ * <p>
+ * Slot numbers stay the same while a tuple is on the page, so RecordIds stay
+ * valid; when deletes leave holes that an insert needs, the records are
+ * moved together without changing the directory entries that point to them.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements PagedFile.TuplePage {
+
+    /** bytes of the header, before the slot directory */
+    static final int HEADER_SIZE = 4;
+    /** bytes of a slot directory entry */
+    static final int SLOT_SIZE = 4;
+    /** largest page size the 16-bit offsets can address */
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** the page bytes in the format described above */
+    private final byte[] data;
+
+    /**
+     * The bytes of the before image, or null while the page has not been
+     * modified since the before image was last set. Like data, only accessed
+     * while holding this page's monitor.
+     */
+    private byte[] oldData;
+
+    private volatile TransactionId lastTransactionDirty;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk. The
+     * format is described in the class comment.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    /**
+     * Create a SlottedPage of a table with the specified TupleDesc, which
+     * need not be in the catalog (see {@link HeapFileEncoder}).
+     */
+    SlottedPage(HeapPageId id, TupleDesc td, byte[] data) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (pageSize > MAX_PAGE_SIZE) {
+            throw new IOException("slotted pages cannot be larger than " + MAX_PAGE_SIZE + " bytes");
+        }
+        this.pid = id;
+        this.td = td;
+        this.data = new byte[pageSize];
+        System.arraycopy(data, 0, this.data, 0, Math.min(data.length, pageSize));
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; // all 0
+    }
+
+    /**
+     * @return the number of bytes the record of the specified tuple takes
+     */
+    public static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                size += 4;
+            } else {
+                size += 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the smallest record of a table with the
+     *         specified TupleDesc takes, the one with all strings empty
+     */
+    static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i) == Type.INT_TYPE ? 4 : 2;
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes free between the slot directory and the
+     *         records of a page with the specified header, which may be all
+     *         that is read of it
+     */
+    static int contiguousFreeSpace(byte[] header) {
+        return recordStart(header) - HEADER_SIZE - getShort(header, 0) * SLOT_SIZE;
+    }
+
+    private static int recordStart(byte[] data) {
+        int start = getShort(data, 2);
+        return start == 0 ? BufferPool.getPageSize() : start;
+    }
+
+    private static int getShort(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private static void putShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
+    private int numSlots() {
+        return getShort(data, 0);
+    }
+
+    private int slotOffset(int slot) {
+        return getShort(data, HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return getShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * @return the number of free bytes on this page, counting the holes left
+     *         by deleted records
+     */
+    public synchronized int getFreeSpace() {
+        int used = HEADER_SIZE + numSlots() * SLOT_SIZE;
+        for (int i = 0; i < numSlots(); i++) {
+            used += slotLength(i);
+        }
+        return data.length - used;
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public synchronized int getNumTuples() {
+        int n = 0;
+        for (int i = 0; i < numSlots(); i++) {
+            if (slotOffset(i) != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return true if the specified tuple fits on this page
+     */
+    public synchronized boolean canInsert(Tuple t) {
+        return freeSlot() < numSlots()
+                ? recordSize(t) <= getFreeSpace()
+                : recordSize(t) + SLOT_SIZE <= getFreeSpace();
+    }
+
+    /**
+     * @return the first empty slot, or numSlots() if all are in use
+     */
+    private int freeSlot() {
+        int n = numSlots();
+        for (int i = 0; i < n; i++) {
+            if (slotOffset(i) == 0) {
+                return i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple should be updated to reflect
+     * that it is now stored on this page.
+     *
+     * @param t The tuple to add.
+     * @throws DbException if the tuple does not fit or tupledesc is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("Tupledesc is mismatch!");
+        }
+        if (!canInsert(t)) {
+            throw new DbException("The page is full!");
+        }
+        beforeWrite();
+        int slot = freeSlot();
+        int newSlots = slot == numSlots() ? slot + 1 : numSlots();
+        int size = recordSize(t);
+        if (recordStart(data) - size < HEADER_SIZE + newSlots * SLOT_SIZE) {
+            compact();
+        }
+        int offset = recordStart(data) - size;
+        writeRecord(t, data, offset);
+        putShort(data, 0, newSlots);
+        putShort(data, 2, offset);
+        setSlot(slot, offset, size);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Move the records to the end of the page, closing the holes between
+     * them, and keep the slot directory pointing at them.
+     */
+    private void compact() {
+        byte[] copy = data.clone();
+        int end = data.length;
+        for (int i = 0; i < numSlots(); i++) {
+            int offset = slotOffset(i);
+            if (offset != 0) {
+                int length = slotLength(i);
+                end -= length;
+                System.arraycopy(copy, offset, data, end, length);
+                setSlot(i, end, length);
+            }
+        }
+        putShort(data, 2, end == data.length ? 0 : end);
+    }
+
+    /**
+     * Delete the specified tuple from the page.
+     *
+     * @param t The tuple to delete
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        if (t.getRecordId() == null) {
+            throw new DbException("This tuple is already deleted.");
+        }
+        if (!pid.equals(t.getRecordId().getPageId())) {
+            throw new DbException("This tuple is not on this page.");
+        }
+        int slot = t.getRecordId().getTupleNumber();
+        if (slot >= numSlots() || slotOffset(slot) == 0) {
+            throw new DbException("This tuple slot is already empty.");
+        }
+        beforeWrite();
+        int offset = slotOffset(slot);
+        int length = slotLength(slot);
+        for (int i = 0; i < length; i++) {
+            data[offset + i] = 0;
+        }
+        setSlot(slot, 0, 0);
+        int n = numSlots();
+        while (n > 0 && slotOffset(n - 1) == 0) {
+            n--;
+        }
+        putShort(data, 0, n);
+        if (offset == recordStart(data)) {
+            // the record was the lowest one; move the start past the holes
+            int start = data.length;
+            for (int i = 0; i < n; i++) {
+                if (slotOffset(i) != 0) {
+                    start = Math.min(start, slotOffset(i));
+                }
+            }
+            putShort(data, 2, start == data.length ? 0 : start);
+        }
+    }
+
+    /**
+     * Write the record of t at the specified offset of dst, in the format
+     * described in the class comment.
+     */
+    static void writeRecord(Tuple t, byte[] dst, int offset) {
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = ((IntField) t.getField(i)).getValue();
+                dst[offset] = (byte) (v >>> 24);
+                dst[offset + 1] = (byte) (v >>> 16);
+                dst[offset + 2] = (byte) (v >>> 8);
+                dst[offset + 3] = (byte) v;
+                offset += 4;
+            } else {
+                String s = ((StringField) t.getField(i)).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                putShort(dst, offset, len);
+                offset += 2;
+                for (int j = 0; j < len; j++) {
+                    dst[offset + j] = (byte) s.charAt(j);
+                }
+                offset += len;
+            }
+        }
+    }
+
+    /**
+     * Decode the record at the specified offset of src.
+     */
+    static Tuple readRecord(TupleDesc td, byte[] src, int offset) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                t.setField(i, new IntField(Type.readInt(src, offset)));
+                offset += 4;
+            } else {
+                int len = getShort(src, offset);
+                t.setField(i, new StringField(new String(src, offset + 2, len), Type.STRING_LEN));
+                offset += 2 + len;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this
+     *         iterator throws an UnsupportedOperationException). The tuples
+     *         are decoded when the iterator is created.
+     */
+    public synchronized Iterator<Tuple> iterator() {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < numSlots(); i++) {
+            int offset = slotOffset(i);
+            if (offset != 0) {
+                Tuple t = readRecord(td, data, offset);
+                t.setRecordId(new RecordId(pid, i));
+                tuples.add(t);
+            }
+        }
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the constructor to produce an identical page.
+     */
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public synchronized SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, td, oldData == null ? data : oldData);
+        } catch (IOException e) {
+            // the page size was accepted when this page was created
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = null; // the current bytes are the before image
+    }
+
+    /**
+     * Called before the page bytes are modified: if they are still the before
+     * image, keep a copy of them as the before image first.
+     */
+    private void beforeWrite() {
+        if (oldData == null) {
+            oldData = data.clone();
+        }
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.lastTransactionDirty = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if
+     * the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return lastTransactionDirty;
+    }
+}
@@ -0,0 +1,181 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import simpledb.common.Type;
+
+/**
+ * StringDictionary maps the distinct values of a string column to dense int
+ * codes, so that the column can be stored as 4-byte codes instead of
+ * {@link Type#STRING_TYPE} values (see {@link TupleDesc#getDictionary}).
+ * <p>
+ * The dictionary is kept in a file next to the table, as the values in the
+ * order of their codes, each written as its length followed by its bytes.
+ * Values are only ever appended: a new value is written to the file before
+ * its code is returned, and the files that store codes {@link #force} the
+ * dictionary before they write their pages, so that a page holding a code
+ * can never reach the disk before its value does. Values added by
+ * transactions that later abort are kept, and simply never decoded.
+ */
+public class StringDictionary {
+
+    private final File file;
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    // values[c] is the value with code c; replaced, never modified, when it grows
+    private volatile String[] values = new String[16];
+    private int size = 0;
+
+    /** opened when the first value is added and kept open from then on */
+    private FileChannel channel;
+    /** whether values have been written since the file was last forced */
+    private boolean unforced = false;
+
+    /**
+     * Open the dictionary stored in the specified file, which is created when
+     * the first value is added if it does not exist.
+     *
+     * @throws IOException if the file exists but cannot be read
+     */
+    public StringDictionary(File f) throws IOException {
+        this.file = f;
+        if (!f.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] bytes = new byte[len];
+                in.readFully(bytes);
+                add(new String(bytes, StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    /**
+     * @return the file the dictionary is stored in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of values in the dictionary
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void add(String s) {
+        String[] vs = values;
+        if (size == vs.length) {
+            vs = Arrays.copyOf(vs, vs.length * 2);
+        }
+        vs[size] = s;
+        values = vs;
+        codes.put(s, size++);
+    }
+
+    private static String truncate(String s) {
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    /**
+     * Returns the code of the specified value, adding it to the dictionary
+     * (and to its file) if it is not there yet. Values are truncated to
+     * {@link Type#STRING_LEN} characters, as StringFields are.
+     *
+     * @throws IOException if a new value cannot be written to the file
+     */
+    public synchronized int encode(String s) throws IOException {
+        s = truncate(s);
+        Integer code = codes.get(s);
+        if (code != null) {
+            return code;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer bb = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+        bb.putInt(bytes.length).put(bytes).flip();
+        while (bb.hasRemaining()) {
+            channel.write(bb);
+        }
+        unforced = true;
+        add(s);
+        return size - 1;
+    }
+
+    /**
+     * Forces the values added since the last call to disk. Files storing
+     * codes of this dictionary call this before writing pages, which may
+     * hold the codes of those values.
+     *
+     * @throws IOException if the file cannot be forced
+     */
+    public synchronized void force() throws IOException {
+        if (unforced) {
+            channel.force(false);
+            unforced = false;
+        }
+    }
+
+    /**
+     * Returns the code of the value of the specified field, adding the value
+     * to the dictionary if it is not there yet. The code of a DictionaryField
+     * of this dictionary is returned as it is.
+     *
+     * @throws IOException if a new value cannot be written to the file
+     */
+    public int encode(Field f) throws IOException {
+        if (f instanceof DictionaryField && ((DictionaryField) f).getDictionary() == this) {
+            return ((DictionaryField) f).getCode();
+        }
+        return encode(((StringField) f).getValue());
+    }
+
+    /**
+     * @return the code of the specified value, or -1 if it is not in the
+     *         dictionary (so that no stored code is equal to it)
+     */
+    public int lookup(String s) {
+        Integer code = codes.get(truncate(s));
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the code of the value of the specified string field, as
+     *         {@link #lookup(String)} returns it
+     */
+    public int lookup(StringField f) {
+        if (f instanceof DictionaryField && ((DictionaryField) f).getDictionary() == this) {
+            return ((DictionaryField) f).getCode();
+        }
+        return lookup(f.getValue());
+    }
+
+    /**
+     * @return the value with the specified code
+     */
+    public String decode(int code) {
+        return values[code];
+    }
+}
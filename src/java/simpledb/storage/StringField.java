@@ -5,6 +5,7 @@ import simpledb.execution.Predicate;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -35,17 +36,28 @@ public class StringField implements Field {
             value = s;
     }
 
+    /**
+     * Constructor for subclasses that keep the value elsewhere, and return it
+     * from {@link #getValue}.
+     *
+     * @param maxSize The maximum size of the string
+     */
+    protected StringField(int maxSize) {
+        this.maxSize = maxSize;
+        this.value = null;
+    }
+
     public String toString() {
-        return value;
+        return getValue();
     }
 
     public int hashCode() {
-        return value.hashCode();
+        return getValue().hashCode();
     }
 
     public boolean equals(Object field) {
         if (!(field instanceof StringField)) return false;
-        return ((StringField) field).value.equals(value);
+        return ((StringField) field).getValue().equals(getValue());
     }
 
     /**
@@ -56,7 +68,7 @@ public class StringField implements Field {
      * @param dos Where the string is written
      */
     public void serialize(DataOutputStream dos) throws IOException {
-        String s = value;
+        String s = getValue();
         int overflow = maxSize - s.length();
         if (overflow < 0) {
             s = s.substring(0, maxSize);
@@ -67,6 +79,20 @@ public class StringField implements Field {
             dos.write((byte) 0);
     }
 
+    /**
+     * Write this string to the specified offset of data, in the same format
+     * as {@link #serialize(DataOutputStream)}.
+     */
+    public void serialize(ByteBuffer data, int offset) {
+        String value = getValue();
+        int len = Math.min(value.length(), maxSize);
+        data.putInt(offset, len);
+        offset += 4;
+        for (int i = 0; i < maxSize; i++) {
+            data.put(offset + i, i < len ? (byte) value.charAt(i) : 0);
+        }
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
@@ -76,8 +102,9 @@ public class StringField implements Field {
      */
     public boolean compare(Predicate.Op op, Field val) {
 
-        StringField iVal = (StringField) val;
-        int cmpVal = value.compareTo(iVal.value);
+        String value = getValue();
+        String iVal = ((StringField) val).getValue();
+        int cmpVal = value.compareTo(iVal);
 
         switch (op) {
             case EQUALS:
@@ -99,7 +126,7 @@ public class StringField implements Field {
                 return cmpVal <= 0;
 
             case LIKE:
-                return value.contains(iVal.value);
+                return value.contains(iVal);
         }
 
         return false;
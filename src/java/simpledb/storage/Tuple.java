@@ -1,13 +1,23 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Tuples read from a page may be backed by the page's bytes: their Field
+ * objects are only created when a field is first asked for, and predicates
+ * on integer fields can be evaluated without creating them at all.
  */
 public class Tuple implements Serializable {
 
@@ -16,6 +26,8 @@ public class Tuple implements Serializable {
     private transient RecordId rid; // source on disk -- may be null
     private final Field[] fields;
     private transient TupleDesc td;
+    // serialized tuple the fields that are still null are decoded from, if any
+    private transient byte[] data;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -28,6 +40,60 @@ public class Tuple implements Serializable {
         this.td = td;
     }
 
+    /**
+     * Create a tuple whose fields are decoded on demand from the specified
+     * serialized tuple, which the tuple takes ownership of.
+     *
+     * @param td   the schema of this tuple
+     * @param data the serialized tuple, td.getSize() bytes long
+     */
+    Tuple(TupleDesc td, byte[] data) {
+        this(td);
+        this.data = data;
+    }
+
+    /**
+     * Decode all fields that have not been decoded yet, so that the tuple no
+     * longer depends on the bytes it was created from.
+     */
+    void decodeAll() {
+        if (data == null) {
+            return;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            getField(i);
+        }
+        data = null;
+    }
+
+    /**
+     * Write this tuple to the specified offset of a buffer, laid out as
+     * specified by a TupleDesc equal to its own: its fields one after the
+     * other, as {@link Field#serialize} writes them, except for the fields
+     * the layout encodes with a dictionary, whose codes are written instead.
+     * A tuple that is still backed by bytes of the same layout is copied as
+     * it is.
+     *
+     * @throws IOException if a new value cannot be added to a dictionary
+     */
+    void serialize(TupleDesc layout, ByteBuffer dst, int dstOffset) throws IOException {
+        byte[] d = data;
+        if (d != null && td.sameLayout(layout)) {
+            ByteBuffer to = dst.duplicate();
+            to.position(dstOffset);
+            to.put(d);
+            return;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            StringDictionary dictionary = layout.getDictionary(i);
+            if (dictionary != null) {
+                dst.putInt(dstOffset + layout.getOffset(i), dictionary.encode(getField(i)));
+            } else {
+                getField(i).serialize(dst, dstOffset + layout.getOffset(i));
+            }
+        }
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -62,6 +128,7 @@ public class Tuple implements Serializable {
         if (f.getType() != td.getFieldType(i)) {
             throw new RuntimeException("Invalid field type in Tuple.setField()");
         }
+        decodeAll(); // the tuple no longer matches the bytes it came from
         fields[i] = f;
     }
 
@@ -70,7 +137,45 @@ public class Tuple implements Serializable {
      * @return the value of the ith field, or null if it has not been set.
      */
     public Field getField(int i) {
-        return fields[i];
+        Field f = fields[i];
+        byte[] d = data;
+        if (f == null && d != null) {
+            StringDictionary dictionary = td.getDictionary(i);
+            if (dictionary != null) {
+                f = new DictionaryField(Type.readInt(d, td.getOffset(i)), dictionary);
+            } else {
+                f = td.getFieldType(i).parse(d, td.getOffset(i));
+            }
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * Compare the ith field of this tuple to the specified operand, as
+     * {@link Field#compare} would. If the field has not been decoded and
+     * either both are integers, or the field is dictionary-encoded and the
+     * operator is EQUALS or NOT_EQUALS, the comparison is done on the
+     * serialized value (or code) without creating a Field object for it.
+     *
+     * @param i       index of the field to compare
+     * @param op      the comparison operator
+     * @param operand the value to compare the field to
+     */
+    public boolean compareField(int i, Predicate.Op op, Field operand) {
+        byte[] d = data;
+        if (fields[i] == null && d != null && operand instanceof IntField
+                && td.getFieldType(i) == Type.INT_TYPE) {
+            int value = Type.readInt(d, td.getOffset(i));
+            return IntField.compare(value, op, ((IntField) operand).getValue());
+        }
+        if (fields[i] == null && d != null && td.getDictionary(i) != null
+                && (op == Predicate.Op.EQUALS || op == Predicate.Op.NOT_EQUALS)) {
+            int code = Type.readInt(d, td.getOffset(i));
+            boolean equal = td.getDictionary(i).lookup((StringField) operand) == code;
+            return equal == (op == Predicate.Op.EQUALS);
+        }
+        return getField(i).compare(op, operand);
     }
 
     /**
@@ -83,10 +188,10 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         StringBuilder out = new StringBuilder();
-        for (Field field : fields) {
-            if (out.length() > 0)
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0)
                 out.append("\t");
-            out.append(field);
+            out.append(getField(i));
         }
         return out.toString();
     }
@@ -95,6 +200,7 @@ public class Tuple implements Serializable {
      * @return An iterator which iterates over all the fields of this tuple
      */
     public Iterator<Field> fields() {
+        decodeAll();
         return Arrays.asList(fields).iterator();
     }
 
@@ -102,9 +208,15 @@ public class Tuple implements Serializable {
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      */
     public void resetTupleDesc(TupleDesc td) {
+        decodeAll();
         this.td = td;
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
+    }
+
     public static Tuple merge(Tuple t1, Tuple t2) {
         TupleDesc mergedTupleDesc = TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc());
         Tuple mergedTuple = new Tuple(mergedTupleDesc);
@@ -2,6 +2,7 @@ package simpledb.storage;
 
 import simpledb.common.Type;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -29,9 +30,19 @@ public class TupleDesc implements Serializable {
          */
         public final String fieldName;
 
+        /**
+         * The dictionary the values of the field are encoded with, or null
+         */
+        public final transient StringDictionary dictionary;
+
         public TDItem(Type t, String n) {
+            this(t, n, null);
+        }
+
+        public TDItem(Type t, String n, StringDictionary dictionary) {
             this.fieldName = n;
             this.fieldType = t;
+            this.dictionary = dictionary;
         }
 
         public String toString() {
@@ -50,6 +61,8 @@ public class TupleDesc implements Serializable {
     private static final long serialVersionUID = 1L;
 
     private final TDItem[] tdItems;
+    /** offsets[i] is the byte offset of field i in a serialized tuple; the last entry is the size */
+    private final int[] offsets;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -65,6 +78,30 @@ public class TupleDesc implements Serializable {
         for (int i = 0; i < typeAr.length; i++) {
             tdItems[i] = new TDItem(typeAr[i], fieldAr[i]);
         }
+        offsets = computeOffsets(tdItems);
+    }
+
+    /**
+     * Create a new TupleDesc whose string fields may be dictionary-encoded:
+     * serialized tuples then hold the 4-byte codes of the values of those
+     * fields instead of the values, and the fields read from them are
+     * {@link DictionaryField}s.
+     *
+     * @param typeAr       array specifying the number of and types of fields
+     * @param fieldAr      array specifying the names of the fields
+     * @param dictionaries array specifying the dictionary of each field, or
+     *                     null for the fields that are not encoded; only
+     *                     STRING_TYPE fields may have one
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, StringDictionary[] dictionaries) {
+        tdItems = new TDItem[typeAr.length];
+        for (int i = 0; i < typeAr.length; i++) {
+            if (dictionaries[i] != null && typeAr[i] != Type.STRING_TYPE) {
+                throw new IllegalArgumentException("only string fields can be dictionary-encoded");
+            }
+            tdItems[i] = new TDItem(typeAr[i], fieldAr[i], dictionaries[i]);
+        }
+        offsets = computeOffsets(tdItems);
     }
 
     /**
@@ -79,6 +116,16 @@ public class TupleDesc implements Serializable {
         for (int i = 0; i < typeAr.length; i++) {
             tdItems[i] = new TDItem(typeAr[i], "");
         }
+        offsets = computeOffsets(tdItems);
+    }
+
+    private static int[] computeOffsets(TDItem[] items) {
+        int[] offsets = new int[items.length + 1];
+        for (int i = 0; i < items.length; i++) {
+            int len = items[i].dictionary != null ? Type.INT_TYPE.getLen() : items[i].fieldType.getLen();
+            offsets[i + 1] = offsets[i] + len;
+        }
+        return offsets;
     }
 
     /**
@@ -111,6 +158,48 @@ public class TupleDesc implements Serializable {
         return tdItems[i].fieldType;
     }
 
+    /**
+     * Gets the dictionary the ith field of this TupleDesc is encoded with.
+     *
+     * @param i The index of the field. It must be a valid index.
+     * @return the dictionary of the ith field, or null if it is not encoded
+     */
+    public StringDictionary getDictionary(int i) {
+        return tdItems[i].dictionary;
+    }
+
+    /**
+     * Forces the dictionaries of the encoded fields to disk, so that the
+     * values of the codes in a page are there before the page is written
+     * (see {@link StringDictionary#force}).
+     */
+    void forceDictionaries() throws IOException {
+        for (TDItem item : tdItems) {
+            if (item.dictionary != null) {
+                item.dictionary.force();
+            }
+        }
+    }
+
+    /**
+     * @return true if the fields of this TupleDesc and of the specified one
+     *         are serialized the same way: they have the same types, and are
+     *         encoded with the same dictionaries
+     */
+    public boolean sameLayout(TupleDesc td) {
+        if (td == this) {
+            return true;
+        }
+        if (!equals(td)) {
+            return false;
+        }
+        for (int i = 0; i < tdItems.length; i++) {
+            if (tdItems[i].dictionary != td.tdItems[i].dictionary)
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Find the index of the field with a given name.
      *
@@ -129,12 +218,20 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size,
+     *         in which dictionary-encoded fields take 4 bytes.
      */
     public int getSize() {
-        int size = 0;
-        for (TDItem tdItem : tdItems) size += tdItem.fieldType.getLen();
-        return size;
+        return offsets[tdItems.length];
+    }
+
+    /**
+     * @param i index of the field
+     * @return the offset (in bytes) of the ith field from the start of a
+     *         serialized tuple corresponding to this TupleDesc
+     */
+    public int getOffset(int i) {
+        return offsets[i];
     }
 
     /**
@@ -160,11 +257,27 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(types, names);
     }
 
+    /**
+     * @param columns indexes of fields of this TupleDesc
+     * @return a TupleDesc with the specified fields of this one, in the order
+     *         given
+     */
+    public TupleDesc project(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = getFieldType(columns[i]);
+            names[i] = getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
      * and if the i-th type in this TupleDesc is equal to the i-th type in o
-     * for every i.
+     * for every i. Dictionaries are not compared, so that tuples with plain
+     * string fields can be inserted into tables that encode them.
      *
      * @param o the Object to be compared for equality with this TupleDesc.
      * @return true if the object is equal to this TupleDesc.
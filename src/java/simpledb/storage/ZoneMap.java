@@ -0,0 +1,343 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the smallest and the largest
+ * value of each int column on the page, so that scans with a predicate on
+ * such a column can skip the pages that cannot hold a matching tuple (see
+ * {@link #mayMatch}).
+ * <p>
+ * The ranges are kept exact for the pages as they are on disk: HeapFile
+ * records a page's ranges whenever it writes the page. In between, inserts
+ * into a page widen its ranges right away, so a page that gained a tuple in
+ * memory is never skipped; deletes only narrow them once the page is
+ * written. Pages the map knows nothing about, such as pages added to the
+ * file by other means, are never skipped.
+ * <p>
+ * The map is stored next to the table file, in a sidecar file whose name
+ * is that of the table file followed by {@value #SUFFIX}: a header with the
+ * length and the modification time of the table file as of the last update,
+ * the number of pages, and then the minimum and maximum of every int column
+ * of every page, as ints. A sidecar whose header does not match the table
+ * file is out of date (e.g. because the table was written to by other means,
+ * or the system stopped between writing a page and its ranges), and the map
+ * is rebuilt from the pages.
+ *
+ * @Threadsafe
+ */
+class ZoneMap {
+
+    static final String SUFFIX = ".zonemap";
+    private static final int HEADER_SIZE = 20;
+
+    private final File table;
+    private final TupleDesc td;
+    /** the int columns of the table, in order */
+    private final int[] columns;
+    private final FileChannel sidecar;
+
+    /**
+     * ranges[pgno][2 * i] and ranges[pgno][2 * i + 1] are the minimum and the
+     * maximum of column columns[i] on page pgno; an empty page has minimum
+     * Integer.MAX_VALUE and maximum Integer.MIN_VALUE.
+     */
+    private int[][] ranges = new int[0][];
+    private int numPages; // pages the map knows about
+    private int known; // the ranges of pages 0 to known - 1 are all recorded
+    /** pages whose ranges were recorded since the sidecar was last saved */
+    private final BitSet unsaved = new BitSet();
+
+    private ZoneMap(File table, TupleDesc td, FileChannel sidecar) {
+        this.table = table;
+        this.td = td;
+        this.columns = intColumns(td);
+        this.sidecar = sidecar;
+    }
+
+    private static int[] intColumns(TupleDesc td) {
+        int n = 0;
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                columns[n++] = i;
+            }
+        }
+        return Arrays.copyOf(columns, n);
+    }
+
+    /**
+     * @return the sidecar file of the specified table file
+     */
+    static File sidecarFile(File table) {
+        return new File(table.getPath() + SUFFIX);
+    }
+
+    /**
+     * Loads the zone map of the table stored in the specified file from its
+     * sidecar file or, if that is missing or out of date, builds it by
+     * reading every page through ch and writes a new sidecar file.
+     */
+    static ZoneMap open(File table, TupleDesc td, FileChannel ch) throws IOException {
+        FileChannel sidecar = new RandomAccessFile(sidecarFile(table).getAbsoluteFile(), "rw").getChannel();
+        ZoneMap zm = new ZoneMap(table, td, sidecar);
+        if (!zm.load()) {
+            zm.build(ch);
+            zm.unsaved.set(0, zm.numPages);
+            zm.save();
+        }
+        return zm;
+    }
+
+    private int entrySize() {
+        return 8 * columns.length;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer bb, long offset) throws IOException {
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, offset + bb.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer bb, long offset) throws IOException {
+        while (bb.hasRemaining()) {
+            ch.write(bb, offset + bb.position());
+        }
+    }
+
+    /**
+     * Reads the sidecar file, if it is up to date.
+     *
+     * @return true if it was
+     */
+    private boolean load() throws IOException {
+        if (sidecar.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(sidecar, header, 0);
+        header.flip();
+        long length = header.getLong();
+        long modified = header.getLong();
+        int n = header.getInt();
+        if (length != table.length() || modified != table.lastModified()
+                || n != length / BufferPool.getPageSize() || sidecar.size() < HEADER_SIZE + (long) n * entrySize()) {
+            return false;
+        }
+        ByteBuffer entries = ByteBuffer.allocate(n * entrySize());
+        readFully(sidecar, entries, HEADER_SIZE);
+        entries.flip();
+        ranges = new int[n][];
+        for (int pgno = 0; pgno < n; pgno++) {
+            ranges[pgno] = new int[2 * columns.length];
+            for (int i = 0; i < ranges[pgno].length; i++) {
+                ranges[pgno][i] = entries.getInt();
+            }
+        }
+        numPages = n;
+        known = n;
+        return true;
+    }
+
+    /**
+     * Computes the ranges of every page from the page bytes, whose format is
+     * described in the HeapPage constructor.
+     */
+    private void build(FileChannel ch) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int n = (int) (ch.size() / pageSize);
+        int numSlots = (pageSize * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        byte[] page = new byte[pageSize];
+        ranges = new int[n][];
+        for (int pgno = 0; pgno < n; pgno++) {
+            readFully(ch, ByteBuffer.wrap(page), (long) pgno * pageSize);
+            int[] r = emptyRanges();
+            for (int slot = 0; slot < numSlots; slot++) {
+                if ((page[slot / 8] & (1 << (slot % 8))) != 0) {
+                    int offset = headerSize + slot * td.getSize();
+                    for (int i = 0; i < columns.length; i++) {
+                        widen(r, i, Type.readInt(page, offset + td.getOffset(columns[i])));
+                    }
+                }
+            }
+            ranges[pgno] = r;
+        }
+        numPages = n;
+        known = n;
+    }
+
+    private int[] emptyRanges() {
+        int[] r = new int[2 * columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            r[2 * i] = Integer.MAX_VALUE;
+            r[2 * i + 1] = Integer.MIN_VALUE;
+        }
+        return r;
+    }
+
+    private static void widen(int[] r, int i, int value) {
+        r[2 * i] = Math.min(r[2 * i], value);
+        r[2 * i + 1] = Math.max(r[2 * i + 1], value);
+    }
+
+    /**
+     * Makes room for the ranges of the specified page, growing the array if
+     * needed, and returns them; null if they have not been recorded.
+     */
+    private int[] entry(int pgno) {
+        if (pgno >= ranges.length) {
+            ranges = Arrays.copyOf(ranges, Math.max(pgno + 1, 2 * ranges.length));
+        }
+        return ranges[pgno];
+    }
+
+    /**
+     * Record the ranges of a page that is about to be written out, or was
+     * just written. The caller must hold the page's monitor, so that no
+     * insert can happen between reading the page and recording the ranges.
+     */
+    synchronized void record(HeapPage page) {
+        int pgno = page.getId().getPageNumber();
+        int[] r = emptyRanges();
+        for (int slot = 0; slot < page.numSlots; slot++) {
+            Tuple t = page.getTuple(slot);
+            if (t != null) {
+                for (int i = 0; i < columns.length; i++) {
+                    widen(r, i, ((IntField) t.getField(columns[i])).getValue());
+                }
+            }
+        }
+        entry(pgno);
+        ranges[pgno] = r;
+        numPages = Math.max(numPages, pgno + 1);
+        unsaved.set(pgno);
+        while (known < numPages && ranges[known] != null) {
+            known++;
+        }
+    }
+
+    /**
+     * Forget the ranges of the specified pages, until they are recorded
+     * again; the pages are not skipped in the meantime.
+     */
+    synchronized void forget(BitSet pages) {
+        for (int pgno = pages.nextSetBit(0); pgno >= 0 && pgno < numPages; pgno = pages.nextSetBit(pgno + 1)) {
+            ranges[pgno] = null;
+            known = Math.min(known, pgno);
+        }
+    }
+
+    /**
+     * Widen the ranges of a page to include a tuple inserted into it.
+     */
+    synchronized void inserted(int pgno, Tuple t) {
+        int[] r = pgno < numPages ? entry(pgno) : null;
+        if (r == null) {
+            return; // unknown pages are never skipped anyway
+        }
+        for (int i = 0; i < columns.length; i++) {
+            widen(r, i, ((IntField) t.getField(columns[i])).getValue());
+        }
+    }
+
+    /**
+     * Returns false if no tuple on the specified page can satisfy all of the
+     * predicates, according to the ranges of the page. Predicates that are
+     * not on int columns or that compare with something other than an int
+     * are ignored.
+     */
+    synchronized boolean mayMatch(int pgno, List<Predicate> predicates) {
+        if (pgno >= numPages || ranges[pgno] == null) {
+            return true;
+        }
+        int[] r = ranges[pgno];
+        for (Predicate p : predicates) {
+            int i = Arrays.binarySearch(columns, p.getField());
+            if (i < 0 || !(p.getOperand() instanceof IntField)) {
+                continue;
+            }
+            int min = r[2 * i];
+            int max = r[2 * i + 1];
+            if (min > max) {
+                return false; // no tuples
+            }
+            int v = ((IntField) p.getOperand()).getValue();
+            boolean may;
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    may = min <= v && v <= max;
+                    break;
+                case NOT_EQUALS:
+                    may = min != v || max != v;
+                    break;
+                case GREATER_THAN:
+                    may = max > v;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    may = max >= v;
+                    break;
+                case LESS_THAN:
+                    may = min < v;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    may = min <= v;
+                    break;
+                default:
+                    may = true;
+            }
+            if (!may) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the ranges recorded since the last save to the sidecar file,
+     * each run of consecutive pages with a single write, followed by a
+     * header matching the table file as it is now. HeapFile calls this once
+     * for every batch of pages it writes, after writing them.
+     */
+    synchronized void save() throws IOException {
+        int to;
+        for (int from = unsaved.nextSetBit(0); from >= 0; from = unsaved.nextSetBit(to)) {
+            to = unsaved.nextClearBit(from);
+            writeFully(sidecar, entryBytes(from, to), HEADER_SIZE + (long) from * entrySize());
+        }
+        unsaved.clear();
+        writeHeader();
+    }
+
+    private ByteBuffer entryBytes(int from, int to) {
+        ByteBuffer bb = ByteBuffer.allocate((to - from) * entrySize());
+        for (int pgno = from; pgno < to; pgno++) {
+            int[] r = ranges[pgno] != null ? ranges[pgno] : emptyRanges();
+            for (int v : r) {
+                bb.putInt(v);
+            }
+        }
+        bb.flip();
+        return bb;
+    }
+
+    private void writeHeader() throws IOException {
+        // a sidecar that does not cover every page is rebuilt when loaded
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(table.length()).putLong(table.lastModified()).putInt(known).flip();
+        writeFully(sidecar, header, 0);
+    }
+}
@@ -0,0 +1,404 @@
+package simpledb.transaction;
+
+import simpledb.common.Permissions;
+import simpledb.storage.PageId;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LockManager implements strict two-phase locking over pages. Each page has
+ * a shared/exclusive lock; a transaction holding the only shared lock on a
+ * page can upgrade it to an exclusive one. Locks are only released all at
+ * once when the transaction completes (see {@link #releaseAll}), except
+ * through {@link #release}, which callers must use with care.
+ * <p>
+ * There is no global lock: every page lock has its own monitor and a FIFO
+ * queue of the transactions that cannot be granted it yet. When a holder
+ * releases the lock, the queued requests are granted in order, and only the
+ * transactions that were granted are woken. A new shared request is not
+ * granted while an exclusive request is queued, unless the transaction
+ * already holds the lock, so a stream of readers cannot starve a writer.
+ * Before waiting (and after every wake-up), a waiter checks the wait-for
+ * graph -- implied by which lock each waiting
+ * transaction is queued on and who holds those locks -- for a cycle through
+ * itself. If it finds one, the youngest transaction of the cycle (the one
+ * with the largest id) is aborted: its pending acquire throws
+ * TransactionAbortedException.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /**
+     * The lock of a single page. Its holders and queue are kept in
+     * concurrent structures so that deadlock detection can read them without
+     * taking the monitor; they are only modified while holding it.
+     */
+    private static final class PageLock {
+        final Set<TransactionId> sharers = ConcurrentHashMap.newKeySet();
+        volatile TransactionId exclusive = null;
+        final Queue<Wait> queue = new ConcurrentLinkedQueue<>(); // waiting requests, oldest first
+        boolean retired = false; // protected by this; true once removed from the table
+
+        /**
+         * Grant the lock to tid if that is compatible with the current
+         * holders and, for a shared request by a transaction that does not
+         * hold the lock yet, if no exclusive request is queued ahead of it.
+         * Must be called while holding the monitor.
+         *
+         * @param self the queued request being granted, or null for a new one
+         */
+        boolean tryGrant(TransactionId tid, boolean wantExclusive, Wait self) {
+            if (tid.equals(exclusive)) {
+                return true;
+            }
+            if (!wantExclusive) {
+                if (sharers.contains(tid)) {
+                    return true;
+                }
+                if (exclusive == null && !exclusiveQueuedAhead(self)) {
+                    sharers.add(tid);
+                    return true;
+                }
+                return false;
+            }
+            if (exclusive == null
+                    && (sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid)))) {
+                exclusive = tid;
+                sharers.remove(tid);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return true if an exclusive request is queued before self, or at
+         *         all if self is null
+         */
+        boolean exclusiveQueuedAhead(Wait self) {
+            for (Wait w : queue) {
+                if (w == self) {
+                    return false;
+                }
+                if (w.exclusive) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Grant the queued requests that can be granted now, oldest first,
+         * and wake the transactions that made them. Must be called while
+         * holding the monitor.
+         */
+        void grantQueued() {
+            for (Iterator<Wait> it = queue.iterator(); it.hasNext(); ) {
+                Wait w = it.next();
+                if (tryGrant(w.tid, w.exclusive, w)) {
+                    it.remove();
+                    w.granted = true;
+                    LockSupport.unpark(w.thread);
+                }
+            }
+        }
+
+        boolean holds(TransactionId tid) {
+            return tid.equals(exclusive) || sharers.contains(tid);
+        }
+
+        boolean isFree() {
+            return exclusive == null && sharers.isEmpty();
+        }
+    }
+
+    /**
+     * A pending request: the lock a transaction is waiting for, in which
+     * mode, and the thread to wake once it is granted.
+     */
+    private static final class Wait {
+        final TransactionId tid;
+        final PageLock lock;
+        final boolean exclusive;
+        final Thread thread;
+        volatile boolean granted = false;
+
+        Wait(TransactionId tid, PageLock lock, boolean exclusive) {
+            this.tid = tid;
+            this.lock = lock;
+            this.exclusive = exclusive;
+            this.thread = Thread.currentThread();
+        }
+    }
+
+    private final ConcurrentMap<PageId, PageLock> locks;
+    private final ConcurrentMap<TransactionId, Set<PageId>> lockedPages;
+    private final ConcurrentMap<TransactionId, Wait> waiting;
+    private final Set<TransactionId> victims;
+
+    public LockManager() {
+        locks = new ConcurrentHashMap<>();
+        lockedPages = new ConcurrentHashMap<>();
+        waiting = new ConcurrentHashMap<>();
+        victims = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Acquire a lock on the specified page on behalf of the specified
+     * transaction, blocking until it can be granted. READ_ONLY requests a
+     * shared lock, READ_WRITE an exclusive one; requesting an exclusive lock
+     * while holding a shared one upgrades it.
+     *
+     * @throws TransactionAbortedException if waiting for the lock would
+     *                                     deadlock and tid was chosen as the
+     *                                     victim
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        while (true) {
+            PageLock lock = locks.computeIfAbsent(pid, p -> new PageLock());
+            Wait w;
+            synchronized (lock) {
+                if (lock.retired) {
+                    continue; // lost a race with release(); look the page up again
+                }
+                if (lock.tryGrant(tid, exclusive, null)) {
+                    granted(tid, pid);
+                    return;
+                }
+                w = new Wait(tid, lock, exclusive);
+                lock.queue.add(w);
+            }
+            waitFor(w, pid);
+            return;
+        }
+    }
+
+    private void waitFor(Wait w, PageId pid) throws TransactionAbortedException {
+        TransactionId tid = w.tid;
+        // publish the wait-for edge before looking for cycles, so that of two
+        // transactions closing a cycle concurrently at least one sees it
+        waiting.put(tid, w);
+        try {
+            while (!w.granted) {
+                if (victims.remove(tid) || isDeadlockVictim(tid) || Thread.currentThread().isInterrupted()) {
+                    if (withdraw(w, pid)) {
+                        throw new TransactionAbortedException();
+                    }
+                    break; // granted in the meantime
+                }
+                LockSupport.park(w.lock);
+            }
+            granted(tid, pid);
+        } finally {
+            waiting.remove(tid);
+        }
+    }
+
+    /**
+     * Take a request off its lock's queue, unless it has been granted in the
+     * meantime, and grant the requests it held up.
+     *
+     * @return true if the request was withdrawn, false if it was granted
+     */
+    private boolean withdraw(Wait w, PageId pid) {
+        PageLock lock = w.lock;
+        synchronized (lock) {
+            if (w.granted) {
+                return false;
+            }
+            lock.queue.remove(w);
+            lock.grantQueued();
+            retireIfUnused(pid, lock);
+            return true;
+        }
+    }
+
+    private void granted(TransactionId tid, PageId pid) {
+        victims.remove(tid);
+        lockedPages.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /**
+     * Look for a cycle through tid in the wait-for graph and, if there is
+     * one, pick its youngest member as the victim. Another victim is woken
+     * so that it aborts.
+     *
+     * @return true if tid itself is the victim
+     */
+    private boolean isDeadlockVictim(TransactionId tid) {
+        TransactionId victim = findDeadlockVictim(tid);
+        if (victim == null) {
+            return false;
+        }
+        if (victim.equals(tid)) {
+            return true;
+        }
+        victims.add(victim);
+        Wait w = waiting.get(victim);
+        if (w != null) {
+            LockSupport.unpark(w.thread);
+        }
+        return false;
+    }
+
+    /**
+     * Transactions that the waiting transaction tid is waiting for.
+     */
+    private Set<TransactionId> blockers(TransactionId tid) {
+        Wait w = waiting.get(tid);
+        if (w == null) {
+            return Collections.emptySet();
+        }
+        TransactionId x = w.lock.exclusive;
+        if (!w.exclusive) {
+            // a shared request also waits for the exclusive ones queued ahead
+            Set<TransactionId> result = new HashSet<>();
+            for (Wait ahead : w.lock.queue) {
+                if (ahead == w) {
+                    break;
+                }
+                if (ahead.exclusive) {
+                    result.add(ahead.tid);
+                }
+            }
+            if (x != null) {
+                result.add(x);
+            }
+            result.remove(tid);
+            return result;
+        }
+        Set<TransactionId> result = new HashSet<>(w.lock.sharers);
+        if (x != null) {
+            result.add(x);
+        }
+        result.remove(tid);
+        return result;
+    }
+
+    /**
+     * Depth-first search of the wait-for graph for a path from start back to
+     * itself.
+     *
+     * @return the youngest transaction on the cycle found, or null if start
+     *         is not part of a cycle
+     */
+    private TransactionId findDeadlockVictim(TransactionId start) {
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        stack.push(start);
+        parent.put(start, null);
+        while (!stack.isEmpty()) {
+            TransactionId cur = stack.pop();
+            for (TransactionId next : blockers(cur)) {
+                if (next.equals(start)) {
+                    // walk back along the path to find the youngest member
+                    TransactionId youngest = start;
+                    for (TransactionId t = cur; t != null; t = parent.get(t)) {
+                        if (t.getId() > youngest.getId()) {
+                            youngest = t;
+                        }
+                    }
+                    return youngest;
+                }
+                if (!parent.containsKey(next)) {
+                    parent.put(next, cur);
+                    stack.push(next);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return true if the specified transaction holds a lock (of either mode)
+     * on the specified page.
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        return lock != null && lock.holds(tid);
+    }
+
+    /**
+     * Return true if the specified transaction holds the exclusive lock on
+     * the specified page.
+     */
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        return lock != null && tid.equals(lock.exclusive);
+    }
+
+    /**
+     * @return the pages on which the specified transaction holds locks
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        return pages == null ? Collections.emptySet() : Collections.unmodifiableSet(pages);
+    }
+
+    /**
+     * Release the lock the specified transaction holds on the specified page,
+     * if any. Releasing a lock before the transaction completes breaks
+     * two-phase locking.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = lockedPages.get(tid);
+        if (pages != null) {
+            pages.remove(pid);
+        }
+        unlock(tid, pid);
+    }
+
+    /**
+     * Release all locks held by the specified transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> pages = lockedPages.remove(tid);
+        victims.remove(tid);
+        if (pages == null) {
+            return;
+        }
+        for (PageId pid : pages) {
+            unlock(tid, pid);
+        }
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        PageLock lock = locks.get(pid);
+        if (lock == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (tid.equals(lock.exclusive)) {
+                lock.exclusive = null;
+            }
+            lock.sharers.remove(tid);
+            lock.grantQueued();
+            retireIfUnused(pid, lock);
+        }
+    }
+
+    /**
+     * Remove the lock from the table if nobody holds or waits for it. Must be
+     * called while holding its monitor.
+     */
+    private void retireIfUnused(PageId pid, PageLock lock) {
+        if (lock.isFree() && lock.queue.isEmpty()) {
+            lock.retired = true;
+            locks.remove(pid, lock);
+        }
+    }
+}
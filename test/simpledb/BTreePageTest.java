@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.storage.BufferPool;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class BTreePageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(2);
+
+    private int tableId;
+
+    @Before public void addTable() throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = new BTreeFile(f, 1, TD);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        tableId = bf.getId();
+    }
+
+    private byte[] empty() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Tuples come out of a leaf in key order whatever order they went in,
+     * their RecordIds match their slots, and deleting leaves a hole that the
+     * next insert fills without losing the order.
+     */
+    @Test public void leafKeepsKeyOrder() throws Exception {
+        BTreePageId pid = new BTreePageId(tableId, 1, BTreePageId.LEAF);
+        BTreeLeafPage page = new BTreeLeafPage(pid, empty());
+        int[] keys = {50, 10, 40, 20, 30, 20};
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < keys.length; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{i, keys[i]});
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        assertEquals(List.of("1\t10", "3\t20", "5\t20", "4\t30", "2\t40", "0\t50"),
+                TestUtil.contents(page.iterator()));
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(pid, t.getRecordId().getPageId());
+            assertTrue(page.isSlotUsed(t.getRecordId().getTupleNumber()));
+        }
+
+        Tuple forty = null;
+        for (Iterator<Tuple> i = page.iterator(); i.hasNext(); ) {
+            Tuple t = i.next();
+            if (t.getField(1).equals(new IntField(40)))
+                forty = t;
+        }
+        page.deleteTuple(forty);
+        try {
+            page.deleteTuple(forty);
+            fail("slot should be empty");
+        } catch (DbException e) {
+            // expected
+        }
+        page.insertTuple(Utility.getHeapTuple(new int[]{6, 35}));
+        page.insertTuple(Utility.getHeapTuple(new int[]{7, 5}));
+        assertEquals(List.of("7\t5", "1\t10", "3\t20", "5\t20", "4\t30", "6\t35", "0\t50"),
+                TestUtil.contents(page.iterator()));
+        BTreeLeafPage copy = new BTreeLeafPage(pid, page.getPageData());
+        assertEquals(TestUtil.contents(page.iterator()), TestUtil.contents(copy.iterator()));
+    }
+
+    @Test public void leafFillsUp() throws Exception {
+        BTreeLeafPage page = new BTreeLeafPage(new BTreePageId(tableId, 1, BTreePageId.LEAF), empty());
+        int max = page.getMaxTuples();
+        assertEquals(BTreeLeafPage.getMaxTuples(TD), max);
+        for (int i = 0; i < max; i++) {
+            page.insertTuple(Utility.getHeapTuple(new int[]{i, max - i}));
+        }
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(Utility.getHeapTuple(new int[]{0, 0}));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Keys and children of an internal page, and how searches are routed.
+     */
+    @Test public void internalEntries() throws Exception {
+        BTreePageId pid = new BTreePageId(tableId, 1, BTreePageId.INTERNAL);
+        BTreeInternalPage page = new BTreeInternalPage(pid, empty());
+        assertEquals(BTreeInternalPage.getMaxEntries(Type.INT_TYPE), page.getMaxEntries());
+        page.insertEntry(new IntField(10), leaf(2), leaf(3));
+        page.insertEntry(new IntField(20), leaf(3), leaf(4));
+        page.insertEntry(new IntField(5), leaf(2), leaf(5));
+        // children 2 5 3 4, keys 5 10 20
+        assertEquals(3, page.getNumEntries());
+        assertEquals(leaf(5), page.getChildId(1));
+        assertEquals(BTreePageId.LEAF, page.getChildId(1).pgcateg());
+        assertEquals(0, page.childIndexFor(new IntField(1)));
+        assertEquals(0, page.childIndexFor(new IntField(5)));
+        assertEquals(1, page.childIndexFor(new IntField(6)));
+        assertEquals(3, page.childIndexFor(new IntField(21)));
+        assertEquals(0, page.childIndexFor(null));
+
+        BTreeInternalPage copy = new BTreeInternalPage(pid, page.getPageData());
+        assertEquals(3, copy.getNumEntries());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(page.getKey(i), copy.getKey(i));
+        }
+        for (int i = 0; i <= 3; i++) {
+            assertEquals(page.getChildId(i), copy.getChildId(i));
+        }
+
+        page.deleteKeyAndRightChild(1); // 10 and 3
+        assertEquals(new IntField(20), page.getKey(1));
+        assertEquals(leaf(4), page.getChildId(2));
+        page.deleteKeyAndLeftChild(0); // 5 and 2
+        assertEquals(leaf(5), page.getChildId(0));
+        assertEquals(1, page.getNumEntries());
+        assertEquals(-1, page.indexOfChild(leaf(2)));
+    }
+
+    private BTreePageId leaf(int pgno) {
+        return new BTreePageId(tableId, pgno, BTreePageId.LEAF);
+    }
+
+    @Test public void headerSlots() throws Exception {
+        BTreeHeaderPage page = new BTreeHeaderPage(new BTreePageId(tableId, 1, BTreePageId.HEADER), empty());
+        assertEquals(0, page.getEmptySlot());
+        page.init();
+        assertEquals(-1, page.getEmptySlot());
+        page.markSlotUsed(100, false);
+        assertEquals(100, page.getEmptySlot());
+        assertTrue(100 < BTreeHeaderPage.getNumSlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreePageTest.class);
+    }
+}
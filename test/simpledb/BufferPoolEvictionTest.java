@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.SlottedHeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolEvictionTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for BufferPool: a page keeps its contents after it was
+     * evicted and its frame was reused for other pages, both for tuples read
+     * before the eviction and for tuples read from it afterwards.
+     */
+    @Test public void evictedPageStaysReadable() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, tuples);
+        BufferPool bp = Database.resetBufferPool(1);
+        TransactionId tid = new TransactionId();
+
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        Iterator<Tuple> it = first.iterator();
+        Tuple before = it.next();
+        for (int i = 1; i < hf.numPages(); i++) {
+            assertNotSame(first, bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY));
+        }
+
+        assertEquals((int) tuples.get(0).get(0), ((IntField) before.getField(0)).getValue());
+        int row = 1;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals((int) tuples.get(row).get(0), ((IntField) t.getField(0)).getValue());
+            assertEquals((int) tuples.get(row).get(1), ((IntField) t.getField(1)).getValue());
+            row++;
+        }
+        assertEquals(504, row);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for BufferPool.pinPage(): a pinned page is not evicted while
+     * other pages go through the pool, and the pool reports that it is full
+     * once every page is pinned; unpinning and completing the transaction
+     * make the pages evictable again.
+     */
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+
+        Page pinned = bp.pinPage(tid, first, Permissions.READ_ONLY);
+        for (int i = 1; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        long misses = bp.getMissCount();
+        assertSame(pinned, bp.getPage(tid, first, Permissions.READ_ONLY));
+        assertEquals(misses, bp.getMissCount());
+
+        // pinned twice, and the second frame pinned too
+        assertSame(pinned, bp.pinPage(tid, first, Permissions.READ_ONLY));
+        bp.pinPage(tid, new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+            fail("all pages are pinned");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.unpinPage(tid, first);
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+            fail("the first page is still pinned once");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.unpinPage(tid, first);
+        assertNotSame(pinned, bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY));
+
+        // the completed transaction drops the pin on page 1
+        bp.transactionComplete(tid);
+        tid = new TransactionId();
+        for (int i = 3; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for BufferPool.pinPage(): a pin the transaction took on a
+     * page of a SlottedHeapFile survives an insert into that page, so the
+     * page stays in the pool once it is clean again.
+     */
+    @Test public void pinSurvivesInsert() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        SlottedHeapFile sf = new SlottedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; sf.numPages() < 4; i++) {
+            Database.getBufferPool().insertTuple(tid, sf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        BufferPool bp = Database.resetBufferPool(2);
+        tid = new TransactionId();
+        HeapPageId last = new HeapPageId(sf.getId(), sf.numPages() - 1);
+        Page pinned = bp.pinPage(tid, last, Permissions.READ_WRITE);
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid, sf.getId(), t);
+        assertEquals(last, t.getRecordId().getPageId());
+        bp.flushPages(tid); // clean, so only the pin keeps it in the pool
+
+        for (int i = 0; i < sf.numPages() - 1; i++) {
+            bp.getPage(tid, new HeapPageId(sf.getId(), i), Permissions.READ_ONLY);
+        }
+        long misses = bp.getMissCount();
+        assertSame(pinned, bp.getPage(tid, last, Permissions.READ_ONLY));
+        assertEquals(misses, bp.getMissCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolEvictionTest.class);
+    }
+}
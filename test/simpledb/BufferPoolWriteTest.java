@@ -5,6 +5,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.After;
@@ -140,6 +142,39 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test for BufferPool.flushAllPages() with dirty pages in two files,
+     * some of them next to each other and some not.
+     */
+    @Test public void flushAllPages() throws Exception {
+    	HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504*10, null, null);
+    	int[] dirty = {0, 1, 2, 5, 7, 8};
+    	for (int pgno : dirty) {
+    		HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), pgno),
+    				Permissions.READ_ONLY);
+    		Iterator<Tuple> it = p.iterator();
+    		for (int i = 0; i <= pgno; i++) {
+    			Database.getBufferPool().deleteTuple(tid, it.next());
+    		}
+    	}
+    	for (int i = 0; i < 600; ++i) {
+    		Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    	}
+    	Database.getBufferPool().flushAllPages();
+
+    	// read the pages back from disk, not from the buffer pool
+    	for (int pgno = 0; pgno < 10; pgno++) {
+    		HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pgno));
+    		final int n = pgno;
+    		boolean deleted = Arrays.stream(dirty).anyMatch(d -> d == n);
+    		assertEquals(deleted ? pgno + 1 : 0, p.getNumUnusedSlots());
+    	}
+    	assertEquals(2, empty.numPages());
+    	assertEquals(0, ((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0))).getNumUnusedSlots());
+    	assertEquals(504 * 2 - 600,
+    			((HeapPage) empty.readPage(new HeapPageId(empty.getId(), 1))).getNumUnusedSlots());
+    }
+
     /**
      * JUnit suite target
      */
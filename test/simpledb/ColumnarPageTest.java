@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ColumnarPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class ColumnarPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+            new String[]{"a", "b", "c"});
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int a, String b, int c) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(b, Type.STRING_LEN));
+        t.setField(2, new IntField(c));
+        return t;
+    }
+
+    /**
+     * A page holds as many tuples as a HeapPage, and they survive
+     * getPageData.
+     */
+    @Test public void fillAndRoundTrip() throws Exception {
+        ColumnarPage page = new ColumnarPage(pid, ColumnarPage.createEmptyPageData());
+        int slots = page.getNumUnusedSlots();
+        assertEquals(BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1), slots);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < slots; i++) {
+            Tuple t = tuple(i, "s" + i, -i);
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            expected.add(t.toString());
+        }
+        assertEquals(0, page.getNumUnusedSlots());
+        try {
+            page.insertTuple(tuple(0, "", 0));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+        assertEquals(expected, TestUtil.contents(page.iterator()));
+        assertEquals(expected, TestUtil.contents(new ColumnarPage(pid, page.getPageData()).iterator()));
+    }
+
+    /**
+     * Projected tuples have only the requested fields, in the requested
+     * order, and the RecordIds of the full tuples.
+     */
+    @Test public void projection() throws Exception {
+        ColumnarPage page = new ColumnarPage(pid, ColumnarPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            page.insertTuple(tuple(i, "s" + i, 100 + i));
+        }
+        Iterator<Tuple> it = page.iterator(new int[]{2, 0});
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertEquals("c", t.getTupleDesc().getFieldName(0));
+            assertEquals(new IntField(100 + i), t.getField(0));
+            assertEquals(new IntField(i), t.getField(1));
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleting empties the slot in every column, and the slot is reused.
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        ColumnarPage page = new ColumnarPage(pid, ColumnarPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Tuple t = tuple(i, "s" + i, i);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        page.setBeforeImage();
+        page.deleteTuple(tuples.get(2));
+        assertFalse(page.isSlotUsed(2));
+        try {
+            page.deleteTuple(tuples.get(2));
+            fail("slot should be empty");
+        } catch (DbException e) {
+            // expected
+        }
+        Tuple t = tuple(7, "seven", 7);
+        page.insertTuple(t);
+        assertEquals(2, t.getRecordId().getTupleNumber());
+        assertEquals(List.of("0\ts0\t0", "1\ts1\t1", "7\tseven\t7", "3\ts3\t3", "4\ts4\t4"),
+                TestUtil.contents(page.iterator()));
+        assertEquals(List.of("0\ts0\t0", "1\ts1\t1", "2\ts2\t2", "3\ts3\t3", "4\ts4\t4"),
+                TestUtil.contents(page.getBeforeImage().iterator()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarPageTest.class);
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class CompressedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(3);
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Fills a page with the tuples (f(i), g(i), h(i)) until the next one does
+     * not fit, and checks that they survive getPageData.
+     *
+     * @return the number of tuples on the page
+     */
+    private int fill(IntUnaryOperator f, IntUnaryOperator g, IntUnaryOperator h) throws Exception {
+        CompressedPage page = new CompressedPage(pid, CompressedPage.createEmptyPageData());
+        List<String> expected = new ArrayList<>();
+        int i = 0;
+        while (true) {
+            Tuple t = Utility.getHeapTuple(new int[]{f.applyAsInt(i), g.applyAsInt(i), h.applyAsInt(i)});
+            if (!page.fits(t)) {
+                try {
+                    page.insertTuple(t);
+                    fail("page should be full");
+                } catch (DbException e) {
+                    // expected
+                }
+                break;
+            }
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            expected.add(t.toString());
+            i++;
+        }
+        assertEquals(expected, TestUtil.contents(page.iterator()));
+        assertEquals(expected, TestUtil.contents(new CompressedPage(pid, page.getPageData()).iterator()));
+        return i;
+    }
+
+    /**
+     * Sorted keys, small counters and long runs take a few bits per tuple;
+     * any values at all still fit as many tuples as without compression.
+     */
+    @Test public void encodings() throws Exception {
+        int uncompressed = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        int sorted = fill(i -> 1000 + 3 * i, i -> i % 16, i -> i / 500);
+        assertTrue(sorted > 6 * uncompressed);
+        int constant = fill(i -> 7, i -> -7, i -> Integer.MIN_VALUE);
+        assertTrue(constant > sorted);
+        int extremes = fill(i -> i % 2 == 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE,
+                i -> Integer.MAX_VALUE - i, i -> i * 0x9E3779B9);
+        assertTrue(extremes >= uncompressed - 1);
+    }
+
+    /**
+     * Deleted tuples keep their rows until the page is empty, and the before
+     * image is the page as it was.
+     */
+    @Test public void deleteAndBeforeImage() throws Exception {
+        CompressedPage page = new CompressedPage(pid, CompressedPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{i, i % 3, 0});
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        page.setBeforeImage();
+        List<String> before = TestUtil.contents(page.iterator());
+        page.deleteTuple(tuples.get(5));
+        try {
+            page.deleteTuple(tuples.get(5));
+            fail("tuple is already deleted");
+        } catch (DbException e) {
+            // expected
+        }
+        assertFalse(page.isSlotUsed(5));
+        assertEquals(99, page.getNumTuples());
+        assertEquals(99, TestUtil.contents(new CompressedPage(pid, page.getPageData()).iterator()).size());
+        assertEquals(before, TestUtil.contents(page.getBeforeImage().iterator()));
+
+        Tuple t = Utility.getHeapTuple(new int[]{1, 1, 1});
+        page.insertTuple(t);
+        assertEquals(100, t.getRecordId().getTupleNumber());
+        tuples.add(t);
+        for (Tuple u : tuples) {
+            if (u != tuples.get(5))
+                page.deleteTuple(u);
+        }
+        assertEquals(0, page.getNumTuples());
+        t = Utility.getHeapTuple(new int[]{2, 2, 2});
+        page.insertTuple(t);
+        assertEquals(0, t.getRecordId().getTupleNumber());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageTest.class);
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.HashBucketPage;
+import simpledb.index.HashDirectoryPage;
+import simpledb.index.HashIndex;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class HashPageTest extends SimpleDbTestBase {
+
+    private int indexId;
+
+    @Before public void addIndex() throws Exception {
+        File table = File.createTempFile("table", ".dat");
+        table.deleteOnExit();
+        HeapFile hf = new HeapFile(table, new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE}));
+        Database.getCatalog().addTable(hf, "t");
+        File f = File.createTempFile("table", ".hash");
+        f.delete();
+        f.deleteOnExit();
+        HashIndex index = new HashIndex(f, hf, 1);
+        Database.getCatalog().addIndex(index);
+        indexId = index.getId();
+    }
+
+    private static byte[] empty() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    @Test public void bucketEntries() throws Exception {
+        HeapPageId pid = new HeapPageId(indexId, 1);
+        HashBucketPage page = new HashBucketPage(pid, empty());
+        int max = HashBucketPage.getMaxEntries(Type.STRING_TYPE);
+        assertEquals(max, page.getNumEmptySlots());
+        for (int i = 0; i < max; i++) {
+            page.insertEntry(new StringField("k" + i, Type.STRING_LEN), i, i + 1);
+        }
+        try {
+            page.insertEntry(new StringField("x", Type.STRING_LEN), 0, 0);
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+        page.setLocalDepth(3);
+        page.setNext(7);
+        page.deleteEntry(page.indexOf(new StringField("k0", Type.STRING_LEN), 0, 1));
+        assertEquals(-1, page.indexOf(new StringField("k1", Type.STRING_LEN), 1, 1));
+
+        HashBucketPage copy = new HashBucketPage(pid, page.getPageData());
+        assertEquals(3, copy.getLocalDepth());
+        assertEquals(7, copy.getNext());
+        assertEquals(max - 1, copy.getNumEntries());
+        assertEquals(-1, copy.indexOf(new StringField("k0", Type.STRING_LEN), 0, 1));
+        int i = copy.indexOf(new StringField("k1", Type.STRING_LEN), 1, 2);
+        assertEquals(new StringField("k1", Type.STRING_LEN), copy.getKey(i));
+        assertEquals(1, copy.getRecordPage(i));
+        assertEquals(2, copy.getRecordSlot(i));
+    }
+
+    @Test public void directorySlots() throws Exception {
+        HeapPageId pid = new HeapPageId(indexId, 0);
+        HashDirectoryPage page = new HashDirectoryPage(pid, empty());
+        assertTrue(page.isEmpty());
+        page.init(1);
+        assertFalse(page.isEmpty());
+        assertEquals(1, page.getBucket(12345));
+        page.grow();
+        page.setBucket(1, 2);
+        page.grow();
+        assertEquals(4, page.getNumSlots());
+        assertEquals(1, page.getBucket(0b100));
+        assertEquals(2, page.getBucket(0b111));
+
+        HashDirectoryPage copy = new HashDirectoryPage(pid, page.getPageData());
+        assertEquals(2, copy.getGlobalDepth());
+        assertEquals(2, copy.getBucket(3));
+        assertEquals(1, copy.getBucket(2));
+        for (int d = 2; d < HashDirectoryPage.getMaxDepth(); d++) {
+            copy.grow();
+        }
+        try {
+            copy.grow();
+            fail("directory should be full");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashPageTest.class);
+    }
+}
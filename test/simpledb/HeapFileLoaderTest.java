@@ -0,0 +1,166 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapFileLoader;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class HeapFileLoaderTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+
+    private File txt;
+    private File expected;
+    private File actual;
+    private ForkJoinPool pool;
+
+    @Before public void createFiles() throws IOException {
+        txt = File.createTempFile("loader", ".txt");
+        expected = File.createTempFile("encoder", ".dat");
+        actual = File.createTempFile("loader", ".dat");
+        for (File f : new File[]{txt, expected, actual}) {
+            f.deleteOnExit();
+        }
+        pool = new ForkJoinPool(4);
+    }
+
+    @After public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void write(String text) throws IOException {
+        try (Writer w = new FileWriter(txt)) {
+            w.write(text);
+        }
+    }
+
+    /**
+     * Loads the text file in chunks of the specified size, and checks that
+     * the result is what HeapFileEncoder writes.
+     */
+    private void checkSameBytes(Type[] types, int npagebytes, int chunkBytes) throws IOException {
+        HeapFileEncoder.convert(txt, expected, npagebytes, types.length, types, ',');
+        HeapFileLoader.load(txt, actual, npagebytes, types, ',', chunkBytes, pool);
+        byte[] want = Files.readAllBytes(expected.toPath());
+        byte[] got = Files.readAllBytes(actual.toPath());
+        assertEquals(want.length, got.length);
+        assertTrue(Arrays.equals(want, got));
+    }
+
+    /**
+     * Unit test for HeapFileLoader.load() with ints and strings, blank lines,
+     * Windows line endings and strings too long for a field, split into
+     * chunks that start and end in the middle of pages.
+     */
+    @Test public void sameBytesAsEncoder() throws IOException {
+        Random r = new Random(339);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            char[] s = new char[r.nextInt(Type.STRING_LEN + 20)];
+            for (int j = 0; j < s.length; j++) {
+                s[j] = (char) ('a' + r.nextInt(26));
+            }
+            sb.append(r.nextInt()).append(", ").append(s).append(" ,").append(-r.nextInt(1000));
+            sb.append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 100 == 0) {
+                sb.append("\n");
+            }
+        }
+        write(sb.toString());
+        checkSameBytes(TYPES, BufferPool.getPageSize(), 1 << 20);
+        checkSameBytes(TYPES, BufferPool.getPageSize(), 1000);
+        checkSameBytes(TYPES, 1024, 777);
+        checkSameBytes(TYPES, 1024, 1);
+    }
+
+    /**
+     * Unit test for HeapFileLoader.load() with inputs that fill exactly one
+     * page, and with empty inputs.
+     */
+    @Test public void pageBoundaries() throws IOException {
+        Type[] ints = {Type.INT_TYPE, Type.INT_TYPE};
+        int perPage = BufferPool.getPageSize() * 8 / (8 * 8 + 1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < perPage; i++) {
+            sb.append(i).append(',').append(Integer.MIN_VALUE + i).append('\n');
+        }
+        write(sb.toString());
+        checkSameBytes(ints, BufferPool.getPageSize(), 100);
+        assertEquals(BufferPool.getPageSize(), actual.length());
+        write(sb.toString() + "1,2\n");
+        checkSameBytes(ints, BufferPool.getPageSize(), 100);
+        assertEquals(2 * BufferPool.getPageSize(), actual.length());
+
+        write("");
+        checkSameBytes(ints, BufferPool.getPageSize(), 100);
+        write("\n\r\n\n");
+        checkSameBytes(ints, BufferPool.getPageSize(), 1);
+        assertEquals(BufferPool.getPageSize(), actual.length());
+    }
+
+    /**
+     * Unit test for HeapFileLoader.load() with malformed lines.
+     */
+    @Test public void badLines() throws IOException {
+        for (String text : new String[]{"1,2\n3,x\n", "1,2\n3\n", "1,2,3\n", "1,99999999999\n"}) {
+            write(text);
+            try {
+                HeapFileLoader.load(txt, actual, BufferPool.getPageSize(),
+                        new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',', 2, pool);
+                fail("expected an IOException for " + text);
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("BAD LINE"));
+            }
+        }
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert() of a list of tuples, which has
+     * to write the same bytes as converting them as text.
+     */
+    @Test public void convertList() throws IOException {
+        Random r = new Random(6830);
+        List<List<Integer>> tuples = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            List<Integer> t = Arrays.asList(r.nextInt(), r.nextInt(100), -i);
+            tuples.add(t);
+            sb.append(t.get(0)).append(',').append(t.get(1)).append(',').append(t.get(2)).append('\n');
+        }
+        write(sb.toString());
+        Type[] ints = {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+        HeapFileLoader.load(txt, expected, BufferPool.getPageSize(), ints, ',', 1000, pool);
+        HeapFileEncoder.convert(tuples, actual, BufferPool.getPageSize(), 3);
+        assertTrue(Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath())));
+
+        HeapFileEncoder.convert(new ArrayList<>(), actual, BufferPool.getPageSize(), 3);
+        assertEquals(BufferPool.getPageSize(), actual.length());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileLoaderTest.class);
+    }
+}
@@ -7,12 +7,22 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -50,6 +60,158 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple(): full pages are skipped without
+     * being fetched, and a page that gets a free slot is used again.
+     */
+    @Test public void addTupleSkipsFullPages() throws Exception {
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        assertEquals(10, full.numPages());
+        BufferPool bp = Database.getBufferPool();
+
+        long before = bp.getHitCount() + bp.getMissCount();
+        full.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(11, full.numPages());
+        assertEquals(1, bp.getHitCount() + bp.getMissCount() - before);
+
+        // free a slot on page 3 and fill it again
+        HeapPageId pid = new HeapPageId(full.getId(), 3);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        full.deleteTuple(tid, page.iterator().next());
+        before = bp.getHitCount() + bp.getMissCount();
+        Tuple t = Utility.getHeapTuple(2, 2);
+        full.insertTuple(tid, t);
+        assertEquals(pid, t.getRecordId().getPageId());
+        assertEquals(1, bp.getHitCount() + bp.getMissCount() - before);
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuples(): whole pages are appended, the
+     * remaining tuples go into a page in the buffer pool, and everything
+     * appended is undone by an abort.
+     */
+    @Test public void addTuples() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 3 * 504 + 10; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuples(tid, empty.getId(), tuples.iterator());
+        // three full pages after the existing empty one, which gets the rest
+        assertEquals(4, empty.numPages());
+        assertEquals(1, tuples.get(0).getRecordId().getPageId().getPageNumber());
+        assertEquals(3, tuples.get(3 * 504 - 1).getRecordId().getPageId().getPageNumber());
+        assertEquals(0, tuples.get(3 * 504).getRecordId().getPageId().getPageNumber());
+
+        long sum = 0;
+        int count = 0;
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            sum += ((IntField) it.next().getField(0)).getValue();
+            count++;
+        }
+        it.close();
+        assertEquals(tuples.size(), count);
+        assertEquals((long) tuples.size() * (tuples.size() - 1) / 2, sum);
+
+        bp.transactionComplete(tid, false);
+        tid = new TransactionId();
+        it = empty.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Aborts an insertTuples() batch while another transaction scans the
+     * file with read-ahead. Read-ahead does not lock pages, so it may read an
+     * appended page while the abort restores it; the aborted tuples must not
+     * stay in the buffer pool for the scan to find.
+     */
+    @Test public void abortTuplesDuringReadAhead() throws Exception {
+        /* Starts the scan when the abort restores page 1, and lets the
+           restore go on once the scan has read page 1 ahead. */
+        class ScannedHeapFile extends HeapFile {
+            volatile boolean aborting;
+            final CountDownLatch readAhead = new CountDownLatch(1);
+            final AtomicInteger scanned = new AtomicInteger(-1);
+            final AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread scanner;
+
+            ScannedHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) {
+                Page p = super.readPage(pid);
+                if (aborting && pid.getPageNumber() == 1) {
+                    readAhead.countDown();
+                }
+                return p;
+            }
+
+            @Override
+            public void writePage(Page page) throws IOException {
+                if (aborting && page.getId().getPageNumber() == 1 && scanner == null) {
+                    scanner = new Thread(this::scan);
+                    scanner.start();
+                    try {
+                        assertTrue(readAhead.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                super.writePage(page);
+            }
+
+            private void scan() {
+                TransactionId scanTid = new TransactionId();
+                try {
+                    int count = 0;
+                    DbFileIterator it = iterator(scanTid, 8);
+                    it.open();
+                    while (it.hasNext()) {
+                        it.next();
+                        count++;
+                    }
+                    it.close();
+                    scanned.set(count);
+                } catch (Throwable t) {
+                    error.set(t);
+                } finally {
+                    Database.getBufferPool().transactionComplete(scanTid);
+                }
+            }
+        }
+
+        // one empty page, which the batch leaves alone
+        File f = File.createTempFile("readahead", ".dat");
+        f.deleteOnExit();
+        Files.write(f.toPath(), HeapPage.createEmptyPageData());
+        ScannedHeapFile hf = new ScannedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 3 * 504; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        BufferPool bp = Database.getBufferPool();
+        bp.insertTuples(tid, hf.getId(), tuples.iterator());
+        assertEquals(4, hf.numPages());
+
+        hf.aborting = true;
+        bp.transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertNotNull(hf.scanner);
+        hf.scanner.join();
+        if (hf.error.get() != null) {
+            throw new AssertionError(hf.error.get());
+        }
+        assertEquals(0, hf.scanned.get());
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -13,6 +14,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -123,6 +125,40 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage: tuples are decoded lazily from a private copy
+     * of the page, predicates on them match the decoded values, and the page
+     * bytes are kept up to date in place.
+     */
+    @Test public void lazyTuples() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Arrays.fill(data, (byte) 0); // the page must not depend on the array
+
+        Iterator<Tuple> it = page.iterator();
+        for (int[] values : EXAMPLE_VALUES) {
+            Tuple tup = it.next();
+            IntField f0 = new IntField(values[0]);
+            assertTrue(tup.compareField(0, Predicate.Op.EQUALS, f0));
+            assertFalse(tup.compareField(0, Predicate.Op.LESS_THAN, f0));
+            assertTrue(tup.compareField(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(values[1])));
+            assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        // a slot that is deleted and reused is rewritten in place, and the
+        // tuple handed out for it before keeps its values
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[]{EXAMPLE_VALUES[0][0], 7}));
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        Tuple tup = reread.iterator().next();
+        assertEquals(EXAMPLE_VALUES[0][0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(7, ((IntField) tup.getField(1)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
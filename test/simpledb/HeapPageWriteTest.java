@@ -131,6 +131,27 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the before image is the page
+     * as read until setBeforeImage() is called, however often the page is
+     * modified in between.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.deleteTuple(page.iterator().next());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertEquals(page.getBeforeImage().getNumUnusedSlots() - 1, page.getNumUnusedSlots());
+    }
+
     /**
      * JUnit suite target
      */
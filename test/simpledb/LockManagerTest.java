@@ -0,0 +1,190 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Permissions;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private LockManager lm;
+    private PageId p0;
+    private PageId p1;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(0, 0);
+        p1 = new HeapPageId(0, 1);
+    }
+
+    /**
+     * Acquire a lock on another thread; the returned latch opens once the
+     * lock is granted or the acquire fails, in which case the failure is
+     * stored in error.
+     */
+    private CountDownLatch acquireAsync(TransactionId tid, PageId pid, Permissions perm,
+                                        AtomicReference<Exception> error) {
+        CountDownLatch done = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(tid, pid, perm);
+            } catch (TransactionAbortedException e) {
+                error.set(e);
+            }
+            done.countDown();
+        });
+        t.setDaemon(true);
+        t.start();
+        return done;
+    }
+
+    /**
+     * Unit test for LockManager: shared locks are compatible with each other
+     * but not with an exclusive lock.
+     */
+    @Test public void sharedAndExclusive() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t2, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(t1, p0));
+        assertTrue(lm.holdsLock(t2, p0));
+        assertFalse(lm.holdsExclusiveLock(t1, p0));
+
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch done = acquireAsync(t3, p0, Permissions.READ_WRITE, error);
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        lm.releaseAll(t1);
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        lm.releaseAll(t2);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(error.get());
+        assertTrue(lm.holdsExclusiveLock(t3, p0));
+        assertFalse(lm.holdsLock(t1, p0));
+    }
+
+    /**
+     * Unit test for LockManager: a queued exclusive request holds up later
+     * shared requests, except from transactions that already hold the lock,
+     * and is granted before them.
+     */
+    @Test public void queuedWriterBlocksNewReaders() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId t3 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+
+        AtomicReference<Exception> writerError = new AtomicReference<>();
+        CountDownLatch writerDone = acquireAsync(t2, p0, Permissions.READ_WRITE, writerError);
+        assertFalse(writerDone.await(100, TimeUnit.MILLISECONDS));
+
+        AtomicReference<Exception> readerError = new AtomicReference<>();
+        CountDownLatch readerDone = acquireAsync(t3, p0, Permissions.READ_ONLY, readerError);
+        assertFalse(readerDone.await(100, TimeUnit.MILLISECONDS));
+
+        lm.acquire(t1, p0, Permissions.READ_ONLY); // re-entrant, does not queue
+        lm.releaseAll(t1);
+        assertTrue(writerDone.await(5, TimeUnit.SECONDS));
+        assertNull(writerError.get());
+        assertTrue(lm.holdsExclusiveLock(t2, p0));
+        assertFalse(readerDone.await(100, TimeUnit.MILLISECONDS));
+
+        lm.releaseAll(t2);
+        assertTrue(readerDone.await(5, TimeUnit.SECONDS));
+        assertNull(readerError.get());
+        assertTrue(lm.holdsLock(t3, p0));
+    }
+
+    /**
+     * Unit test for LockManager: the only holder of a shared lock can upgrade
+     * it, and re-acquiring a held lock does not block.
+     */
+    @Test public void upgrade() throws Exception {
+        TransactionId t1 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusiveLock(t1, p0));
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsExclusiveLock(t1, p0));
+        assertEquals(1, lm.getLockedPages(t1).size());
+
+        lm.release(t1, p0);
+        assertFalse(lm.holdsLock(t1, p0));
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+    }
+
+    /**
+     * Unit test for LockManager: two transactions each waiting for a page the
+     * other holds form a cycle, and the younger one is aborted.
+     */
+    @Test public void deadlockAbortsYoungest() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, p0, Permissions.READ_WRITE);
+        lm.acquire(younger, p1, Permissions.READ_WRITE);
+
+        AtomicReference<Exception> olderError = new AtomicReference<>();
+        CountDownLatch olderDone = acquireAsync(older, p1, Permissions.READ_WRITE, olderError);
+        assertFalse(olderDone.await(100, TimeUnit.MILLISECONDS));
+
+        try {
+            lm.acquire(younger, p0, Permissions.READ_WRITE);
+            fail("expected the younger transaction to be aborted");
+        } catch (TransactionAbortedException expected) {
+        }
+        lm.releaseAll(younger);
+
+        assertTrue(olderDone.await(5, TimeUnit.SECONDS));
+        assertNull(olderError.get());
+        assertTrue(lm.holdsExclusiveLock(older, p1));
+    }
+
+    /**
+     * Unit test for LockManager: two readers that both try to upgrade
+     * deadlock; one of them is aborted and the other gets the lock.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, p0, Permissions.READ_ONLY);
+        lm.acquire(younger, p0, Permissions.READ_ONLY);
+
+        AtomicReference<Exception> olderError = new AtomicReference<>();
+        CountDownLatch olderDone = acquireAsync(older, p0, Permissions.READ_WRITE, olderError);
+        assertFalse(olderDone.await(100, TimeUnit.MILLISECONDS));
+
+        try {
+            lm.acquire(younger, p0, Permissions.READ_WRITE);
+            fail("expected the younger transaction to be aborted");
+        } catch (TransactionAbortedException expected) {
+        }
+        lm.releaseAll(younger);
+
+        assertTrue(olderDone.await(5, TimeUnit.SECONDS));
+        assertNull(olderError.get());
+        assertTrue(lm.holdsExclusiveLock(older, p0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
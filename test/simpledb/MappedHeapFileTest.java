@@ -0,0 +1,95 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private List<List<Integer>> tuples;
+    private MappedHeapFile mf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1200, 10000, null, tuples);
+        mf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mf, UUID.randomUUID().toString());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for MappedHeapFile.readPage(): pages read from the mapping
+     * hold the same tuples as pages read by HeapFile.
+     */
+    @Test
+    public void readPage() throws Exception {
+        HeapFile hf = new HeapFile(mf.getFile(), mf.getTupleDesc());
+        assertEquals(3, mf.numPages());
+        for (int i = 0; i < mf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mf.getId(), i);
+            HeapPage mapped = (HeapPage) mf.readPage(pid);
+            HeapPage read = (HeapPage) hf.readPage(pid);
+            assertArrayEquals(read.getPageData(), mapped.getPageData());
+        }
+    }
+
+    /**
+     * Unit test for MappedHeapFile: a scan sees all tuples of the file.
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(mf, tid, tuples);
+    }
+
+    /**
+     * Unit test for MappedHeapFile: pages appended by insertTuple after the
+     * file was mapped can be read.
+     */
+    @Test
+    public void growth() throws Exception {
+        mf.readPage(new HeapPageId(mf.getId(), 0)); // map the file
+        int before = mf.numPages();
+        // the last page is not full, so fill it and spill onto a new page
+        for (int i = 0; i < 600; i++) {
+            Tuple t = new Tuple(mf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, mf.getId(), t);
+            tuples.add(Arrays.asList(i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(before + 1, mf.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(mf, tid, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockPolicy;
+import simpledb.storage.LruKPolicy;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static void loadAll(ReplacementPolicy policy, int frames) {
+        for (int i = 0; i < frames; i++)
+            policy.pageLoaded(i);
+    }
+
+    /**
+     * Unit test for ClockPolicy: a frame that was accessed since the hand last
+     * passed it gets a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ReplacementPolicy clock = new ClockPolicy(4);
+        loadAll(clock, 4);
+        // first sweep clears all bits, so frame 0 is the first victim
+        assertEquals(0, clock.chooseVictim(i -> true));
+        clock.pageRemoved(0);
+        // frame 1 was touched again; frame 2 should be chosen instead
+        clock.pageAccessed(1);
+        assertEquals(2, clock.chooseVictim(i -> true));
+    }
+
+    /**
+     * Unit test for ClockPolicy: frames that are not evictable are skipped.
+     */
+    @Test public void clockSkipsUnevictable() {
+        ReplacementPolicy clock = new ClockPolicy(3);
+        loadAll(clock, 3);
+        assertEquals(2, clock.chooseVictim(i -> i == 2));
+        assertEquals(-1, clock.chooseVictim(i -> false));
+    }
+
+    /**
+     * Unit test for LruKPolicy: a page referenced only once is evicted before
+     * pages referenced K times, even if its single access is the most recent.
+     */
+    @Test public void lruKPrefersCorrelatedPages() {
+        ReplacementPolicy lru2 = new LruKPolicy(3, 2);
+        loadAll(lru2, 2);
+        lru2.pageAccessed(0);
+        lru2.pageAccessed(1);
+        lru2.pageLoaded(2); // e.g. a page touched once by a scan
+        assertEquals(2, lru2.chooseVictim(i -> true));
+        // among pages with full histories, the oldest second-to-last access loses
+        assertEquals(0, lru2.chooseVictim(i -> i != 2));
+        lru2.pageRemoved(0);
+        assertEquals(1, lru2.chooseVictim(i -> i != 2));
+        assertEquals(-1, lru2.chooseVictim(i -> false));
+    }
+
+    /**
+     * Unit test for ClockPolicy: only frames whose reference bit is clear are
+     * cold, and looking for one does not clear any bits.
+     */
+    @Test public void clockColdVictim() {
+        ReplacementPolicy clock = new ClockPolicy(3);
+        loadAll(clock, 2);
+        assertEquals(-1, clock.chooseColdVictim(i -> true));
+        clock.pagePrefetched(2);
+        assertEquals(2, clock.chooseColdVictim(i -> true));
+        assertEquals(-1, clock.chooseColdVictim(i -> i != 2));
+        // a prefetched page that gets used is no longer cold
+        clock.pageAccessed(2);
+        assertEquals(-1, clock.chooseColdVictim(i -> true));
+    }
+
+    /**
+     * Unit test for LruKPolicy: a prefetched page that was never accessed is
+     * evicted before any page that was, and frames with fewer than K
+     * accesses are cold.
+     */
+    @Test public void lruKColdVictim() {
+        ReplacementPolicy lru2 = new LruKPolicy(3, 2);
+        loadAll(lru2, 2);
+        lru2.pageAccessed(0);
+        assertEquals(1, lru2.chooseColdVictim(i -> true));
+        lru2.pagePrefetched(2);
+        assertEquals(2, lru2.chooseColdVictim(i -> true));
+        assertEquals(2, lru2.chooseVictim(i -> true));
+        lru2.pageAccessed(1);
+        assertEquals(-1, lru2.chooseColdVictim(i -> i != 2));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
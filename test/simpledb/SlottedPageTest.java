@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.SlottedPage;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings take only their length on a page, so many more tuples
+     * fit than on a HeapPage.
+     */
+    @Test public void fillPage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertEquals(0, page.getNumTuples());
+        int n = 0;
+        while (page.canInsert(tuple(n, "abc"))) {
+            page.insertTuple(tuple(n, "abc"));
+            n++;
+        }
+        assertEquals(n, page.getNumTuples());
+        // 4 + 2 + 3 bytes per record and 4 per directory entry
+        assertEquals((BufferPool.getPageSize() - 4) / 13, n);
+        int heapSlots = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        assertTrue(n > 5 * heapSlots);
+
+        try {
+            page.insertTuple(tuple(n, "abc"));
+            fail("page should be full");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * getPageData produces bytes that decode to the same tuples, in the same
+     * slots.
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String s = "x".repeat(i * 7 % Type.STRING_LEN);
+            Tuple t = tuple(-i, s);
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            expected.add(-i + "\t" + s);
+        }
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(expected, TestUtil.contents(copy.iterator()));
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            assertEquals(i, it.next().getRecordId().getTupleNumber());
+        }
+    }
+
+    /**
+     * Deleting frees the slot and the record's bytes; inserts that need the
+     * holes compact the page without moving the remaining tuples to other
+     * slots.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<>();
+        String s = "y".repeat(100);
+        while (page.canInsert(tuple(inserted.size(), s))) {
+            Tuple t = tuple(inserted.size(), s);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        int full = inserted.size();
+
+        // delete every other tuple; the survivors keep their slots
+        for (int i = 0; i < full; i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        assertEquals(full / 2, page.getNumTuples());
+        try {
+            page.deleteTuple(inserted.get(0));
+            fail("slot should be empty");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // the holes are not contiguous, so these inserts need a compaction
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < full; i += 2) {
+            Tuple t = tuple(1000 + i, s);
+            assertTrue(page.canInsert(t));
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        for (int i = 0; i < full; i++) {
+            expected.add((i % 2 == 0 ? 1000 + i : i) + "\t" + s);
+        }
+        assertEquals(expected, TestUtil.contents(page.iterator()));
+        assertEquals(expected, TestUtil.contents(new SlottedPage(pid, page.getPageData()).iterator()));
+    }
+
+    /**
+     * The before image stays what it was when it was set, while the page
+     * changes.
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "one"));
+        page.setBeforeImage();
+        page.insertTuple(tuple(2, "two"));
+        assertEquals(List.of("1\tone"), TestUtil.contents(page.getBeforeImage().iterator()));
+        assertEquals(List.of("1\tone", "2\ttwo"), TestUtil.contents(page.iterator()));
+        page.setBeforeImage();
+        assertEquals(List.of("1\tone", "2\ttwo"), TestUtil.contents(page.getBeforeImage().iterator()));
+    }
+
+    /**
+     * An all-zero page, as HeapPage creates it, is an empty SlottedPage.
+     */
+    @Test public void emptyPage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        assertEquals(BufferPool.getPageSize() - 4, page.getFreeSpace());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
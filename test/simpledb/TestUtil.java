@@ -103,6 +103,18 @@ public class TestUtil {
         return true;
     }
 
+    /**
+     * @return the tuples returned by the iterator, as Tuple.toString prints
+     *   them, in order
+     */
+    public static List<String> contents(Iterator<Tuple> it) {
+        List<String> out = new ArrayList<>();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        return out;
+    }
+
     /**
      * Check to see if the DbIterators have the same number of tuples and
      *   each tuple pair in parallel iteration satisfies compareTuples .
@@ -0,0 +1,85 @@
+package simpledb.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockPolicy;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures BufferPool.getPage throughput for a read-only, fully cached
+ * working set as the number of reader threads grows, once with a single
+ * partition (one latch for the whole pool) and once with one partition per
+ * reader thread.
+ * <p>
+ * Run with <code>ant runbench -Dbench=BufferPoolContentionBenchmark</code>.
+ * Throughput only scales with the thread count up to the number of
+ * processors available to the JVM.
+ */
+public class BufferPoolContentionBenchmark {
+
+    private static final int TABLE_PAGES = 256;
+    private static final int POOL_PAGES = 1024;
+    private static final long RUN_MILLIS = 2000;
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        System.out.println("processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("threads  1-partition ops/s  partitioned ops/s");
+        for (int threads : THREADS) {
+            double single = run(new BufferPool(POOL_PAGES, 1, ClockPolicy::new), hf, threads);
+            double striped = run(new BufferPool(POOL_PAGES, threads, ClockPolicy::new), hf, threads);
+            System.out.printf("%7d  %18.0f  %17.0f%n", threads, single, striped);
+        }
+    }
+
+    private static double run(BufferPool pool, HeapFile hf, int threads) throws Exception {
+        TransactionId tid = new TransactionId();
+        PageId[] pids = new PageId[TABLE_PAGES];
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            pids[i] = new HeapPageId(hf.getId(), i);
+            pool.getPage(tid, pids[i], Permissions.READ_ONLY); // warm the pool
+        }
+
+        AtomicLong ops = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long deadline = System.currentTimeMillis() + RUN_MILLIS;
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread(() -> {
+                Random r = new Random(seed);
+                long done = 0;
+                try {
+                    start.await();
+                    while (System.currentTimeMillis() < deadline) {
+                        for (int i = 0; i < 1000; i++) {
+                            pool.getPage(tid, pids[r.nextInt(TABLE_PAGES)], Permissions.READ_ONLY);
+                        }
+                        done += 1000;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                ops.addAndGet(done);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        pool.transactionComplete(tid);
+        return ops.get() / seconds;
+    }
+}
@@ -0,0 +1,140 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures how much Java heap a full BufferPool takes and what that costs the
+ * garbage collector. A table as large as the pool is read into it; then the
+ * heap in use after a full collection and the duration of full collections
+ * are reported, followed by the collections caused by a workload that reads
+ * random resident pages and creates short-lived garbage while the pool stays
+ * full.
+ * <p>
+ * Run with <code>ant runbench -Dbench=BufferPoolGcBenchmark
+ * -Dbench.args=1024 -Dbench.jvmargs=-Xmx3g</code>, where the argument is
+ * the size of the pool in megabytes (default 1024).
+ */
+public class BufferPoolGcBenchmark {
+
+    private static final int FULL_GCS = 3;
+    private static final int WORKLOAD_READS = 2_000_000;
+    private static final int PAGES_PER_TRANSACTION = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int numPages = (int) ((long) megabytes * 1024 * 1024 / BufferPool.getPageSize());
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, "gc");
+        fillTable(hf, numPages);
+        BufferPool bp = Database.resetBufferPool(numPages);
+
+        long begin = System.nanoTime();
+        for (int first = 0; first < numPages; first += PAGES_PER_TRANSACTION) {
+            TransactionId tid = new TransactionId();
+            for (int i = first; i < Math.min(numPages, first + PAGES_PER_TRANSACTION); i++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            }
+            bp.transactionComplete(tid);
+        }
+        System.out.printf("loaded %d pages (%d MB) in %.1f s%n", numPages, megabytes,
+                (System.nanoTime() - begin) / 1e9);
+
+        long fullGcNanos = 0;
+        for (int i = 0; i < FULL_GCS; i++) {
+            long start = System.nanoTime();
+            System.gc();
+            fullGcNanos += System.nanoTime() - start;
+        }
+        Runtime rt = Runtime.getRuntime();
+        System.out.printf("heap used after full GC: %8.1f MB%n", (rt.totalMemory() - rt.freeMemory()) / 1048576.0);
+        System.out.printf("full GC:                 %8.1f ms%n", fullGcNanos / 1e6 / FULL_GCS);
+
+        long[] before = gcTotals();
+        Random rand = new Random(0);
+        long sum = 0;
+        begin = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < WORKLOAD_READS; i++) {
+            if (i % PAGES_PER_TRANSACTION == 0) {
+                bp.transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), rand.nextInt(numPages)),
+                    Permissions.READ_ONLY);
+            Tuple t = page.iterator().next();
+            sum += ((IntField) t.getField(0)).getValue();
+        }
+        bp.transactionComplete(tid);
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        long[] after = gcTotals();
+        long count = after[0] - before[0];
+        long millis = after[1] - before[1];
+        System.out.printf("workload: %d page reads in %.1f s, %d collections, %d ms total, %.2f ms avg (%d)%n",
+                WORKLOAD_READS, seconds, count, millis, count == 0 ? 0.0 : (double) millis / count, sum);
+    }
+
+    /**
+     * @return the number of collections and the time spent in them so far,
+     *         summed over all collectors
+     */
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean gc : gcs) {
+            count += gc.getCollectionCount();
+            millis += gc.getCollectionTime();
+        }
+        return new long[]{count, millis};
+    }
+
+    /**
+     * Fills the empty table with numPages full pages of random integers. All
+     * pages have the same contents, which is enough here and much faster than
+     * encoding every page.
+     */
+    private static void fillTable(HeapFile hf, int numPages) throws Exception {
+        TupleDesc td = hf.getTupleDesc();
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        Random rand = new Random(0);
+        while (page.getNumUnusedSlots() > 0) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(rand.nextInt()));
+            t.setField(1, new IntField(rand.nextInt()));
+            page.insertTuple(t);
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(page.getPageData());
+        try (RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "rw")) {
+            FileChannel ch = raf.getChannel();
+            for (int i = 0; i < numPages; i++) {
+                bytes.rewind();
+                while (bytes.hasRemaining()) {
+                    ch.write(bytes);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.MappedHeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures how many pages per second a HeapFile can read when none of them
+ * are cached in the BufferPool, once by calling readPage directly for every
+ * page and once through a full scan with a buffer pool that is reset before
+ * each pass. Both are run for a plain HeapFile and for a MappedHeapFile over
+ * the same file. Finally, SeqScans of the HeapFile are timed with and without
+ * read-ahead.
+ * <p>
+ * Run with <code>ant runbench -Dbench=HeapFileScanBenchmark</code>. The
+ * file is small enough to stay in the operating system's page cache, so
+ * the numbers reflect the per-read overhead of HeapFile rather than the
+ * disk.
+ */
+public class HeapFileScanBenchmark {
+
+    private static final int TABLE_PAGES = 2048;
+    private static final int PASSES = 10;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+
+        run("HeapFile", hf);
+        MappedHeapFile mf = new MappedHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(mf, "mapped");
+        run("MappedHeapFile", mf);
+
+        for (int readAhead : new int[]{0, HeapFile.DEFAULT_READ_AHEAD, 0, HeapFile.DEFAULT_READ_AHEAD}) {
+            long pages = 0;
+            long begin = System.nanoTime();
+            for (int i = 0; i < PASSES; i++) {
+                pages += seqScan(hf, readAhead);
+            }
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            System.out.printf("SeqScan, read-ahead %2d: %10.0f pages/s%n", readAhead, pages / seconds);
+        }
+    }
+
+    private static void run(String name, HeapFile hf) throws Exception {
+        // warm up the JIT
+        readAll(hf);
+        scanAll(hf);
+
+        long pages = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < PASSES; i++) {
+            pages += readAll(hf);
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-15s readPage:   %10.0f pages/s%n", name, pages / seconds);
+
+        pages = 0;
+        begin = System.nanoTime();
+        for (int i = 0; i < PASSES; i++) {
+            pages += scanAll(hf);
+        }
+        seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("%-15s cold scans: %10.0f pages/s%n", name, pages / seconds);
+    }
+
+    private static int readAll(HeapFile hf) {
+        int n = hf.numPages();
+        for (int i = 0; i < n; i++) {
+            hf.readPage(new HeapPageId(hf.getId(), i));
+        }
+        return n;
+    }
+
+    private static int scanAll(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        int n = hf.numPages();
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    private static int seqScan(HeapFile hf, int readAhead) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.setReadAhead(readAhead);
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return hf.numPages();
+    }
+}
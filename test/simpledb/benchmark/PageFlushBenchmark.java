@@ -0,0 +1,101 @@
+package simpledb.benchmark;
+
+import java.util.Iterator;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Measures how fast dirty HeapPages are flushed from the BufferPool. Every
+ * pass modifies each page of a table by deleting a tuple and inserting it
+ * again, then times BufferPool.flushPages, which serializes and writes each
+ * page and takes its new before image. A second number times getPageData
+ * alone on the same pages.
+ * <p>
+ * Run with <code>ant runbench -Dbench=PageFlushBenchmark</code>. The file
+ * stays in the operating system's page cache, so the numbers reflect the
+ * cost of producing the page bytes rather than the disk.
+ */
+public class PageFlushBenchmark {
+
+    private static final int TABLE_PAGES = 1024;
+    private static final int PASSES = 10;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(TABLE_PAGES);
+
+        // warm up the JIT
+        flush(bp, hf);
+        serialize(bp, hf);
+
+        long pages = 0;
+        long nanos = 0;
+        for (int i = 0; i < PASSES; i++) {
+            nanos += flush(bp, hf);
+            pages += TABLE_PAGES;
+        }
+        System.out.printf("flushPages:  %10.0f pages/s%n", pages / (nanos / 1e9));
+
+        pages = 0;
+        nanos = 0;
+        for (int i = 0; i < PASSES; i++) {
+            nanos += serialize(bp, hf);
+            pages += TABLE_PAGES;
+        }
+        System.out.printf("getPageData: %10.0f pages/s%n", pages / (nanos / 1e9));
+    }
+
+    /**
+     * Dirty every page of the table and time flushing them.
+     *
+     * @return the time the flush took, in nanoseconds
+     */
+    private static long flush(BufferPool bp, HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            Iterator<Tuple> it = page.iterator();
+            Tuple t = it.next();
+            page.deleteTuple(t);
+            Tuple copy = new Tuple(t.getTupleDesc());
+            for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                copy.setField(j, t.getField(j));
+            }
+            page.insertTuple(copy);
+            page.markDirty(true, tid);
+        }
+        long begin = System.nanoTime();
+        bp.flushPages(tid);
+        long nanos = System.nanoTime() - begin;
+        bp.transactionComplete(tid);
+        return nanos;
+    }
+
+    /**
+     * Time getPageData on every page of the table.
+     *
+     * @return the time the calls took, in nanoseconds
+     */
+    private static long serialize(BufferPool bp, HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage[] pages = new HeapPage[TABLE_PAGES];
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            pages[i] = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        long begin = System.nanoTime();
+        for (HeapPage page : pages) {
+            page.getPageData();
+        }
+        long nanos = System.nanoTime() - begin;
+        bp.transactionComplete(tid);
+        return nanos;
+    }
+}
@@ -0,0 +1,302 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Delete;
+import simpledb.execution.IndexScan;
+import simpledb.execution.Insert;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.IndexPredicate;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Fills a BTreeFile through the buffer pool, with pages small enough for the
+ * tree to grow a few levels, and checks scans, index scans, deletes with
+ * merges, aborts and the query planner against the expected tuples.
+ */
+public class BTreeFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 4000;
+    private static final int KEYS = 1000;
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+            new String[]{"key", "value"});
+
+    private File file;
+    private BTreeFile tree;
+    /** the tuples that should be in the tree, as lists of fields */
+    private final List<List<Integer>> expected = new ArrayList<>();
+
+    @Before public void createTree() throws Exception {
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(1000);
+        file = File.createTempFile("btree", ".dat");
+        file.deleteOnExit();
+        tree = new BTreeFile(file, 0, TD);
+        Database.getCatalog().addTable(tree, SystemTestUtil.getUUID());
+    }
+
+    @After public void resetPageSize() {
+        BufferPool.resetPageSize();
+        Database.reset();
+    }
+
+    private static Tuple tuple(int key, int value) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    /**
+     * Inserts ROWS tuples with random keys, a transaction per 100 of them.
+     */
+    private void fill() throws Exception {
+        Random random = new Random(339);
+        TransactionId tid = null;
+        for (int i = 0; i < ROWS; i++) {
+            if (i % 100 == 0) {
+                if (tid != null)
+                    Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            int key = random.nextInt(KEYS);
+            Database.getBufferPool().insertTuple(tid, tree.getId(), tuple(key, i));
+            expected.add(List.of(key, i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<List<Integer>> drain(OpIterator it) throws Exception {
+        List<List<Integer>> out = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return out;
+    }
+
+    private List<List<Integer>> expected(Predicate.Op op, int key) {
+        List<List<Integer>> out = new ArrayList<>();
+        for (List<Integer> t : expected) {
+            if (new IntField(t.get(0)).compare(op, new IntField(key)))
+                out.add(t);
+        }
+        return out;
+    }
+
+    /**
+     * Checks that the tuples come out in key order and are the expected ones.
+     */
+    private static void assertSameTuples(List<List<Integer>> expected, List<List<Integer>> actual) {
+        for (int i = 1; i < actual.size(); i++) {
+            assertTrue(actual.get(i - 1).get(0) <= actual.get(i).get(0));
+        }
+        Comparator<List<Integer>> order = Comparator.<List<Integer>, Integer>comparing(l -> l.get(0))
+                .thenComparing(l -> l.get(1));
+        List<List<Integer>> e = new ArrayList<>(expected);
+        List<List<Integer>> a = new ArrayList<>(actual);
+        e.sort(order);
+        a.sort(order);
+        assertEquals(e, a);
+    }
+
+    @Test public void insertAndScan() throws Exception {
+        fill();
+        TransactionId tid = new TransactionId();
+        assertSameTuples(expected, drain(new SeqScan(tid, tree.getId())));
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ}) {
+            for (int key : new int[]{-1, 0, 17, 500, KEYS - 1, KEYS}) {
+                IndexScan scan = new IndexScan(tid, tree.getId(), "t", new IndexPredicate(op, new IntField(key)));
+                assertSameTuples(expected(op, key), drain(scan));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a lookup reads a path from the root to a leaf, not the table
+        Database.resetBufferPool(1000);
+        tid = new TransactionId();
+        IndexScan scan = new IndexScan(tid, tree.getId(), "t",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(500)));
+        assertSameTuples(expected(Predicate.Op.EQUALS, 500), drain(scan));
+        assertTrue(Database.getBufferPool().getMissCount() < 8);
+        assertTrue(tree.numPages() > 100);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // and the tree is still there when the file is opened again
+        tree = new BTreeFile(file, 0, TD);
+        Database.getCatalog().addTable(tree, SystemTestUtil.getUUID());
+        Database.resetBufferPool(1000);
+        tid = new TransactionId();
+        assertSameTuples(expected, drain(new SeqScan(tid, tree.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void deleteMergesAndReusesPages() throws Exception {
+        fill();
+        int pages = tree.numPages();
+
+        // delete while scanning: leaves merge under the scan
+        TransactionId tid = new TransactionId();
+        Delete delete = new Delete(tid, new IndexScan(tid, tree.getId(), "t",
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(700))));
+        List<List<Integer>> count = drain(delete);
+        Database.getBufferPool().transactionComplete(tid);
+        List<List<Integer>> deleted = expected(Predicate.Op.LESS_THAN, 700);
+        assertEquals(List.of(List.of(deleted.size())), count);
+        expected.removeAll(deleted);
+        tid = new TransactionId();
+        assertSameTuples(expected, drain(new SeqScan(tid, tree.getId())));
+        assertSameTuples(expected(Predicate.Op.GREATER_THAN_OR_EQ, 800), drain(new IndexScan(tid, tree.getId(),
+                "t", new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(800)))));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // delete the rest in random order
+        Collections.shuffle(expected, new Random(1));
+        tid = new TransactionId();
+        for (List<Integer> t : expected) {
+            SeqScan scan = new SeqScan(tid, tree.getId());
+            scan.open();
+            Tuple found = null;
+            while (found == null && scan.hasNext()) {
+                Tuple next = scan.next();
+                if (SystemTestUtil.tupleToList(next).equals(t))
+                    found = next;
+            }
+            scan.close();
+            assertNotNull(found);
+            Database.getBufferPool().deleteTuple(tid, found);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        expected.clear();
+        tid = new TransactionId();
+        assertEquals(List.of(), drain(new SeqScan(tid, tree.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the freed pages are reused
+        fill();
+        assertTrue(tree.numPages() <= pages + 1);
+        tid = new TransactionId();
+        assertSameTuples(expected, drain(new SeqScan(tid, tree.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void insertBatch() throws Exception {
+        List<Tuple> batch = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            int key = random.nextInt(KEYS);
+            batch.add(tuple(key, i));
+            expected.add(List.of(key, i));
+        }
+        TransactionId tid = new TransactionId();
+        assertEquals(List.of(List.of(batch.size())),
+                drain(new Insert(tid, new TupleIterator(TD, batch), tree.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        assertSameTuples(expected, drain(new SeqScan(tid, tree.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void abortLeavesTreeUnchanged() throws Exception {
+        fill();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Database.getBufferPool().insertTuple(tid, tree.getId(), tuple(i % 10, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertSameTuples(expected, drain(new SeqScan(tid, tree.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the pages the aborted splits appended are free for the same splits
+        int pages = tree.numPages();
+        tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Database.getBufferPool().insertTuple(tid, tree.getId(), tuple(i % 10, -i));
+            expected.add(List.of(i % 10, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, tree.numPages());
+        tid = new TransactionId();
+        assertSameTuples(expected, drain(new SeqScan(tid, tree.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void plannerUsesIndex() throws Exception {
+        BufferPool.resetPageSize();
+        Database.reset();
+        File dir = Files.createTempDirectory("btree").toFile();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        new File(dir, "kv.dat").deleteOnExit();
+        try (Writer w = new FileWriter(catalog)) {
+            w.write("kv (value int, key int pk) btree\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("kv");
+        assertTrue(Database.getCatalog().getDatabaseFile(tableId) instanceof BTreeFile);
+        assertEquals(1, ((BTreeFile) Database.getCatalog().getDatabaseFile(tableId)).keyField());
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(299 - i));
+            Database.getBufferPool().insertTuple(tid, tableId, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "k");
+        lp.addFilter("k.key", Predicate.Op.LESS_THAN, "3");
+        lp.addFilter("k.value", Predicate.Op.NOT_EQUALS, "297");
+        lp.addProjectField("k.value", null);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("kv", new TableStats(tableId, 1));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator filter = ((Operator) plan).getChildren()[0];
+        assertTrue(((Operator) filter).getChildren()[0] instanceof IndexScan);
+        assertEquals(List.of(List.of(299), List.of(298)), drain(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
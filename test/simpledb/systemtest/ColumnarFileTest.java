@@ -0,0 +1,221 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ColumnarFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Loads a ColumnarFile through a catalog file, fills it through the buffer
+ * pool, and scans some of its columns, directly and through a query plan.
+ */
+public class ColumnarFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private static Tuple row(TupleDesc td, int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(i % 7));
+        return t;
+    }
+
+    private static List<String> drain(OpIterator it) throws Exception {
+        List<String> out = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(it.next().toString());
+        }
+        it.close();
+        return out;
+    }
+
+    @Test public void projectedScans() throws Exception {
+        File dir = Files.createTempDirectory("columnar").toFile();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        new File(dir, "wide.dat").deleteOnExit();
+        try (Writer w = new FileWriter(catalog)) {
+            w.write("wide (id int, name string, bucket int) columnar\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("wide");
+        DbFile table = Database.getCatalog().getDatabaseFile(tableId);
+        assertTrue(table instanceof ColumnarFile);
+
+        // a transaction at a time, so that its pages fit in the buffer pool
+        TransactionId tid = null;
+        for (int i = 0; i < ROWS; i++) {
+            if (i % 500 == 0) {
+                if (tid != null)
+                    Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            Database.getBufferPool().insertTuple(tid, tableId, row(table.getTupleDesc(), i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int perPage = BufferPool.getPageSize() * 8 / (table.getTupleDesc().getSize() * 8 + 1);
+        assertEquals((ROWS + perPage - 1) / perPage, ((ColumnarFile) table).numPages());
+
+        // all columns, from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            expected.add(i + "\tname" + i + "\t" + i % 7);
+        }
+        assertEquals(expected, drain(new SeqScan(tid, tableId)));
+
+        // two columns, reordered
+        SeqScan scan = new SeqScan(tid, tableId, "w");
+        scan.setColumns(new int[]{2, 0});
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("w.bucket", scan.getTupleDesc().getFieldName(0));
+        expected.clear();
+        for (int i = 0; i < ROWS; i++) {
+            expected.add(i % 7 + "\t" + i);
+        }
+        assertEquals(expected, drain(scan));
+
+        // a delete through a projected tuple removes the whole row
+        scan = new SeqScan(tid, tableId);
+        scan.setColumns(new int[]{0});
+        scan.open();
+        Tuple first = scan.next();
+        scan.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the planner scans only the columns the query refers to
+        tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableId, "w");
+        lp.addProjectField("w.name", null);
+        lp.addOrderBy("w.id", true);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("wide", new TableStats(tableId, 1));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator orderBy = ((Operator) plan).getChildren()[0];
+        OpIterator seqScan = ((Operator) orderBy).getChildren()[0];
+        assertEquals(2, seqScan.getTupleDesc().numFields());
+        expected.clear();
+        for (int i = 1; i < ROWS; i++) {
+            expected.add("name" + i);
+        }
+        assertEquals(expected, drain(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A compressed table of counters and sorted keys takes far fewer pages
+     * than an uncompressed one, and reads back the same, also after deletes
+     * and an abort.
+     */
+    @Test public void compressedTable() throws Exception {
+        File dir = Files.createTempDirectory("compressed").toFile();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        new File(dir, "plain.dat").deleteOnExit();
+        new File(dir, "packed.dat").deleteOnExit();
+        try (Writer w = new FileWriter(catalog)) {
+            w.write("plain (id int, hits int, day int) columnar\npacked (id int, hits int, day int) compressed\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int plain = Database.getCatalog().getTableId("plain");
+        int packed = Database.getCatalog().getTableId("packed");
+        ColumnarFile packedFile = (ColumnarFile) Database.getCatalog().getDatabaseFile(packed);
+        assertTrue(packedFile.isCompressed());
+
+        int rows = 20000;
+        TupleDesc td = packedFile.getTupleDesc();
+        List<String> expected = new ArrayList<>();
+        TransactionId tid = null;
+        for (int i = 0; i < rows; i++) {
+            if (i % 2000 == 0) {
+                if (tid != null)
+                    Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i * 31 % 100));
+            t.setField(2, new IntField(i / 1000));
+            Database.getBufferPool().insertTuple(tid, packed, t);
+            Database.getBufferPool().insertTuple(tid, plain, t);
+            expected.add(t.toString());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        int plainPages = ((ColumnarFile) Database.getCatalog().getDatabaseFile(plain)).numPages();
+        assertTrue(packedFile.numPages() * 5 < plainPages);
+
+        // deleted, and rolled back
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, packed);
+        scan.open();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = scan.next();
+            if (i % 10 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertEquals(expected, drain(new SeqScan(tid, packed)));
+        scan = new SeqScan(tid, packed);
+        scan.open();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = scan.next();
+            if (i % 10 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        scan = new SeqScan(tid, packed, "p");
+        scan.setColumns(new int[]{2, 0});
+        List<String> projected = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            if (i % 10 != 0)
+                projected.add(i / 1000 + "\t" + i);
+        }
+        assertEquals(projected, drain(scan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarFileTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Several threads insert tuples into a table, one per transaction, so that
+ * it grows by many pages, while other threads keep scanning it. Each scan
+ * must see every tuple committed before it started and, since the inserts of
+ * one thread commit in order, a prefix of each thread's tuples, without
+ * duplicates; at the end a scan must find exactly the tuples inserted.
+ */
+public class ConcurrentInsertScanTest extends SimpleDbTestBase {
+    private static final int INITIAL_ROWS = 1000;
+    private static final int WRITERS = 3;
+    private static final int SCANNERS = 2;
+    private static final int INSERTS_PER_WRITER = 700;
+
+    @Test public void scansDuringInserts() throws Exception {
+        // column 1 is 0 for the initial tuples and the writer number for
+        // inserted ones; column 0 of an inserted tuple is its sequence number
+        Map<Integer, Integer> initial = new HashMap<>();
+        initial.put(1, 0);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, INITIAL_ROWS, initial, tuples);
+        int initialPages = table.numPages();
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        AtomicInteger committed = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger scans = new AtomicInteger();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 1; w <= WRITERS; w++) {
+            int writer = w;
+            writers.add(new Thread(() -> {
+                try {
+                    for (int seq = 0; seq < INSERTS_PER_WRITER; ) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            Tuple t = new Tuple(table.getTupleDesc());
+                            t.setField(0, new IntField(seq));
+                            t.setField(1, new IntField(writer));
+                            bp.insertTuple(tid, table.getId(), t);
+                            bp.transactionComplete(tid);
+                            committed.incrementAndGet();
+                            seq++;
+                        } catch (TransactionAbortedException e) {
+                            bp.transactionComplete(tid, false);
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            }));
+        }
+
+        List<Thread> scanners = new ArrayList<>();
+        for (int s = 0; s < SCANNERS; s++) {
+            scanners.add(new Thread(() -> {
+                try {
+                    while (!done.get() && error.get() == null) {
+                        int before = committed.get();
+                        TransactionId tid = new TransactionId();
+                        try {
+                            checkScan(new SeqScan(tid, table.getId()), before);
+                            bp.transactionComplete(tid);
+                            scans.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            bp.transactionComplete(tid, false);
+                        }
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            }));
+        }
+
+        scanners.forEach(Thread::start);
+        writers.forEach(Thread::start);
+        for (Thread t : writers) {
+            t.join();
+        }
+        done.set(true);
+        for (Thread t : scanners) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertTrue(scans.get() > 0);
+
+        for (int w = 1; w <= WRITERS; w++) {
+            for (int seq = 0; seq < INSERTS_PER_WRITER; seq++) {
+                tuples.add(List.of(seq, w));
+            }
+        }
+        SystemTestUtil.matchTuples(table, tuples);
+        assertTrue(table.numPages() > initialPages);
+        assertEquals(table.getFile().length() / BufferPool.getPageSize(), table.numPages());
+    }
+
+    /**
+     * Scans the table and checks what it sees against the inserts that had
+     * been committed when the scan started.
+     */
+    private static void checkScan(SeqScan scan, int committedBefore) throws Exception {
+        int initialSeen = 0;
+        int[] seen = new int[WRITERS + 1]; // per writer, the number of tuples seen
+        List<List<Integer>> out = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            int seq = ((IntField) t.getField(0)).getValue();
+            int writer = ((IntField) t.getField(1)).getValue();
+            if (writer == 0) {
+                initialSeen++;
+            } else {
+                out.add(List.of(seq, writer));
+                seen[writer]++;
+            }
+        }
+        scan.close();
+
+        assertEquals(INITIAL_ROWS, initialSeen);
+        int total = 0;
+        boolean[][] found = new boolean[WRITERS + 1][];
+        for (int w = 1; w <= WRITERS; w++) {
+            found[w] = new boolean[seen[w]];
+            total += seen[w];
+        }
+        for (List<Integer> t : out) {
+            int seq = t.get(0);
+            int writer = t.get(1);
+            assertTrue("not a prefix of writer " + writer + ": " + Utility.listToString(t),
+                    seq < found[writer].length);
+            assertFalse("seen twice: " + Utility.listToString(t), found[writer][seq]);
+            found[writer][seq] = true;
+        }
+        assertTrue(total >= committedBefore);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ConcurrentInsertScanTest.class);
+    }
+}
@@ -0,0 +1,175 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.Insert;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.DictionaryField;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringDictionary;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Stores a table with a dictionary-encoded string field, loaded from a
+ * catalog file, and checks that scans, filters and grouping on it give the
+ * same results as on the strings, also after the table is reopened.
+ */
+public class DictionaryEncodingTest extends SimpleDbTestBase {
+    private static final int ROWS = 1000;
+    private static final String[] CITIES = {"boston", "chicago", "denver", "evanston", "fresno"};
+
+    private File dir;
+
+    @Before public void createCatalog() throws Exception {
+        dir = Files.createTempDirectory("dict").toFile();
+        dir.deleteOnExit();
+        for (String name : new String[]{"catalog.txt", "t.dat", "t.city.dict", "plain.dat"}) {
+            new File(dir, name).deleteOnExit();
+        }
+        try (Writer w = new FileWriter(new File(dir, "catalog.txt"))) {
+            w.write("t (id int, city string dict)\nplain (id int, city string)\n");
+        }
+        Database.getCatalog().loadSchema(new File(dir, "catalog.txt").getAbsolutePath());
+    }
+
+    private static String city(int i) {
+        return CITIES[i % CITIES.length];
+    }
+
+    private static List<Tuple> rows(TupleDesc td) {
+        List<Tuple> rows = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(city(i), Type.STRING_LEN));
+            rows.add(t);
+        }
+        return rows;
+    }
+
+    private static void insert(int tableid) throws Exception {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        TransactionId tid = new TransactionId();
+        OpIterator insert = new Insert(tid, new TupleIterator(new TupleDesc(new Type[]{Type.INT_TYPE,
+                Type.STRING_TYPE}), rows(td)), tableid);
+        insert.open();
+        insert.next();
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return the number of tuples of the table per value of its city field,
+     *         with those whose city is the specified one
+     */
+    private static Map<String, Integer> countByCity(int tableid, String city) throws Exception {
+        TransactionId tid = new TransactionId();
+        Map<String, Integer> counts = new HashMap<>();
+        OpIterator agg = new Aggregate(new SeqScan(tid, tableid), 0, 1, Aggregator.Op.COUNT);
+        agg.open();
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            counts.put(t.getField(0).toString(), ((IntField) t.getField(1)).getValue());
+        }
+        agg.close();
+        OpIterator filter = new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField(city, Type.STRING_LEN)), new SeqScan(tid, tableid));
+        int matches = 0;
+        filter.open();
+        while (filter.hasNext()) {
+            assertEquals(city, filter.next().getField(1).toString());
+            matches++;
+        }
+        filter.close();
+        counts.put("=" + city, matches);
+        Database.getBufferPool().transactionComplete(tid);
+        return counts;
+    }
+
+    @Test public void encodedTableMatchesPlainOne() throws Exception {
+        int t = Database.getCatalog().getTableId("t");
+        int plain = Database.getCatalog().getTableId("plain");
+        TupleDesc td = Database.getCatalog().getTupleDesc(t);
+        assertNotNull(td.getDictionary(1));
+        assertEquals(8, td.getSize());
+        assertEquals(td, Database.getCatalog().getTupleDesc(plain));
+        insert(t);
+        insert(plain);
+        assertEquals(CITIES.length, td.getDictionary(1).size());
+        HeapFile encoded = (HeapFile) Database.getCatalog().getDatabaseFile(t);
+        HeapFile unencoded = (HeapFile) Database.getCatalog().getDatabaseFile(plain);
+        assertTrue(encoded.numPages() * 10 < unencoded.numPages());
+
+        Map<String, Integer> expected = countByCity(plain, "denver");
+        assertEquals(expected, countByCity(t, "denver"));
+        assertEquals(0, (int) countByCity(t, "nowhere").get("=nowhere"));
+
+        // the encoded table can also be copied into the plain one
+        TransactionId tid = new TransactionId();
+        OpIterator copy = new Insert(tid, new SeqScan(tid, t), plain);
+        copy.open();
+        copy.next();
+        copy.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2 * expected.get("chicago"), (int) countByCity(plain, "chicago").get("=chicago"));
+    }
+
+    @Test public void codesSurviveReopening() throws Exception {
+        int t = Database.getCatalog().getTableId("t");
+        insert(t);
+        Map<String, Integer> before = countByCity(t, "fresno");
+
+        Database.reset();
+        Database.getCatalog().loadSchema(new File(dir, "catalog.txt").getAbsolutePath());
+        t = Database.getCatalog().getTableId("t");
+        StringDictionary dictionary = Database.getCatalog().getTupleDesc(t).getDictionary(1);
+        assertEquals(CITIES.length, dictionary.size());
+        assertEquals(before, countByCity(t, "fresno"));
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, t);
+        scan.open();
+        Tuple first = scan.next();
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        DictionaryField f = (DictionaryField) first.getField(1);
+        assertEquals(dictionary.lookup(city(0)), f.getCode());
+        assertEquals(new StringField(city(0), Type.STRING_LEN), f);
+        assertEquals(f, new StringField(city(0), Type.STRING_LEN));
+        assertEquals(city(0).hashCode(), f.hashCode());
+        assertTrue(f.compare(Predicate.Op.LESS_THAN, new StringField(city(1), Type.STRING_LEN)));
+        assertTrue(f.compare(Predicate.Op.NOT_EQUALS, new DictionaryField(f.getCode() + 1, dictionary)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryEncodingTest.class);
+    }
+}
@@ -0,0 +1,281 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Delete;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.Insert;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.HashIndex;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Keeps a HashIndex on a HeapFile up to date through inserts, deletes and
+ * aborts, with pages small enough for buckets to split and to grow chains,
+ * and checks lookups and index-nested-loop joins against the table.
+ */
+public class HashIndexTest extends SimpleDbTestBase {
+    private static final int KEYS = 200;
+
+    private HeapFile table;
+    private HashIndex index;
+    private final List<List<Integer>> expected = new ArrayList<>();
+
+    @Before public void createTable() throws Exception {
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(1000);
+        table = SystemTestUtil.createRandomHeapFile(2, 600, KEYS, null, expected);
+        File f = File.createTempFile("table", ".hash");
+        f.delete();
+        f.deleteOnExit();
+        index = new HashIndex(f, table, 0);
+        Database.getCatalog().addIndex(index);
+    }
+
+    @After public void resetPageSize() {
+        BufferPool.resetPageSize();
+        Database.reset();
+    }
+
+    private static Tuple tuple(int key, int value) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    /**
+     * Looks up every key, and checks that the index holds exactly the tuples
+     * of the table.
+     */
+    private void checkIndex(HashIndex index) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int key = -1; key <= KEYS; key++) {
+            List<List<Integer>> found = new ArrayList<>();
+            for (Iterator<RecordId> it = index.lookup(tid, new IntField(key)); it.hasNext(); ) {
+                RecordId rid = it.next();
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                        Permissions.READ_ONLY);
+                found.add(SystemTestUtil.tupleToList(page.getTuple(rid.getTupleNumber())));
+            }
+            List<List<Integer>> wanted = new ArrayList<>();
+            for (List<Integer> t : expected) {
+                if (t.get(0) == key)
+                    wanted.add(t);
+            }
+            SystemTestUtil.matchTuples(new TupleIterator(Utility.getTupleDesc(2), tuples(found)), wanted);
+        }
+        int entries = 0;
+        DbFileIterator all = index.iterator(tid);
+        all.open();
+        while (all.hasNext()) {
+            all.next();
+            entries++;
+        }
+        all.close();
+        assertEquals(expected.size(), entries);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<Tuple> tuples(List<List<Integer>> rows) {
+        List<Tuple> out = new ArrayList<>();
+        for (List<Integer> r : rows) {
+            out.add(tuple(r.get(0), r.get(1)));
+        }
+        return out;
+    }
+
+    @Test public void indexFollowsTable() throws Exception {
+        // built from the table
+        checkIndex(index);
+        assertTrue(index.numPages() > 1 << 5);
+
+        // inserted one by one
+        TransactionId tid = null;
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 == 0) {
+                if (tid != null)
+                    Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            int key = (i * 7) % KEYS;
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(key, -i));
+            expected.add(List.of(key, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        checkIndex(index);
+
+        // inserted as a batch
+        List<List<Integer>> batch = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            batch.add(List.of(i % 3, 5000 + i));
+        }
+        tid = new TransactionId();
+        OpIterator insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(2), tuples(batch)),
+                table.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+        expected.addAll(batch);
+        checkIndex(index);
+
+        // deleted
+        tid = new TransactionId();
+        OpIterator delete = new Delete(tid, new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                new SeqScan(tid, table.getId())));
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+        expected.removeIf(t -> t.get(0) < 50);
+
+        // rolled back
+        tid = new TransactionId();
+        for (int i = 0; i < 200; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(i % KEYS, 9999));
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        checkIndex(index);
+
+        // the buckets the rollback appended are reused by the same inserts
+        int pages = index.numPages();
+        tid = new TransactionId();
+        for (int i = 0; i < 200; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), tuple(i % KEYS, 9999));
+            expected.add(List.of(i % KEYS, 9999));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages, index.numPages());
+        checkIndex(index);
+
+        // and read back from disk
+        Database.resetBufferPool(1000);
+        HashIndex reopened = new HashIndex(index.getFile(), table, 0);
+        Database.getCatalog().addIndex(reopened);
+        checkIndex(reopened);
+    }
+
+    @Test public void joinMatchesNestedLoops() throws Exception {
+        List<List<Integer>> outerTuples = new ArrayList<>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 300, KEYS + 20, null, outerTuples);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        List<List<Integer>> joined = new ArrayList<>();
+        OpIterator join = new Join(p, new SeqScan(tid, outer.getId(), "o"), new SeqScan(tid, table.getId(), "i"));
+        join.open();
+        while (join.hasNext()) {
+            joined.add(SystemTestUtil.tupleToList(join.next()));
+        }
+        join.close();
+        assertFalse(joined.isEmpty());
+
+        IndexNestedLoopJoin indexJoin = new IndexNestedLoopJoin(tid, p, new SeqScan(tid, outer.getId(), "o"),
+                table.getId(), "i");
+        assertEquals(join.getTupleDesc(), indexJoin.getTupleDesc());
+        SystemTestUtil.matchTuples(indexJoin, joined);
+        indexJoin.open();
+        while (indexJoin.hasNext()) {
+            indexJoin.next();
+        }
+        indexJoin.rewind();
+        List<List<Integer>> again = new ArrayList<>();
+        while (indexJoin.hasNext()) {
+            again.add(SystemTestUtil.tupleToList(indexJoin.next()));
+        }
+        indexJoin.close();
+        assertEquals(joined.size(), again.size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            new IndexNestedLoopJoin(tid, new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                    new SeqScan(tid, outer.getId()), table.getId(), "i");
+            fail("there is no index on field 1");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test public void plannerUsesIndex() throws Exception {
+        BufferPool.resetPageSize();
+        Database.reset();
+        File dir = Files.createTempDirectory("hash").toFile();
+        dir.deleteOnExit();
+        File catalog = new File(dir, "catalog.txt");
+        catalog.deleteOnExit();
+        for (String name : new String[]{"a.dat", "b.dat", "b.x.hash"}) {
+            new File(dir, name).deleteOnExit();
+        }
+        try (Writer w = new FileWriter(catalog)) {
+            w.write("a (x int, y int)\nb (x int pk hash, y int)\n");
+        }
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int a = Database.getCatalog().getTableId("a");
+        int b = Database.getCatalog().getTableId("b");
+        assertNotNull(Database.getCatalog().getIndex(b, 0));
+        assertNull(Database.getCatalog().getIndex(b, 1));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            if (i < 5)
+                Database.getBufferPool().insertTuple(tid, a, tuple(i * 10, i));
+            Database.getBufferPool().insertTuple(tid, b, tuple(i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a, "a");
+        lp.addScan(b, "b");
+        lp.addJoin("a.x", "b.x", Predicate.Op.EQUALS);
+        lp.addProjectField("b.y", null);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("a", new TableStats(a, 1));
+        stats.put("b", new TableStats(b, 1));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexNestedLoopJoin);
+        SystemTestUtil.matchTuples(plan, List.of(List.of(0), List.of(-10), List.of(-20), List.of(-30),
+                List.of(-40)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexTest.class);
+    }
+}
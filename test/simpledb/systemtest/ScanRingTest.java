@@ -0,0 +1,80 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Keeps a small table hot in the buffer pool while another transaction scans
+ * a table several times larger than the pool. The large scan has to go
+ * through a scan ring, so the hot pages must keep hitting in the pool.
+ */
+public class ScanRingTest extends SimpleDbTestBase {
+    private static final int BUFFER_PAGES = 50;
+    private static final int HOT_PAGES = 20;
+    private static final int LARGE_PAGES = 5 * BUFFER_PAGES;
+
+    @Test public void hotPagesSurviveLargeScan() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * HOT_PAGES, null, null);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, 504 * LARGE_PAGES, null, tuples);
+        assertEquals(HOT_PAGES, hot.numPages());
+        assertEquals(LARGE_PAGES, large.numPages());
+
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        TransactionId hotTid = new TransactionId();
+        for (int i = 0; i < HOT_PAGES; i++) {
+            bp.getPage(hotTid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        long missesBefore = bp.getMissCount();
+        long hitsBefore = bp.getHitCount();
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread scanner = new Thread(() -> {
+            try {
+                TransactionId tid = new TransactionId();
+                SeqScan scan = new SeqScan(tid, large.getId());
+                SystemTestUtil.matchTuples(scan, tuples);
+                bp.transactionComplete(tid);
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        scanner.start();
+
+        int rounds = 0;
+        while (scanner.isAlive() || rounds < 10) {
+            for (int i = 0; i < HOT_PAGES; i++) {
+                bp.getPage(hotTid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+            }
+            rounds++;
+        }
+        scanner.join();
+        bp.transactionComplete(hotTid);
+        assertNull(error.get());
+
+        // the scan itself never read into the pool, and the hot pages all hit
+        assertEquals(missesBefore, bp.getMissCount());
+        assertTrue(bp.getHitCount() - hitsBefore >= (long) rounds * HOT_PAGES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ScanRingTest.class);
+    }
+}
@@ -0,0 +1,144 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.SlottedHeapFile;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Writes a table of short strings as a SlottedHeapFile, loads it through a
+ * catalog file, and scans, inserts into and deletes from it through the
+ * buffer pool.
+ */
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private static List<String> scan(DbFile table) throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        List<String> out = scan(table, tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return out;
+    }
+
+    private static List<String> scan(DbFile table, TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        List<String> out = new ArrayList<>();
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            out.add(t.getField(0) + "," + t.getField(1));
+        }
+        scan.close();
+        out.sort(null);
+        return out;
+    }
+
+    private static File writeCatalog(File dir, String line) throws IOException {
+        File catalog = new File(dir, "catalog.txt");
+        try (Writer w = new FileWriter(catalog)) {
+            w.write(line + "\n");
+        }
+        return catalog;
+    }
+
+    @Test public void loadScanAndModify() throws Exception {
+        File dir = Files.createTempDirectory("slotted").toFile();
+        dir.deleteOnExit();
+        File txt = new File(dir, "names.txt");
+        txt.deleteOnExit();
+        List<String> expected = new ArrayList<>();
+        try (Writer w = new FileWriter(txt)) {
+            for (int i = 0; i < ROWS; i++) {
+                w.write(i + ",name" + i + "\n");
+                expected.add(i + ",name" + i);
+            }
+        }
+        expected.sort(null);
+        File dat = new File(dir, "names.dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convertSlotted(txt, dat, new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, ',');
+
+        // a row takes 4 + 2 + up to 8 bytes plus a 4 byte slot, instead of 136
+        int heapPages = (ROWS + 29) / 30;
+        assertTrue(dat.length() / BufferPool.getPageSize() * 5 < heapPages);
+
+        File catalog = writeCatalog(dir, "names (id int, name string) slotted");
+        catalog.deleteOnExit();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        DbFile table = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("names"));
+        assertTrue(table instanceof SlottedHeapFile);
+        assertEquals(expected, scan(table));
+
+        // delete the even ids and insert longer names, committing
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.open();
+        List<Tuple> even = new ArrayList<>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0) {
+                even.add(t);
+            }
+        }
+        scan.close();
+        for (Tuple t : even) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            expected.remove(t.getField(0) + "," + t.getField(1));
+        }
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            t.setField(0, new IntField(ROWS + i));
+            t.setField(1, new StringField("a much longer name " + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            expected.add((ROWS + i) + ",a much longer name " + i);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        expected.sort(null);
+        assertEquals(expected, scan(table));
+
+        // an aborted insert leaves nothing behind
+        tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("aborted", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(expected, scan(table));
+
+        // and the committed changes are on disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SlottedHeapFile reopened = new SlottedHeapFile(dat, table.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "names");
+        assertEquals(expected, scan(reopened));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Delete;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.HashIndex;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Deletes most of the tuples of a HeapFile with a HashIndex, vacuums it, and
+ * checks that the file shrank and that the table and its index still hold
+ * the remaining tuples.
+ */
+public class VacuumTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+
+    private HeapFile table;
+    private HashIndex index;
+    private final List<List<Integer>> expected = new ArrayList<>();
+
+    @Before public void createTable() throws Exception {
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(1000);
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, expected);
+        File f = File.createTempFile("table", ".hash");
+        f.delete();
+        f.deleteOnExit();
+        index = new HashIndex(f, table, 0);
+        Database.getCatalog().addIndex(index);
+    }
+
+    @After public void resetPageSize() {
+        BufferPool.resetPageSize();
+        Database.reset();
+    }
+
+    private void delete(Predicate p) throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator delete = new Delete(tid, new Filter(p, new SeqScan(tid, table.getId())));
+        delete.open();
+        delete.next();
+        delete.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Checks that the table holds the expected tuples, and that the index
+     * leads to each of them.
+     */
+    private void check() throws Exception {
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, table.getId()), expected);
+        int found = 0;
+        for (List<Integer> t : expected) {
+            boolean match = false;
+            for (Iterator<RecordId> it = index.lookup(tid, new IntField(t.get(0))); it.hasNext(); ) {
+                RecordId rid = it.next();
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                        Permissions.READ_ONLY);
+                Tuple u = page.getTuple(rid.getTupleNumber());
+                assertNotNull("index entry for an empty slot", u);
+                match |= SystemTestUtil.tupleToList(u).equals(t);
+            }
+            if (match)
+                found++;
+        }
+        assertEquals(expected.size(), found);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void vacuumAfterDelete() throws Exception {
+        int before = table.numPages();
+        long length = table.getFile().length();
+
+        // nothing to reclaim yet, apart from the last page perhaps
+        assertTrue(table.vacuum() <= 1);
+        before = table.numPages();
+
+        delete(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100)));
+        expected.removeIf(t -> t.get(1) > 100);
+        assertEquals(before, table.numPages());
+
+        int reclaimed = table.vacuum();
+        assertTrue(reclaimed > before / 2);
+        assertEquals(before - reclaimed, table.numPages());
+        assertTrue(table.getFile().length() < length);
+        int perPage = BufferPool.getPageSize() * 8 / (table.getTupleDesc().getSize() * 8 + 1);
+        assertEquals((expected.size() + perPage - 1) / perPage, table.numPages());
+        check();
+
+        // and once more from disk, with new tuples appended
+        Database.resetBufferPool(1000);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(Utility.getTupleDesc(2));
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            expected.add(List.of(i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        check();
+        assertEquals(0, table.vacuum());
+
+        // emptied completely
+        delete(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(Integer.MIN_VALUE)));
+        expected.clear();
+        before = table.numPages();
+        assertEquals(before, table.vacuum());
+        assertEquals(0, table.numPages());
+        check();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(VacuumTest.class);
+    }
+}
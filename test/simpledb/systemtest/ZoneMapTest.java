@@ -0,0 +1,174 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Scans a table whose first column is clustered with predicates pushed into
+ * the scan, and checks that the scan skips the pages its zone map excludes
+ * without losing tuples, also after inserts, deletes and reopening the table.
+ */
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+
+    private File file;
+    private HeapFile table;
+    private int perPage;
+
+    @Before public void createTable() throws Exception {
+        file = File.createTempFile("zonemap", ".dat");
+        file.deleteOnExit();
+        new File(file.getPath() + ".zonemap").deleteOnExit();
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            tuples.add(List.of(i, i % 10));
+        }
+        HeapFileEncoder.convert(tuples, file, BufferPool.getPageSize(), 2);
+        table = Utility.openHeapFile(2, file);
+        perPage = BufferPool.getPageSize() * 8 / (table.getTupleDesc().getSize() * 8 + 1);
+    }
+
+    /**
+     * Scans the table for the tuples whose first column satisfies the
+     * predicates, pushing them into the scan if push is set, and returns the
+     * first columns of the result.
+     */
+    private List<Integer> scan(TransactionId tid, boolean push, Predicate... predicates) throws Exception {
+        SeqScan ss = new SeqScan(tid, table.getId());
+        ss.setReadAhead(0);
+        OpIterator it = ss;
+        for (Predicate p : predicates) {
+            if (push)
+                ss.pushDown(p);
+            it = new Filter(p, it);
+        }
+        List<Integer> out = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            out.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        return out;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> out = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            out.add(i);
+        }
+        return out;
+    }
+
+    private static Predicate pred(Predicate.Op op, int v) {
+        return new Predicate(0, op, new IntField(v));
+    }
+
+    /**
+     * Runs a scan on an empty buffer pool and returns the number of pages
+     * it read from disk.
+     */
+    private long pagesRead(boolean push, Predicate... predicates) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long before = Database.getBufferPool().getMissCount();
+        scan(tid, push, predicates);
+        long read = Database.getBufferPool().getMissCount() - before;
+        Database.getBufferPool().transactionComplete(tid);
+        return read;
+    }
+
+    @Test public void skipsPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate ge = pred(Predicate.Op.GREATER_THAN_OR_EQ, 2 * perPage + 10);
+        Predicate lt = pred(Predicate.Op.LESS_THAN, 2 * perPage + 20);
+        assertEquals(range(2 * perPage + 10, 2 * perPage + 20), scan(tid, true, ge, lt));
+        assertEquals(List.of(3 * perPage), scan(tid, true, pred(Predicate.Op.EQUALS, 3 * perPage)));
+        assertEquals(List.of(), scan(tid, true, pred(Predicate.Op.GREATER_THAN, ROWS)));
+        // the second column is not clustered, so no page can be skipped
+        SeqScan ss = new SeqScan(tid, table.getId());
+        ss.pushDown(new Predicate(1, Predicate.Op.EQUALS, new IntField(3)));
+        int n = 0;
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+            n++;
+        }
+        ss.close();
+        assertEquals(ROWS, n);
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(table.numPages(), pagesRead(false, ge, lt));
+        assertEquals(1, pagesRead(true, ge, lt));
+        assertEquals(0, pagesRead(true, pred(Predicate.Op.LESS_THAN, 0)));
+    }
+
+    @Test public void insertsAndDeletes() throws Exception {
+        // inserted before the zone map is loaded, and seen by the same
+        // transaction before the page is written
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(-5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        assertEquals(List.of(-5), scan(tid, true, pred(Predicate.Op.LESS_THAN, 0)));
+        // inserted after it was loaded
+        t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(ROWS + 5));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        assertEquals(List.of(ROWS + 5), scan(tid, true, pred(Predicate.Op.GREATER_THAN, ROWS)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // empty the first page, and delete -5 again
+        tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId());
+        ss.open();
+        List<Tuple> deleted = new ArrayList<>();
+        while (ss.hasNext()) {
+            Tuple next = ss.next();
+            if (((IntField) next.getField(0)).getValue() < perPage)
+                deleted.add(next);
+        }
+        ss.close();
+        for (Tuple d : deleted) {
+            Database.getBufferPool().deleteTuple(tid, d);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, pagesRead(true, pred(Predicate.Op.LESS_THAN, perPage)));
+
+        // reopened, the table reads its zone map back from the sidecar file
+        table = Utility.openHeapFile(2, file);
+        tid = new TransactionId();
+        assertEquals(range(perPage, perPage + 3), scan(tid, true, pred(Predicate.Op.LESS_THAN, perPage + 3)));
+        assertEquals(List.of(ROWS + 5), scan(tid, true, pred(Predicate.Op.GREATER_THAN, ROWS)));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, pagesRead(true, pred(Predicate.Op.GREATER_THAN, ROWS)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}